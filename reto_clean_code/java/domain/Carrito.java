@@ -1,26 +1,138 @@
 package domain;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Carrito de compras asociado a un cliente.  Permite agregar items y calcular el total.
+ * Las cantidades de un mismo producto se acumulan en una sola línea, que se
+ * encuentra en O(1) por la referencia del producto.
+ *
+ * Las líneas no guardan el Producto ni su precio: se guardan en arreglos
+ * paralelos con la referencia entera del producto en el diccionario y la
+ * cantidad (8 bytes por línea), más una tabla de direccionamiento abierto de
+ * referencia a línea (8 bytes por línea).  El precio se resuelve en el
+ * diccionario, que comparten todos los carritos del catálogo, así que cada
+ * producto existe una sola vez en memoria.
+ *
+ * El total se guarda junto con la versión de precios del diccionario con que
+ * se calculó: mientras ningún precio cambie, consultarlo no recorre las
+ * líneas; después de un cambio se recalcula una vez con los precios vigentes.
  */
 public class Carrito {
-    private String idCliente;
-    private List<ItemCarrito> items = new ArrayList<>();
+    private static final int CAPACIDAD_INICIAL = 4;
+    private static final DiccionarioProductos DICCIONARIO_COMPARTIDO = new DiccionarioProductos();
 
+    private final String idCliente;
+    private final DiccionarioProductos diccionario;
+    private int[] referencias = new int[CAPACIDAD_INICIAL];
+    private int[] cantidades = new int[CAPACIDAD_INICIAL];
+    // Línea + 1 de cada referencia (0 = libre); el doble de la capacidad de líneas
+    private int[] indice = new int[CAPACIDAD_INICIAL * 2];
+    private int totalLineas;
+    private double total;
+    private long versionTotal;
+
+    /**
+     * Carrito sobre el diccionario compartido del catálogo.
+     */
     public Carrito(String idCliente) {
+        this(idCliente, DICCIONARIO_COMPARTIDO);
+    }
+
+    public Carrito(String idCliente, DiccionarioProductos diccionario) {
         this.idCliente = idCliente;
+        this.diccionario = diccionario;
+        this.versionTotal = diccionario.getVersionPrecios();
     }
 
     public void agregarItem(Producto producto, int cantidad) {
-        items.add(new ItemCarrito(producto, cantidad));
+        long version = diccionario.getVersionPrecios();
+        int referencia = diccionario.registrar(producto);
+        int linea = buscarLinea(referencia);
+        if (linea < 0) {
+            agregarLinea(referencia, cantidad);
+        } else {
+            cantidades[linea] += cantidad;
+        }
+        if (version == versionTotal) {
+            total += diccionario.producto(referencia).getPrecio() * cantidad;
+            // Si registrar trajo un precio nuevo, el total se recalcula al consultarlo
+            versionTotal = diccionario.getVersionPrecios() == version ? version : -1;
+        }
+    }
+
+    public String getIdCliente() {
+        return idCliente;
+    }
+
+    /**
+     * Items del carrito.  Se construyen al consultarlos a partir de las
+     * líneas, con la instancia del producto que guarda el diccionario y su
+     * precio vigente.
+     */
+    public List<ItemCarrito> getItems() {
+        List<ItemCarrito> items = new ArrayList<>(totalLineas);
+        for (int linea = 0; linea < totalLineas; linea++) {
+            items.add(new ItemCarrito(diccionario.producto(referencias[linea]), cantidades[linea]));
+        }
+        return Collections.unmodifiableList(items);
     }
 
     public double calcularTotal() {
-        return items.stream()
-                .mapToDouble(i -> i.getProducto().getPrecio() * i.getCantidad())
-                .sum();
+        long version = diccionario.getVersionPrecios();
+        if (version != versionTotal) {
+            double recalculado = 0;
+            for (int linea = 0; linea < totalLineas; linea++) {
+                recalculado += diccionario.producto(referencias[linea]).getPrecio() * cantidades[linea];
+            }
+            total = recalculado;
+            versionTotal = version;
+        }
+        return total;
+    }
+
+    private void agregarLinea(int referencia, int cantidad) {
+        if (totalLineas == referencias.length) {
+            int nuevaCapacidad = referencias.length * 2;
+            referencias = Arrays.copyOf(referencias, nuevaCapacidad);
+            cantidades = Arrays.copyOf(cantidades, nuevaCapacidad);
+            indice = new int[nuevaCapacidad * 2];
+            for (int linea = 0; linea < totalLineas; linea++) {
+                indexar(referencias[linea], linea);
+            }
+        }
+        referencias[totalLineas] = referencia;
+        cantidades[totalLineas] = cantidad;
+        indexar(referencia, totalLineas);
+        totalLineas++;
+    }
+
+    private int buscarLinea(int referencia) {
+        int mascara = indice.length - 1;
+        for (int ranura = dispersar(referencia) & mascara; indice[ranura] != 0; ranura = (ranura + 1) & mascara) {
+            int linea = indice[ranura] - 1;
+            if (referencias[linea] == referencia) {
+                return linea;
+            }
+        }
+        return -1;
+    }
+
+    private void indexar(int referencia, int linea) {
+        int mascara = indice.length - 1;
+        int ranura = dispersar(referencia) & mascara;
+        while (indice[ranura] != 0) {
+            ranura = (ranura + 1) & mascara;
+        }
+        indice[ranura] = linea + 1;
+    }
+
+    // Las referencias son enteros consecutivos: se mezclan para repartirlas en la tabla
+    private static int dispersar(int referencia) {
+        int h = referencia * 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
 }
\ No newline at end of file
@@ -0,0 +1,204 @@
+package domain;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Formato binario compacto y versionado para guardar un Carrito en la sesión
+ * o replicarlo.  No usa reflexión: cada campo se escribe a mano.
+ *
+ * Versión 2:
+ *   versión              1 byte
+ *   idCliente            varint longitud + bytes UTF-8
+ *   cantidad de productos varint
+ *   por producto         varint longitud + id del producto en UTF-8
+ *   cantidad de líneas   varint
+ *   por línea            varint posición del producto en la tabla anterior
+ *                        varint cantidad
+ *                        varint precio unitario en centavos al codificar
+ *
+ * Cada id de producto se escribe una sola vez por mensaje y las líneas lo
+ * referencian por su posición en esa tabla, así que el mensaje se puede leer
+ * en otro proceso.  La versión 1 guardaba referencias de DiccionarioProductos,
+ * que solo valen en el proceso que las asignó, y ya no se acepta.
+ *
+ * El precio viaja para quien lea el mensaje sin acceso al catálogo; al
+ * decodificar, el carrito toma los precios vigentes del catálogo, como
+ * cualquier otro carrito.
+ *
+ * Un carrito típico (id de cliente corto y menos de diez líneas) ocupa menos
+ * de 200 bytes.
+ */
+public class CarritoCodec {
+    private static final byte VERSION = 2;
+
+    private final Function<String, Producto> buscarProducto;
+    private final DiccionarioProductos diccionario;
+
+    /**
+     * @param buscarProducto resuelve un id de producto a su instancia actual
+     *                       (por ejemplo, el catálogo); los carritos
+     *                       decodificados usan el diccionario compartido
+     */
+    public CarritoCodec(Function<String, Producto> buscarProducto) {
+        this(buscarProducto, null);
+    }
+
+    public CarritoCodec(Function<String, Producto> buscarProducto, DiccionarioProductos diccionario) {
+        this.buscarProducto = buscarProducto;
+        this.diccionario = diccionario;
+    }
+
+    public byte[] codificar(Carrito carrito) {
+        Escritor escritor = new Escritor();
+        escritor.escribirByte(VERSION);
+        byte[] idCliente = carrito.getIdCliente().getBytes(StandardCharsets.UTF_8);
+        escritor.escribirVarint(idCliente.length);
+        escritor.escribirBytes(idCliente);
+        List<ItemCarrito> items = carrito.getItems();
+        Map<String, Integer> posiciones = new HashMap<>();
+        List<String> idsProducto = new ArrayList<>();
+        int[] posicionPorLinea = new int[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            String idProducto = items.get(i).getProducto().getId();
+            Integer posicion = posiciones.get(idProducto);
+            if (posicion == null) {
+                posicion = idsProducto.size();
+                posiciones.put(idProducto, posicion);
+                idsProducto.add(idProducto);
+            }
+            posicionPorLinea[i] = posicion;
+        }
+        escritor.escribirVarint(idsProducto.size());
+        for (String idProducto : idsProducto) {
+            byte[] id = idProducto.getBytes(StandardCharsets.UTF_8);
+            escritor.escribirVarint(id.length);
+            escritor.escribirBytes(id);
+        }
+        escritor.escribirVarint(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            ItemCarrito item = items.get(i);
+            escritor.escribirVarint(posicionPorLinea[i]);
+            escritor.escribirVarint(item.getCantidad());
+            escritor.escribirVarint(Math.round(item.getPrecioUnitario() * 100));
+        }
+        return escritor.resultado();
+    }
+
+    public Carrito decodificar(byte[] datos) {
+        Lector lector = new Lector(datos);
+        byte version = lector.leerByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Versión de formato no soportada: " + version);
+        }
+        String idCliente = lector.leerTexto((int) lector.leerVarint());
+        Carrito carrito = diccionario != null
+                ? new Carrito(idCliente, diccionario)
+                : new Carrito(idCliente);
+        Producto[] productos = new Producto[lector.leerCantidad()];
+        for (int i = 0; i < productos.length; i++) {
+            String idProducto = lector.leerTexto((int) lector.leerVarint());
+            productos[i] = buscarProducto.apply(idProducto);
+            if (productos[i] == null) {
+                throw new IllegalArgumentException("Producto desconocido: " + idProducto);
+            }
+        }
+        long lineas = lector.leerVarint();
+        for (long i = 0; i < lineas; i++) {
+            long posicion = lector.leerVarint();
+            if (posicion >= productos.length) {
+                throw new IllegalArgumentException("Posición de producto inválida: " + posicion);
+            }
+            Producto producto = productos[(int) posicion];
+            int cantidad = (int) lector.leerVarint();
+            lector.leerVarint(); // precio al codificar
+            carrito.agregarItem(producto, cantidad);
+        }
+        return carrito;
+    }
+
+    private static class Escritor {
+        private byte[] buffer = new byte[64];
+        private int posicion;
+
+        void escribirByte(int valor) {
+            if (posicion == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[posicion++] = (byte) valor;
+        }
+
+        void escribirBytes(byte[] valores) {
+            for (byte valor : valores) {
+                escribirByte(valor);
+            }
+        }
+
+        // 7 bits por byte; el bit alto indica que siguen más bytes
+        void escribirVarint(long valor) {
+            if (valor < 0) {
+                throw new IllegalArgumentException("No se admiten valores negativos: " + valor);
+            }
+            while (valor >= 0x80) {
+                escribirByte((int) (valor & 0x7F) | 0x80);
+                valor >>>= 7;
+            }
+            escribirByte((int) valor);
+        }
+
+        byte[] resultado() {
+            return Arrays.copyOf(buffer, posicion);
+        }
+    }
+
+    private static class Lector {
+        private final byte[] datos;
+        private int posicion;
+
+        Lector(byte[] datos) {
+            this.datos = datos;
+        }
+
+        byte leerByte() {
+            if (posicion >= datos.length) {
+                throw new IllegalArgumentException("Datos de carrito truncados");
+            }
+            return datos[posicion++];
+        }
+
+        long leerVarint() {
+            long valor = 0;
+            for (int desplazamiento = 0; desplazamiento < 64; desplazamiento += 7) {
+                byte actual = leerByte();
+                valor |= (long) (actual & 0x7F) << desplazamiento;
+                if ((actual & 0x80) == 0) {
+                    return valor;
+                }
+            }
+            throw new IllegalArgumentException("Varint mal formado");
+        }
+
+        // Cada elemento ocupa al menos un byte: una cantidad mayor indica datos corruptos
+        int leerCantidad() {
+            long cantidad = leerVarint();
+            if (cantidad > datos.length - posicion) {
+                throw new IllegalArgumentException("Datos de carrito truncados");
+            }
+            return (int) cantidad;
+        }
+
+        String leerTexto(int longitud) {
+            if (longitud < 0 || posicion + longitud > datos.length) {
+                throw new IllegalArgumentException("Datos de carrito truncados");
+            }
+            String texto = new String(datos, posicion, longitud, StandardCharsets.UTF_8);
+            posicion += longitud;
+            return texto;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,237 @@
+package domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Copia columnar del catálogo para recorridos analíticos (valor del stock,
+ * productos con stock bajo, distribución de precios).  En lugar de un objeto
+ * Producto por fila, cada atributo vive en su propio arreglo primitivo
+ * indexado por la posición del producto: un recorrido lee memoria contigua
+ * y solo las columnas que necesita.  Los recorridos se reparten en bloques
+ * que se procesan en paralelo.
+ *
+ * El catálogo no observa a los productos: refleja solo lo que su dueño le
+ * escribe con registrar y actualizarStock.  Para seguir al modelo de
+ * objetos, el repositorio que guarda los productos debe llamar a registrar
+ * en cada guardado y a actualizarStock después de cada reserva o liberación
+ * de stock; un cambio hecho directamente sobre un Producto no llega.  Un
+ * catálogo que nadie actualiza (por ejemplo, la copia que arma una carga
+ * masiva antes de publicarla) es una foto del momento en que se llenó.
+ *
+ * Las escrituras se serializan; un recorrido concurrente con escrituras ve
+ * cada fila con su valor anterior o el nuevo, por lo que sus resultados son
+ * aproximados.
+ */
+public class CatalogoColumnar {
+    private static final int CAPACIDAD_INICIAL = 1024;
+    private static final int TAMANO_BLOQUE = 1 << 16;
+
+    private final ConcurrentHashMap<String, Integer> posiciones = new ConcurrentHashMap<>();
+    private String[] ids = new String[CAPACIDAD_INICIAL];
+    private String[] nombres = new String[CAPACIDAD_INICIAL];
+    private long[] preciosCentavos = new long[CAPACIDAD_INICIAL];
+    private int[] stocks = new int[CAPACIDAD_INICIAL];
+    // Se escribe después de las columnas: quien lo lee primero ve filas completas
+    private volatile int totalProductos;
+
+    /**
+     * Registra o actualiza la fila del producto y devuelve su posición.
+     */
+    public int registrar(Producto producto) {
+        return registrar(producto.getId(), producto.getNombre(),
+                Math.round(producto.getPrecio() * 100), producto.getStock());
+    }
+
+    public synchronized int registrar(String id, String nombre, long precioCentavos, int stock) {
+        if (precioCentavos < 0) {
+            throw new IllegalArgumentException("El precio no puede ser negativo");
+        }
+        Integer existente = posiciones.get(id);
+        int posicion = existente != null ? existente : totalProductos;
+        if (existente == null) {
+            asegurarCapacidad(posicion + 1);
+            ids[posicion] = id;
+        }
+        nombres[posicion] = nombre;
+        preciosCentavos[posicion] = precioCentavos;
+        stocks[posicion] = stock;
+        if (existente == null) {
+            posiciones.put(id, posicion);
+            totalProductos = posicion + 1;
+        }
+        return posicion;
+    }
+
+    /**
+     * Alta o actualización de un lote de filas tomando el lock una sola vez,
+     * para cargas masivas.  Se usan las primeras "cantidad" posiciones de
+     * cada arreglo.
+     */
+    public synchronized void registrarLote(String[] idsLote, String[] nombresLote,
+                                           long[] preciosCentavosLote, int[] stocksLote, int cantidad) {
+        // Se valida todo el lote antes de escribir: un error no deja filas a medias
+        for (int i = 0; i < cantidad; i++) {
+            if (preciosCentavosLote[i] < 0) {
+                throw new IllegalArgumentException("El precio no puede ser negativo: " + idsLote[i]);
+            }
+        }
+        asegurarCapacidad(totalProductos + cantidad);
+        int total = totalProductos;
+        for (int i = 0; i < cantidad; i++) {
+            Integer existente = posiciones.get(idsLote[i]);
+            int posicion = existente != null ? existente : total++;
+            if (existente == null) {
+                ids[posicion] = idsLote[i];
+                posiciones.put(idsLote[i], posicion);
+            }
+            nombres[posicion] = nombresLote[i];
+            preciosCentavos[posicion] = preciosCentavosLote[i];
+            stocks[posicion] = stocksLote[i];
+        }
+        totalProductos = total;
+    }
+
+    public synchronized void actualizarStock(String idProducto, int stock) {
+        stocks[posicion(idProducto)] = stock;
+    }
+
+    public int posicion(String idProducto) {
+        Integer posicion = posiciones.get(idProducto);
+        if (posicion == null) {
+            throw new IllegalArgumentException("Producto no registrado: " + idProducto);
+        }
+        return posicion;
+    }
+
+    public int getTotalProductos() {
+        return totalProductos;
+    }
+
+    public String getId(int posicion) {
+        return ids[posicion];
+    }
+
+    public String getNombre(int posicion) {
+        return nombres[posicion];
+    }
+
+    public long getPrecioCentavos(int posicion) {
+        return preciosCentavos[posicion];
+    }
+
+    public int getStock(int posicion) {
+        return stocks[posicion];
+    }
+
+    /**
+     * Valor del inventario: suma de precio × stock de todos los productos.
+     * Se acumula en centavos para que el resultado no dependa del reparto
+     * en bloques.
+     */
+    public double calcularValorStock() {
+        int total = totalProductos;
+        long[] precios = preciosCentavos;
+        int[] unidades = stocks;
+        long centavos = bloques(total).parallel().mapToLong(bloque -> {
+            long suma = 0;
+            for (int i = inicio(bloque); i < fin(bloque, total); i++) {
+                suma += precios[i] * unidades[i];
+            }
+            return suma;
+        }).sum();
+        return centavos / 100.0;
+    }
+
+    /**
+     * Ids de los productos con stock menor que el umbral, en orden de posición.
+     */
+    public List<String> productosConStockBajo(int umbral) {
+        int total = totalProductos;
+        int[] unidades = stocks;
+        String[] columnaIds = ids;
+        int[][] encontrados = bloques(total).parallel().mapToObj(bloque -> {
+            int[] posicionesBloque = new int[16];
+            int cantidad = 0;
+            for (int i = inicio(bloque); i < fin(bloque, total); i++) {
+                if (unidades[i] < umbral) {
+                    if (cantidad == posicionesBloque.length) {
+                        posicionesBloque = Arrays.copyOf(posicionesBloque, cantidad * 2);
+                    }
+                    posicionesBloque[cantidad++] = i;
+                }
+            }
+            return Arrays.copyOf(posicionesBloque, cantidad);
+        }).toArray(int[][]::new);
+
+        List<String> resultado = new ArrayList<>();
+        for (int[] posicionesBloque : encontrados) {
+            for (int posicion : posicionesBloque) {
+                resultado.add(columnaIds[posicion]);
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Cantidad de productos por rango de precio.  Con límites {10, 50} el
+     * resultado tiene tres valores: precio < 10, 10 <= precio < 50 y
+     * precio >= 50.  Los límites deben estar en orden ascendente.
+     */
+    public long[] distribucionPrecios(double... limites) {
+        long[] limitesCentavos = new long[limites.length];
+        for (int i = 0; i < limites.length; i++) {
+            limitesCentavos[i] = Math.round(limites[i] * 100);
+            if (i > 0 && limitesCentavos[i] <= limitesCentavos[i - 1]) {
+                throw new IllegalArgumentException("Los límites deben estar en orden ascendente");
+            }
+        }
+        int total = totalProductos;
+        long[] precios = preciosCentavos;
+        return bloques(total).parallel().mapToObj(bloque -> {
+            long[] conteos = new long[limitesCentavos.length + 1];
+            for (int i = inicio(bloque); i < fin(bloque, total); i++) {
+                // Rango = cantidad de límites <= precio, contado sin saltos
+                // condicionales (el signo de límite - 1 - precio)
+                int rango = 0;
+                for (long limite : limitesCentavos) {
+                    rango += (int) ((limite - 1 - precios[i]) >>> 63);
+                }
+                conteos[rango]++;
+            }
+            return conteos;
+        }).reduce(new long[limitesCentavos.length + 1], (a, b) -> {
+            long[] suma = new long[a.length];
+            for (int i = 0; i < a.length; i++) {
+                suma[i] = a[i] + b[i];
+            }
+            return suma;
+        });
+    }
+
+    private static IntStream bloques(int total) {
+        return IntStream.range(0, (total + TAMANO_BLOQUE - 1) / TAMANO_BLOQUE);
+    }
+
+    private static int inicio(int bloque) {
+        return bloque * TAMANO_BLOQUE;
+    }
+
+    private static int fin(int bloque, int total) {
+        return Math.min(total, (bloque + 1) * TAMANO_BLOQUE);
+    }
+
+    private void asegurarCapacidad(int requerida) {
+        if (requerida <= ids.length) {
+            return;
+        }
+        int nuevaCapacidad = Math.max(requerida, ids.length * 2);
+        ids = Arrays.copyOf(ids, nuevaCapacidad);
+        nombres = Arrays.copyOf(nombres, nuevaCapacidad);
+        preciosCentavos = Arrays.copyOf(preciosCentavos, nuevaCapacidad);
+        stocks = Arrays.copyOf(stocks, nuevaCapacidad);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,121 @@
+package domain;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Cotización B2B de gran volumen (decenas o cientos de miles de líneas).  En
+ * lugar de un ItemCarrito por línea, las líneas se guardan en arreglos
+ * primitivos paralelos: posición del producto (la misma que asigna
+ * IndicePrecios), cantidad y precio unitario en centavos.  Los importes se
+ * suman en centavos con una reducción fork-join, lo que hace el resultado
+ * exacto e independiente de cómo se repartan las líneas entre hilos.
+ */
+public class CotizacionMasiva {
+    private static final int CAPACIDAD_MINIMA = 16;
+
+    private final String idCliente;
+    private int[] productos;
+    private int[] cantidades;
+    private long[] preciosCentavos;
+    private int totalLineas;
+
+    public CotizacionMasiva(String idCliente, int lineasEstimadas) {
+        int capacidad = Math.max(lineasEstimadas, CAPACIDAD_MINIMA);
+        this.idCliente = idCliente;
+        this.productos = new int[capacidad];
+        this.cantidades = new int[capacidad];
+        this.preciosCentavos = new long[capacidad];
+    }
+
+    public void agregarLinea(int posicionProducto, int cantidad, double precioUnitario) {
+        if (cantidad <= 0) {
+            throw new IllegalArgumentException("La cantidad debe ser positiva");
+        }
+        if (totalLineas == productos.length) {
+            int nuevaCapacidad = productos.length * 2;
+            productos = Arrays.copyOf(productos, nuevaCapacidad);
+            cantidades = Arrays.copyOf(cantidades, nuevaCapacidad);
+            preciosCentavos = Arrays.copyOf(preciosCentavos, nuevaCapacidad);
+        }
+        productos[totalLineas] = posicionProducto;
+        cantidades[totalLineas] = cantidad;
+        preciosCentavos[totalLineas] = Math.round(precioUnitario * 100);
+        totalLineas++;
+    }
+
+    public String getIdCliente() {
+        return idCliente;
+    }
+
+    public int getTotalLineas() {
+        return totalLineas;
+    }
+
+    public int getPosicionProducto(int linea) {
+        return productos[linea];
+    }
+
+    public double calcularSubtotalLinea(int linea) {
+        return cantidades[linea] * preciosCentavos[linea] / 100.0;
+    }
+
+    public double calcularSubtotal() {
+        return sumarSubtotalesCentavos() / 100.0;
+    }
+
+    /**
+     * Importe descontado al aplicar el factor del tipo de cliente (0.9 para
+     * preferente, 0.8 para vip, como en DiscountCalculator).
+     */
+    public double calcularDescuento(double factor) {
+        long subtotal = sumarSubtotalesCentavos();
+        return (subtotal - Math.round(subtotal * factor)) / 100.0;
+    }
+
+    public double calcularTotal(double factor) {
+        return Math.round(sumarSubtotalesCentavos() * factor) / 100.0;
+    }
+
+    private long sumarSubtotalesCentavos() {
+        return ForkJoinPool.commonPool().invoke(new SumaSubtotales(cantidades, preciosCentavos, 0, totalLineas));
+    }
+
+    /**
+     * Divide el rango de líneas a la mitad hasta llegar a bloques pequeños,
+     * que se suman de forma secuencial sobre los arreglos.
+     */
+    private static final class SumaSubtotales extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+        private static final int UMBRAL_SECUENCIAL = 8192;
+
+        private final int[] cantidades;
+        private final long[] preciosCentavos;
+        private final int desde;
+        private final int hasta;
+
+        SumaSubtotales(int[] cantidades, long[] preciosCentavos, int desde, int hasta) {
+            this.cantidades = cantidades;
+            this.preciosCentavos = preciosCentavos;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected Long compute() {
+            if (hasta - desde <= UMBRAL_SECUENCIAL) {
+                long suma = 0;
+                for (int i = desde; i < hasta; i++) {
+                    suma += cantidades[i] * preciosCentavos[i];
+                }
+                return suma;
+            }
+            int medio = (desde + hasta) >>> 1;
+            SumaSubtotales izquierda = new SumaSubtotales(cantidades, preciosCentavos, desde, medio);
+            izquierda.fork();
+            long derecha = new SumaSubtotales(cantidades, preciosCentavos, medio, hasta).compute();
+            return derecha + izquierda.join();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,109 @@
+package domain;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Asigna a cada producto una referencia entera y conserva una instancia por
+ * id.  Las referencias dependen del orden de registro, así que solo valen
+ * dentro del diccionario que las asignó: los formatos que salen del proceso
+ * deben guardar el id del producto.
+ *
+ * Cada registro reemplaza la instancia guardada por la recibida, de modo que
+ * el diccionario conserva la versión más reciente que se le entregó.  Un
+ * catálogo usa un solo diccionario para todos sus carritos: su tamaño crece
+ * con los productos, no con los carritos.
+ *
+ * La versión de precios aumenta con cada cambio de precio de un producto
+ * registrado (o al reemplazarlo por una instancia con otro precio); quien
+ * guarda valores calculados con esos precios la compara para saber si
+ * siguen vigentes.
+ */
+public class DiccionarioProductos {
+    private final ConcurrentHashMap<String, Integer> referencias = new ConcurrentHashMap<>();
+    private volatile AtomicReferenceArray<Producto> productos = new AtomicReferenceArray<>(4);
+    private Runnable[] suscripciones = new Runnable[4];
+    private int totalProductos;
+    private final AtomicLong versionPrecios = new AtomicLong();
+    private final Consumer<Producto> alCambiarPrecio = producto -> versionPrecios.incrementAndGet();
+
+    /**
+     * Devuelve la referencia del producto, registrándolo si es la primera vez
+     * que aparece.  Si ya existía, la instancia recibida reemplaza a la anterior.
+     */
+    public int registrar(Producto producto) {
+        Integer existente = referencias.get(producto.getId());
+        if (existente != null) {
+            if (productos.get(existente) != producto) {
+                synchronized (this) {
+                    reemplazar(existente, producto);
+                }
+            }
+            return existente;
+        }
+        synchronized (this) {
+            existente = referencias.get(producto.getId());
+            if (existente != null) {
+                reemplazar(existente, producto);
+                return existente;
+            }
+            int referencia = totalProductos++;
+            if (referencia == productos.length()) {
+                AtomicReferenceArray<Producto> mayor = new AtomicReferenceArray<>(productos.length() * 2);
+                for (int i = 0; i < referencia; i++) {
+                    mayor.set(i, productos.get(i));
+                }
+                productos = mayor;
+                suscripciones = Arrays.copyOf(suscripciones, productos.length());
+            }
+            productos.set(referencia, producto);
+            suscripciones[referencia] = producto.observarPrecio(alCambiarPrecio);
+            referencias.put(producto.getId(), referencia);
+            return referencia;
+        }
+    }
+
+    public int referencia(String idProducto) {
+        Integer referencia = referencias.get(idProducto);
+        if (referencia == null) {
+            throw new IllegalArgumentException("Producto no registrado: " + idProducto);
+        }
+        return referencia;
+    }
+
+    public Producto producto(int referencia) {
+        AtomicReferenceArray<Producto> actuales = productos;
+        Producto producto = referencia >= 0 && referencia < actuales.length()
+                ? actuales.get(referencia)
+                : null;
+        if (producto == null) {
+            throw new IllegalArgumentException("Referencia de producto inválida: " + referencia);
+        }
+        return producto;
+    }
+
+    public long getVersionPrecios() {
+        return versionPrecios.get();
+    }
+
+    public int getTotalProductos() {
+        return referencias.size();
+    }
+
+    // La suscripción pasa a la instancia nueva: la anterior deja de retener el diccionario
+    private void reemplazar(int referencia, Producto producto) {
+        Producto anterior = productos.get(referencia);
+        if (anterior == producto) {
+            return;
+        }
+        suscripciones[referencia].run();
+        productos.set(referencia, producto);
+        suscripciones[referencia] = producto.observarPrecio(alCambiarPrecio);
+        if (anterior.getPrecio() != producto.getPrecio()) {
+            versionPrecios.incrementAndGet();
+        }
+    }
+}
\ No newline at end of file
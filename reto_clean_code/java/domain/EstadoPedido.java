@@ -0,0 +1,29 @@
+package domain;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estados posibles de un pedido y tabla de transiciones permitidas.  Agregar
+ * un estado o una transición solo requiere modificar esta tabla.
+ */
+public enum EstadoPedido {
+    PENDIENTE, CONFIRMADO, PAGADO, ENVIADO, ENTREGADO, CANCELADO;
+
+    private static final Map<EstadoPedido, Set<EstadoPedido>> TRANSICIONES = new EnumMap<>(EstadoPedido.class);
+
+    static {
+        TRANSICIONES.put(PENDIENTE, EnumSet.of(CONFIRMADO, CANCELADO));
+        TRANSICIONES.put(CONFIRMADO, EnumSet.of(PAGADO, CANCELADO));
+        TRANSICIONES.put(PAGADO, EnumSet.of(ENVIADO, CANCELADO));
+        TRANSICIONES.put(ENVIADO, EnumSet.of(ENTREGADO));
+        TRANSICIONES.put(ENTREGADO, EnumSet.noneOf(EstadoPedido.class));
+        TRANSICIONES.put(CANCELADO, EnumSet.noneOf(EstadoPedido.class));
+    }
+
+    public boolean puedeCambiarA(EstadoPedido destino) {
+        return TRANSICIONES.get(this).contains(destino);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,209 @@
+package domain;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.BiFunction;
+
+/**
+ * Índice materializado de precios finales por producto y tipo de cliente.
+ * Los precios con descuento se precalculan en arreglos primitivos (uno por
+ * tipo de cliente, indexado por la posición del producto), de modo que un
+ * listado lee cada precio con un único acceso a arreglo en lugar de
+ * recalcular el descuento.  El índice se mantiene de forma incremental: un
+ * cambio de precio recalcula solo la fila del producto y un cambio de regla
+ * recalcula solo la columna del tipo de cliente.
+ *
+ * Cada producto indexado queda suscrito a sus cambios de precio
+ * (Producto.observarPrecio), así que cambiarPrecio actualiza el índice sin
+ * llamadas manuales.  Si se indexa otra instancia con el mismo id, la
+ * suscripción pasa a la nueva; close() cancela todas, para que los productos
+ * no retengan un índice que ya no se usa.
+ *
+ * Las escrituras se serializan; las lecturas no se bloquean: los arreglos se
+ * publican juntos en una tabla inmutable en su forma (volatile) y al crecer
+ * se reemplaza la tabla completa, nunca un arreglo que un lector pueda estar
+ * usando.  La posición de un producto nuevo se publica después de escribir
+ * su fila, así que quien la encuentra nunca lee precios sin calcular.
+ */
+public class IndicePrecios implements AutoCloseable {
+    private static final int CAPACIDAD_INICIAL = 16;
+
+    private final Map<String, Integer> posicionesProducto = new ConcurrentHashMap<>();
+    private final Map<String, Integer> posicionesTipo = new ConcurrentHashMap<>();
+    private final Map<String, Suscripcion> suscripciones = new ConcurrentHashMap<>();
+    private final Consumer<Producto> alCambiarPrecio = this::actualizarProducto;
+    private volatile Tabla tabla = new Tabla(new double[0], new double[CAPACIDAD_INICIAL], new double[0][]);
+    private int totalProductos;
+    private final int tipoPorDefecto;
+
+    /**
+     * Crea el índice derivando el factor de cada tipo de cliente de la
+     * calculadora de descuentos (por ejemplo DiscountCalculator::calcularDescuento),
+     * aplicada a un precio de 1.  El primer tipo es el que se usa para los
+     * tipos de cliente sin regla propia.
+     */
+    public IndicePrecios(BiFunction<Double, String, Double> calculadora, String tipoPorDefecto,
+                         String... otrosTipos) {
+        actualizarRegla(tipoPorDefecto, calculadora.apply(1.0, tipoPorDefecto));
+        for (String tipo : otrosTipos) {
+            actualizarRegla(tipo, calculadora.apply(1.0, tipo));
+        }
+        this.tipoPorDefecto = posicionesTipo.get(tipoPorDefecto);
+    }
+
+    /**
+     * Registra o actualiza el precio de un producto y devuelve su posición
+     * en el índice.  Solo se recalculan los precios de ese producto.
+     */
+    public synchronized int actualizarProducto(Producto producto) {
+        Integer existente = posicionesProducto.get(producto.getId());
+        int posicion = existente != null ? existente : totalProductos;
+        if (existente == null) {
+            asegurarCapacidad(posicion + 1);
+        }
+        escribirFila(posicion, producto.getPrecio());
+        if (existente == null) {
+            // Fila completa antes de publicar la posición: un lector que la
+            // encuentra no ve los 0.0 de una fila sin calcular
+            totalProductos = posicion + 1;
+            posicionesProducto.put(producto.getId(), posicion);
+        }
+        suscribir(producto);
+        return posicion;
+    }
+
+    /**
+     * Cancela las suscripciones a los cambios de precio.  El índice sigue
+     * respondiendo consultas con los últimos precios que recibió.
+     */
+    @Override
+    public synchronized void close() {
+        for (Suscripcion suscripcion : suscripciones.values()) {
+            suscripcion.cancelar.run();
+        }
+        suscripciones.clear();
+    }
+
+    /**
+     * Crea o modifica la regla de descuento de un tipo de cliente.  Solo se
+     * recalcula la columna de ese tipo.
+     */
+    public synchronized void actualizarRegla(String tipoCliente, double factor) {
+        Integer tipo = posicionesTipo.get(tipoCliente);
+        Tabla actual = tabla;
+        if (tipo == null) {
+            tipo = actual.factores.length;
+            double[][] preciosFinales = Arrays.copyOf(actual.preciosFinales, tipo + 1);
+            preciosFinales[tipo] = new double[actual.preciosBase.length];
+            actual = new Tabla(Arrays.copyOf(actual.factores, tipo + 1), actual.preciosBase, preciosFinales);
+            actual.factores[tipo] = factor;
+            calcularColumna(actual, tipo);
+            tabla = actual;
+            posicionesTipo.put(tipoCliente, tipo);
+            return;
+        }
+        // Columna nueva completa y luego se publica: un lector no ve la columna a medias
+        double[][] preciosFinales = actual.preciosFinales.clone();
+        preciosFinales[tipo] = new double[actual.preciosBase.length];
+        double[] factores = actual.factores.clone();
+        factores[tipo] = factor;
+        Tabla nueva = new Tabla(factores, actual.preciosBase, preciosFinales);
+        calcularColumna(nueva, tipo);
+        tabla = nueva;
+    }
+
+    public int posicionProducto(String idProducto) {
+        Integer posicion = posicionesProducto.get(idProducto);
+        if (posicion == null) {
+            throw new IllegalArgumentException("Producto no indexado: " + idProducto);
+        }
+        return posicion;
+    }
+
+    /**
+     * Los tipos de cliente sin regla propia se tratan con el tipo por
+     * defecto, igual que el caso default de DiscountCalculator.
+     */
+    public int posicionTipo(String tipoCliente) {
+        return posicionesTipo.getOrDefault(tipoCliente, tipoPorDefecto);
+    }
+
+    public double precioFinal(int posicionTipo, int posicionProducto) {
+        return tabla.preciosFinales[posicionTipo][posicionProducto];
+    }
+
+    public double precioFinal(String idProducto, String tipoCliente) {
+        return precioFinal(posicionTipo(tipoCliente), posicionProducto(idProducto));
+    }
+
+    public synchronized int getTotalProductos() {
+        return totalProductos;
+    }
+
+    private void escribirFila(int posicion, double precio) {
+        Tabla actual = tabla;
+        actual.preciosBase[posicion] = precio;
+        for (int tipo = 0; tipo < actual.factores.length; tipo++) {
+            actual.preciosFinales[tipo][posicion] = precio * actual.factores[tipo];
+        }
+    }
+
+    // Una sola suscripción por id, a la última instancia indexada
+    private void suscribir(Producto producto) {
+        Suscripcion actual = suscripciones.get(producto.getId());
+        if (actual != null && actual.producto == producto) {
+            return;
+        }
+        if (actual != null) {
+            actual.cancelar.run();
+        }
+        suscripciones.put(producto.getId(),
+                new Suscripcion(producto, producto.observarPrecio(alCambiarPrecio)));
+    }
+
+    private void calcularColumna(Tabla destino, int tipo) {
+        double[] columna = destino.preciosFinales[tipo];
+        double factor = destino.factores[tipo];
+        for (int i = 0; i < totalProductos; i++) {
+            columna[i] = destino.preciosBase[i] * factor;
+        }
+    }
+
+    private void asegurarCapacidad(int requerida) {
+        Tabla actual = tabla;
+        if (requerida <= actual.preciosBase.length) {
+            return;
+        }
+        int nuevaCapacidad = Math.max(requerida, actual.preciosBase.length * 2);
+        double[][] preciosFinales = new double[actual.preciosFinales.length][];
+        for (int tipo = 0; tipo < preciosFinales.length; tipo++) {
+            preciosFinales[tipo] = Arrays.copyOf(actual.preciosFinales[tipo], nuevaCapacidad);
+        }
+        tabla = new Tabla(actual.factores, Arrays.copyOf(actual.preciosBase, nuevaCapacidad), preciosFinales);
+    }
+
+    private static final class Suscripcion {
+        final Producto producto;
+        final Runnable cancelar;
+
+        Suscripcion(Producto producto, Runnable cancelar) {
+            this.producto = producto;
+            this.cancelar = cancelar;
+        }
+    }
+
+    // Arreglos que se leen juntos; se reemplazan en bloque al crecer o agregar un tipo
+    private static final class Tabla {
+        final double[] factores;
+        final double[] preciosBase;
+        final double[][] preciosFinales;
+
+        Tabla(double[] factores, double[] preciosBase, double[][] preciosFinales) {
+            this.factores = factores;
+            this.preciosBase = preciosBase;
+            this.preciosFinales = preciosFinales;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,158 @@
+package domain;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Motor de reservas de stock sin locks.  Cada producto tiene un contador que
+ * se actualiza por CAS; los productos de alta demanda (ventas flash) reparten
+ * su stock en varias particiones para que los hilos no compitan por la misma
+ * celda.  Una reserva nunca deja una partición en negativo, por lo que no se
+ * vende más de lo disponible.
+ *
+ * Solo el camino lento (juntar una cantidad desde varias particiones) se
+ * serializa por producto: si dos reservas juntaran a la vez, cada una podría
+ * quedarse con una parte y ambas fallarían aunque el stock alcanzara para una.
+ */
+public class Inventario {
+    private final ConcurrentHashMap<String, ContadorStock> contadores = new ConcurrentHashMap<>();
+    private final int particionesAltaDemanda;
+
+    public Inventario() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public Inventario(int particionesAltaDemanda) {
+        if (particionesAltaDemanda <= 0) {
+            throw new IllegalArgumentException("Debe haber al menos una partición");
+        }
+        this.particionesAltaDemanda = particionesAltaDemanda;
+    }
+
+    public void registrar(String idProducto, int stock) {
+        contadores.put(idProducto, new ContadorStock(stock, 1));
+    }
+
+    public void registrarAltaDemanda(String idProducto, int stock) {
+        contadores.put(idProducto, new ContadorStock(stock, particionesAltaDemanda));
+    }
+
+    public boolean reservar(String idProducto, int cantidad) {
+        if (cantidad <= 0) {
+            throw new IllegalArgumentException("La cantidad debe ser positiva");
+        }
+        return contador(idProducto).reservar(cantidad);
+    }
+
+    public void liberar(String idProducto, int cantidad) {
+        if (cantidad <= 0) {
+            throw new IllegalArgumentException("La cantidad debe ser positiva");
+        }
+        contador(idProducto).liberar(cantidad);
+    }
+
+    /**
+     * Stock disponible.  Con reservas en curso el valor es aproximado; solo
+     * sirve para mostrar, no para decidir una reserva.
+     */
+    public int disponible(String idProducto) {
+        return contador(idProducto).disponible();
+    }
+
+    private ContadorStock contador(String idProducto) {
+        ContadorStock contador = contadores.get(idProducto);
+        if (contador == null) {
+            throw new IllegalArgumentException("Producto sin inventario: " + idProducto);
+        }
+        return contador;
+    }
+
+    /**
+     * Contador de stock repartido en particiones.  Cada partición ocupa su
+     * propia línea de caché (16 enteros = 64 bytes) para evitar false sharing.
+     */
+    static class ContadorStock {
+        private static final int SEPARACION = 16;
+
+        private final AtomicIntegerArray celdas;
+        private final int particiones;
+
+        ContadorStock(int stock, int particiones) {
+            this.particiones = particiones;
+            this.celdas = new AtomicIntegerArray(particiones * SEPARACION);
+            for (int i = 0; i < particiones; i++) {
+                int porcion = stock / particiones + (i < stock % particiones ? 1 : 0);
+                celdas.set(i * SEPARACION, porcion);
+            }
+        }
+
+        boolean reservar(int cantidad) {
+            int inicio = particionInicial();
+            // Camino rápido: una sola partición cubre toda la cantidad
+            for (int i = 0; i < particiones; i++) {
+                if (tomar((inicio + i) % particiones, cantidad, false) == cantidad) {
+                    return true;
+                }
+            }
+            if (particiones == 1) {
+                return false;
+            }
+            return juntar(inicio, cantidad);
+        }
+
+        // Camino lento: se junta la cantidad desde varias particiones.  Las
+        // reservas rápidas y las liberaciones siguen mientras tanto, así que
+        // se vuelve a recorrer mientras el stock leído de nuevo alcance; si no
+        // alcanza, se devuelve lo tomado
+        private synchronized boolean juntar(int inicio, int cantidad) {
+            int obtenido = 0;
+            while (true) {
+                for (int i = 0; i < particiones && obtenido < cantidad; i++) {
+                    obtenido += tomar((inicio + i) % particiones, cantidad - obtenido, true);
+                }
+                if (obtenido == cantidad) {
+                    return true;
+                }
+                if (obtenido + disponible() < cantidad) {
+                    if (obtenido > 0) {
+                        liberar(obtenido);
+                    }
+                    return false;
+                }
+            }
+        }
+
+        void liberar(int cantidad) {
+            celdas.addAndGet(particionInicial() * SEPARACION, cantidad);
+        }
+
+        int disponible() {
+            int total = 0;
+            for (int i = 0; i < particiones; i++) {
+                total += celdas.get(i * SEPARACION);
+            }
+            return total;
+        }
+
+        // Descuenta por CAS hasta "cantidad" unidades; si no se permite una
+        // toma parcial y no alcanza, no descuenta nada
+        private int tomar(int particion, int cantidad, boolean parcial) {
+            int indice = particion * SEPARACION;
+            while (true) {
+                int actual = celdas.get(indice);
+                int tomado = Math.min(actual, cantidad);
+                if (tomado <= 0 || (!parcial && tomado < cantidad)) {
+                    return 0;
+                }
+                if (celdas.compareAndSet(indice, actual, actual - tomado)) {
+                    return tomado;
+                }
+            }
+        }
+
+        private int particionInicial() {
+            return particiones == 1 ? 0 : ThreadLocalRandom.current().nextInt(particiones);
+        }
+    }
+}
\ No newline at end of file
@@ -2,14 +2,20 @@ package domain;
 
 /**
  * Representa un item en el carrito: un producto y la cantidad seleccionada.
+ * El precio unitario se toma del producto al crear el item, así que el item
+ * es una foto del momento en que se consultó.  El carrito no guarda items:
+ * los crea al consultarlos a partir de sus líneas compactas, con el precio
+ * vigente en el catálogo.
  */
 public class ItemCarrito {
     private Producto producto;
     private int cantidad;
+    private double precioUnitario;
 
     public ItemCarrito(Producto producto, int cantidad) {
         this.producto = producto;
         this.cantidad = cantidad;
+        this.precioUnitario = producto.getPrecio();
     }
 
     public Producto getProducto() {
@@ -19,4 +25,12 @@ public class ItemCarrito {
     public int getCantidad() {
         return cantidad;
     }
+
+    public double getPrecioUnitario() {
+        return precioUnitario;
+    }
+
+    public double calcularSubtotal() {
+        return precioUnitario * cantidad;
+    }
 }
\ No newline at end of file
@@ -1,28 +1,117 @@
 package domain;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Representa un pedido que puede confirmarse o cancelarse.  Se asocia con el
  * carrito y el pago, pero para simplificar no incluye esa lógica aquí.
+ *
+ * El estado cambia con compareAndSet según la tabla de EstadoPedido, así que
+ * callbacks de pago y cancelaciones concurrentes no se pisan: solo una de dos
+ * transiciones incompatibles puede ganar y ninguna actualización se pierde.
+ *
+ * Un repositorio que guarda el pedido en otra forma (por ejemplo, como
+ * eventos) lo rehidrata con reconstruir, que fija el estado sin pasar por
+ * las transiciones ni avisar a los oyentes.
  */
 public class Pedido {
+    private static final OyenteTransicion[] SIN_OYENTES = new OyenteTransicion[0];
+
     private String id;
-    private String estado = "PENDIENTE";
+    private String idCliente;
+    private final AtomicReference<EstadoPedido> estado = new AtomicReference<>(EstadoPedido.PENDIENTE);
     private double total;
+    private volatile OyenteTransicion[] oyentes = SIN_OYENTES;
 
     public Pedido(String id, double total) {
+        this(id, null, total);
+    }
+
+    public Pedido(String id, String idCliente, double total) {
         this.id = id;
+        this.idCliente = idCliente;
         this.total = total;
     }
 
-    public String getEstado() {
-        return estado;
+    public static Pedido reconstruir(String id, String idCliente, double total, EstadoPedido estado) {
+        Pedido pedido = new Pedido(id, idCliente, total);
+        pedido.estado.set(estado);
+        return pedido;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getIdCliente() {
+        return idCliente;
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    public EstadoPedido getEstado() {
+        return estado.get();
     }
 
     public void confirmar() {
-        this.estado = "CONFIRMADO";
+        cambiarEstado(EstadoPedido.CONFIRMADO);
+    }
+
+    public void pagar() {
+        cambiarEstado(EstadoPedido.PAGADO);
+    }
+
+    public void enviar() {
+        cambiarEstado(EstadoPedido.ENVIADO);
+    }
+
+    public void entregar() {
+        cambiarEstado(EstadoPedido.ENTREGADO);
     }
 
     public void cancelar() {
-        this.estado = "CANCELADO";
+        cambiarEstado(EstadoPedido.CANCELADO);
+    }
+
+    /**
+     * Intenta pasar al estado destino.  Devuelve false si la transición no
+     * está permitida desde el estado actual, sin modificar el pedido.
+     */
+    public boolean transicionar(EstadoPedido destino) {
+        EstadoPedido actual;
+        do {
+            actual = estado.get();
+            if (!actual.puedeCambiarA(destino)) {
+                return false;
+            }
+        } while (!estado.compareAndSet(actual, destino));
+        for (OyenteTransicion oyente : oyentes) {
+            oyente.alCambiarEstado(this, actual, destino);
+        }
+        return true;
+    }
+
+    public synchronized void agregarOyente(OyenteTransicion oyente) {
+        OyenteTransicion[] nuevos = Arrays.copyOf(oyentes, oyentes.length + 1);
+        nuevos[oyentes.length] = oyente;
+        oyentes = nuevos;
+    }
+
+    private void cambiarEstado(EstadoPedido destino) {
+        if (!transicionar(destino)) {
+            throw new IllegalStateException(
+                    "No se puede pasar de " + estado.get() + " a " + destino + " en el pedido " + id);
+        }
+    }
+
+    /**
+     * Recibe cada transición aplicada.  Se invoca en el hilo que ganó el
+     * cambio de estado, por lo que debe ser rápido y no bloquear.
+     */
+    public interface OyenteTransicion {
+        void alCambiarEstado(Pedido pedido, EstadoPedido anterior, EstadoPedido nuevo);
     }
 }
\ No newline at end of file
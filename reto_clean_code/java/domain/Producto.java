@@ -1,19 +1,28 @@
 package domain;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
 /**
- * Representa un producto del catálogo con sus atributos básicos.
+ * Representa un producto del catálogo con sus atributos básicos.  El stock se
+ * modifica con operaciones atómicas (CAS) para que compras concurrentes no
+ * reserven más unidades de las disponibles.  Quien mantenga datos derivados
+ * del precio (por ejemplo IndicePrecios) se suscribe con observarPrecio.
  */
 public class Producto {
     private String id;
     private String nombre;
-    private double precio;
-    private int stock;
+    private volatile double precio;
+    private final AtomicInteger stock;
+    private final List<Consumer<Producto>> observadoresPrecio = new CopyOnWriteArrayList<>();
 
     public Producto(String id, String nombre, double precio, int stock) {
         this.id = id;
         this.nombre = nombre;
         this.precio = precio;
-        this.stock = stock;
+        this.stock = new AtomicInteger(stock);
     }
 
     public String getId() {
@@ -29,10 +38,54 @@ public class Producto {
     }
 
     public int getStock() {
-        return stock;
+        return stock.get();
+    }
+
+    public void cambiarPrecio(double nuevoPrecio) {
+        if (nuevoPrecio < 0) {
+            throw new IllegalArgumentException("El precio no puede ser negativo");
+        }
+        this.precio = nuevoPrecio;
+        for (Consumer<Producto> observador : observadoresPrecio) {
+            observador.accept(this);
+        }
+    }
+
+    /**
+     * Registra una acción que se ejecuta después de cada cambio de precio y
+     * devuelve la acción que cancela el registro.
+     */
+    public Runnable observarPrecio(Consumer<Producto> observador) {
+        observadoresPrecio.add(observador);
+        return () -> observadoresPrecio.remove(observador);
     }
 
+    /**
+     * Reemplaza el stock por un valor absoluto (por ejemplo, tras un recuento
+     * de inventario).  Para compras se usa reservarStock.
+     */
     public void actualizarStock(int nuevaCantidad) {
-        this.stock = nuevaCantidad;
+        stock.set(nuevaCantidad);
+    }
+
+    public boolean reservarStock(int cantidad) {
+        if (cantidad <= 0) {
+            throw new IllegalArgumentException("La cantidad debe ser positiva");
+        }
+        int actual;
+        do {
+            actual = stock.get();
+            if (actual < cantidad) {
+                return false;
+            }
+        } while (!stock.compareAndSet(actual, actual - cantidad));
+        return true;
+    }
+
+    public void liberarStock(int cantidad) {
+        if (cantidad <= 0) {
+            throw new IllegalArgumentException("La cantidad debe ser positiva");
+        }
+        stock.addAndGet(cantidad);
     }
 }
\ No newline at end of file
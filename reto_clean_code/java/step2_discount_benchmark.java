@@ -0,0 +1,208 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark JMH del cálculo de descuentos.  Compara la implementación actual
+ * de {@code DiscountCalculator} (switch sobre String), que se mantiene como
+ * referencia, con tres alternativas: despacho por enum, búsqueda en tabla e
+ * interfaz de estrategia.  Cada variante se mide con una distribución
+ * monomórfica (todos los clientes del mismo tipo) y con una distribución
+ * mixta, donde la llamada a la estrategia se vuelve megamórfica.
+ *
+ * Ejecución sugerida (con el jar generado por el arquetipo de JMH):
+ *
+ *   java -jar benchmarks.jar DiscountCalculatorBenchmark -prof gc
+ *   java -jar benchmarks.jar DiscountCalculatorBenchmark \
+ *       -jvmArgsAppend "-XX:+UnlockDiagnosticVMOptions -XX:+PrintInlining"
+ *
+ * El primer comando reporta ns/op y la asignación por operación
+ * (gc.alloc.rate.norm); el segundo muestra qué variantes se inlinean en el
+ * bucle de medición.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class DiscountCalculatorBenchmark {
+    private static final int CLIENTES = 1024;
+
+    @Param({"monomorfica", "mixta"})
+    private String distribucion;
+
+    private double[] precios;
+    private String[] tiposTexto;
+    private TipoCliente[] tiposEnum;
+    private int[] tiposIndice;
+    private EstrategiaDescuento[] estrategias;
+
+    @Setup
+    public void preparar() {
+        SplittableRandom random = new SplittableRandom(42);
+        precios = new double[CLIENTES];
+        tiposTexto = new String[CLIENTES];
+        tiposEnum = new TipoCliente[CLIENTES];
+        tiposIndice = new int[CLIENTES];
+        estrategias = new EstrategiaDescuento[CLIENTES];
+
+        for (int i = 0; i < CLIENTES; i++) {
+            TipoCliente tipo = "mixta".equals(distribucion)
+                    ? tipoAleatorio(random)
+                    : TipoCliente.VIP;
+            precios[i] = 10 + random.nextInt(990);
+            tiposTexto[i] = tipo.getCodigo();
+            tiposEnum[i] = tipo;
+            tiposIndice[i] = tipo.ordinal();
+            estrategias[i] = EstrategiaDescuento.para(tipo);
+        }
+    }
+
+    // Reparto aproximado de la cartera: 60% normal, 30% preferente, 10% vip
+    private static TipoCliente tipoAleatorio(SplittableRandom random) {
+        int muestra = random.nextInt(10);
+        if (muestra < 6) {
+            return TipoCliente.NORMAL;
+        }
+        return muestra < 9 ? TipoCliente.PREFERENTE : TipoCliente.VIP;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLIENTES)
+    public double switchString() {
+        double total = 0;
+        for (int i = 0; i < CLIENTES; i++) {
+            total += DiscountCalculator.calcularDescuento(precios[i], tiposTexto[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLIENTES)
+    public double despachoEnum() {
+        double total = 0;
+        for (int i = 0; i < CLIENTES; i++) {
+            total += DescuentoPorEnum.calcularDescuento(precios[i], tiposEnum[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLIENTES)
+    public double busquedaEnTabla() {
+        double total = 0;
+        for (int i = 0; i < CLIENTES; i++) {
+            total += DescuentoPorTabla.calcularDescuento(precios[i], tiposIndice[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLIENTES)
+    public double estrategia() {
+        double total = 0;
+        for (int i = 0; i < CLIENTES; i++) {
+            total += estrategias[i].aplicar(precios[i]);
+        }
+        return total;
+    }
+}
+
+/**
+ * Tipos de cliente con el mismo código de texto que usa DiscountCalculator.
+ */
+enum TipoCliente {
+    NORMAL("normal"),
+    PREFERENTE("preferente"),
+    VIP("vip");
+
+    private final String codigo;
+
+    TipoCliente(String codigo) {
+        this.codigo = codigo;
+    }
+
+    public String getCodigo() {
+        return codigo;
+    }
+}
+
+/**
+ * Candidata 1: switch sobre el enum en lugar de sobre el String.
+ */
+class DescuentoPorEnum {
+    public static double calcularDescuento(double precio, TipoCliente tipo) {
+        switch (tipo) {
+            case PREFERENTE:
+                return precio * 0.9;
+            case VIP:
+                return precio * 0.8;
+            default:
+                return precio;
+        }
+    }
+}
+
+/**
+ * Candidata 2: factor de descuento indexado por el ordinal del tipo.
+ */
+class DescuentoPorTabla {
+    private static final double[] FACTORES = {1.0, 0.9, 0.8};
+
+    public static double calcularDescuento(double precio, int tipo) {
+        return precio * FACTORES[tipo];
+    }
+}
+
+/**
+ * Candidata 3: una estrategia por tipo de cliente.  Con la distribución
+ * mixta el sitio de llamada ve tres implementaciones y deja de inlinearse.
+ */
+interface EstrategiaDescuento {
+    double aplicar(double precio);
+
+    static EstrategiaDescuento para(TipoCliente tipo) {
+        switch (tipo) {
+            case PREFERENTE:
+                return new DescuentoPreferente();
+            case VIP:
+                return new DescuentoVip();
+            default:
+                return new SinDescuento();
+        }
+    }
+}
+
+class SinDescuento implements EstrategiaDescuento {
+    @Override
+    public double aplicar(double precio) {
+        return precio;
+    }
+}
+
+class DescuentoPreferente implements EstrategiaDescuento {
+    @Override
+    public double aplicar(double precio) {
+        return precio * 0.9;
+    }
+}
+
+class DescuentoVip implements EstrategiaDescuento {
+    @Override
+    public double aplicar(double precio) {
+        return precio * 0.8;
+    }
+}
\ No newline at end of file
@@ -1,10 +1,27 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Date;
-import java.util.List;
 
 /**
  * Refactorización del reporte de empleados.  Se separan las responsabilidades
  * en clases distintas, reduciendo la longitud de métodos y favoreciendo la
  * reutilización.  Además, se aplican los principios KISS y DRY.
+ *
+ * El reporte se genera en flujo: las filas se escriben una sola vez, directo
+ * al destino de la persistencia, y la notificación recibe la ubicación del
+ * archivo en lugar de otra copia del contenido.  La memoria usada no crece
+ * con la cantidad de empleados.
  */
 public class ReporteEmpleadosRefactor {
     private final FormateadorReporte formateador;
@@ -22,61 +39,158 @@ public class ReporteEmpleadosRefactor {
         this.auditor = auditor;
     }
 
-    public String generarReporte(List<Empleado> empleados) {
-        String contenido = formateador.formatear(empleados);
-        notificador.enviar(contenido);
-        persistencia.guardar(contenido);
-        auditor.registrar("REPORTE", contenido.length(), new Date());
-        return contenido;
+    public Path generarReporte(Iterable<Empleado> empleados) throws IOException {
+        long longitud;
+        try (WritableByteChannel destino = persistencia.abrir()) {
+            longitud = formateador.formatear(empleados, destino);
+        }
+        notificador.enviar(persistencia.ubicacion());
+        auditor.registrar("REPORTE", longitud, new Date());
+        return persistencia.ubicacion();
     }
 }
 
 interface FormateadorReporte {
-    String formatear(List<Empleado> empleados);
+    /**
+     * Escribe el reporte en el canal (sin cerrarlo) y devuelve los bytes escritos.
+     */
+    long formatear(Iterable<Empleado> empleados, WritableByteChannel destino) throws IOException;
+
+    default long formatear(Iterable<Empleado> empleados, OutputStream destino) throws IOException {
+        return formatear(empleados, Channels.newChannel(destino));
+    }
 }
 
 class FormateadorCSV implements FormateadorReporte {
+    // Caracteres acumulados antes de codificarlos y entregarlos al canal
+    private static final int TAMANO_BLOQUE = 16 * 1024;
+
     @Override
-    public String formatear(List<Empleado> empleados) {
-        StringBuilder sb = new StringBuilder();
+    public long formatear(Iterable<Empleado> empleados, WritableByteChannel destino) throws IOException {
+        StringBuilder bloque = new StringBuilder(TAMANO_BLOQUE + 128);
+        CodificadorUtf8 codificador = new CodificadorUtf8(destino, TAMANO_BLOQUE);
         for (Empleado e : empleados) {
-            sb.append(e.getId()).append(";")
-              .append(e.getNombre()).append(";")
-              .append(e.getSalario()).append("\n");
+            bloque.append(e.getId()).append(";")
+                  .append(e.getNombre()).append(";")
+                  .append(e.getSalario()).append("\n");
+            if (bloque.length() >= TAMANO_BLOQUE) {
+                codificador.escribir(bloque);
+                bloque.setLength(0);
+            }
         }
-        return sb.toString();
+        codificador.escribir(bloque);
+        return codificador.terminar();
+    }
+}
+
+/**
+ * Codifica texto a UTF-8 a través de búferes que se reutilizan en cada
+ * bloque y entrega los bytes al canal.
+ */
+class CodificadorUtf8 {
+    private final WritableByteChannel destino;
+    private final CharsetEncoder codificador = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final char[] caracteres;
+    private final CharBuffer entrada;
+    private final ByteBuffer salida;
+    private long bytesEscritos;
+
+    CodificadorUtf8(WritableByteChannel destino, int tamano) {
+        this.destino = destino;
+        this.caracteres = new char[tamano];
+        this.entrada = CharBuffer.wrap(caracteres);
+        this.salida = ByteBuffer.allocate(tamano * 4);
+    }
+
+    // El texto debe terminar en fin de fila: nunca a mitad de un par sustituto
+    void escribir(StringBuilder texto) throws IOException {
+        int desde = 0;
+        while (desde < texto.length()) {
+            int hasta = Math.min(texto.length(), desde + caracteres.length);
+            if (hasta < texto.length() && Character.isHighSurrogate(texto.charAt(hasta - 1))) {
+                hasta--; // el par completo va en la vuelta siguiente
+            }
+            texto.getChars(desde, hasta, caracteres, 0);
+            entrada.clear();
+            entrada.limit(hasta - desde);
+            codificar(false);
+            desde = hasta;
+        }
+    }
+
+    long terminar() throws IOException {
+        entrada.clear();
+        entrada.limit(0);
+        codificar(true);
+        while (codificador.flush(salida).isOverflow()) {
+            vaciar();
+        }
+        vaciar();
+        return bytesEscritos;
+    }
+
+    private void codificar(boolean finDeEntrada) throws IOException {
+        CoderResult resultado;
+        do {
+            resultado = codificador.encode(entrada, salida, finDeEntrada);
+            vaciar();
+        } while (resultado.isOverflow());
+    }
+
+    private void vaciar() throws IOException {
+        salida.flip();
+        while (salida.hasRemaining()) {
+            bytesEscritos += destino.write(salida);
+        }
+        salida.clear();
     }
 }
 
 interface NotificadorReporte {
-    void enviar(String contenido);
+    void enviar(Path reporte);
 }
 
 class EmailNotificadorReporte implements NotificadorReporte {
     @Override
-    public void enviar(String contenido) {
-        // Implementar envío de correo
+    public void enviar(Path reporte) {
+        // Implementar envío de correo adjuntando el archivo (se lee por partes)
     }
 }
 
 interface PersistenciaReporte {
-    void guardar(String contenido);
+    WritableByteChannel abrir() throws IOException;
+
+    Path ubicacion();
 }
 
 class ArchivoPersistenciaReporte implements PersistenciaReporte {
+    private final Path archivo;
+
+    public ArchivoPersistenciaReporte(Path archivo) {
+        this.archivo = archivo;
+    }
+
     @Override
-    public void guardar(String contenido) {
-        // Implementar guardado en archivo o base de datos
+    public WritableByteChannel abrir() throws IOException {
+        return FileChannel.open(archivo, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public Path ubicacion() {
+        return archivo;
     }
 }
 
 interface Auditor {
-    void registrar(String tipo, int longitud, Date fecha);
+    void registrar(String tipo, long longitud, Date fecha);
 }
 
 class AuditorSimple implements Auditor {
     @Override
-    public void registrar(String tipo, int longitud, Date fecha) {
+    public void registrar(String tipo, long longitud, Date fecha) {
         // Implementar registro de auditoría
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,173 @@
+/*
+Coalescencia de Lecturas Concurrentes (Single-Flight)
+
+Problema: durante una venta miles de solicitudes piden al mismo tiempo el
+mismo producto (buscarPorId) o el mismo carrito (buscarPorCliente), y cada
+una viaja por separado a la base de datos.
+
+Solución: un decorador que agrupa las lecturas simultáneas de una misma
+clave. La primera solicitud hace la carga; las que llegan mientras está en
+curso esperan ese mismo resultado (o la misma excepción). Para una clave
+caliente, las lecturas al respaldo bajan de N a 1 por viaje de ida y vuelta.
+- No es una caché: cuando la carga termina, la siguiente lectura vuelve al
+  respaldo. Va detrás de las cachés (6_4 y 6_9), atendiendo sus fallos.
+- Una escritura (guardar/eliminar) desvincula la carga en curso de esa
+  clave: quien lea después del guardar no recibe un valor anterior a él.
+- Las esperas de un producto comparten la instancia devuelta por el
+  respaldo, como ya la comparten las cachés de 6_7 y 6_9. Un carrito, en
+  cambio, lo modifica el caso de uso que lo leyó: cada espera recibe su
+  propia copia (Carrito.copiar), igual que en el repositorio en memoria de
+  6_4, y quien hizo la carga se queda con la instancia original.
+*/
+
+//1. Carga Única por Clave (genérica)
+// infrastructure/persistence/
+public class CargaUnica<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> enCurso = new ConcurrentHashMap<>();
+    private final LongAdder cargas = new LongAdder();
+    private final LongAdder esperasCompartidas = new LongAdder();
+    private final UnaryOperator<V> copiaParaEspera;
+
+    public CargaUnica() {
+        this(UnaryOperator.identity());
+    }
+
+    // Para valores mutables: cada espera recibe copiaParaEspera del resultado
+    public CargaUnica(UnaryOperator<V> copiaParaEspera) {
+        this.copiaParaEspera = copiaParaEspera;
+    }
+
+    public V cargar(K clave, Function<K, V> cargador) {
+        CompletableFuture<V> propia = new CompletableFuture<>();
+        CompletableFuture<V> existente = enCurso.putIfAbsent(clave, propia);
+        if (existente != null) {
+            esperasCompartidas.increment();
+            return copiaParaEspera.apply(esperar(existente));
+        }
+        cargas.increment();
+        try {
+            V valor = cargador.apply(clave);
+            propia.complete(valor);
+            return valor;
+        } catch (RuntimeException | Error e) {
+            propia.completeExceptionally(e);
+            throw e;
+        } finally {
+            enCurso.remove(clave, propia);
+        }
+    }
+
+    // Las lecturas que lleguen desde ahora inician una carga nueva
+    public void olvidar(K clave) {
+        enCurso.remove(clave);
+    }
+
+    public void olvidarTodo() {
+        enCurso.clear();
+    }
+
+    public long getCargas() {
+        return cargas.sum();
+    }
+
+    public long getEsperasCompartidas() {
+        return esperasCompartidas.sum();
+    }
+
+    // Los que esperan reciben la misma excepción que el que cargó
+    private static <V> V esperar(CompletableFuture<V> carga) {
+        try {
+            return carga.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
+
+//2. Decoradores de los Repositorios
+// infrastructure/persistence/
+public class ProductoRepositoryCoalescente implements ProductoRepository {
+    private final ProductoRepository respaldo;
+    private final CargaUnica<String, Optional<Producto>> lecturas = new CargaUnica<>();
+
+    public ProductoRepositoryCoalescente(ProductoRepository respaldo) {
+        this.respaldo = respaldo;
+    }
+
+    @Override
+    public Optional<Producto> buscarPorId(String id) {
+        return lecturas.cargar(id, respaldo::buscarPorId);
+    }
+
+    @Override
+    public List<Producto> buscarTodos() {
+        return respaldo.buscarTodos();
+    }
+
+    @Override
+    public void guardar(Producto producto) {
+        respaldo.guardar(producto);
+        lecturas.olvidar(producto.getId());
+    }
+
+    @Override
+    public void reservarStock(List<ReservaStock> reservas) {
+        try {
+            respaldo.reservarStock(reservas);
+        } finally {
+            reservas.forEach(reserva -> lecturas.olvidar(reserva.getIdProducto()));
+        }
+    }
+
+    @Override
+    public void liberarStock(List<ReservaStock> reservas) {
+        try {
+            respaldo.liberarStock(reservas);
+        } finally {
+            reservas.forEach(reserva -> lecturas.olvidar(reserva.getIdProducto()));
+        }
+    }
+
+    @Override
+    public void guardarCatalogo(CatalogoColumnar catalogo) {
+        try {
+            respaldo.guardarCatalogo(catalogo);
+        } finally {
+            lecturas.olvidarTodo();
+        }
+    }
+}
+
+// infrastructure/persistence/
+public class CarritoRepositoryCoalescente implements CarritoRepository {
+    private final CarritoRepository respaldo;
+    private final CargaUnica<String, Optional<Carrito>> lecturas =
+        new CargaUnica<>(carrito -> carrito.map(Carrito::copiar));
+
+    public CarritoRepositoryCoalescente(CarritoRepository respaldo) {
+        this.respaldo = respaldo;
+    }
+
+    @Override
+    public Optional<Carrito> buscarPorCliente(String idCliente) {
+        return lecturas.cargar(idCliente, respaldo::buscarPorCliente);
+    }
+
+    @Override
+    public void guardar(Carrito carrito) {
+        respaldo.guardar(carrito);
+        lecturas.olvidar(carrito.getIdCliente());
+    }
+
+    @Override
+    public void eliminar(String idCliente) {
+        respaldo.eliminar(idCliente);
+        lecturas.olvidar(idCliente);
+    }
+}
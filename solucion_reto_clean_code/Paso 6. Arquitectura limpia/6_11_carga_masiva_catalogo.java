@@ -0,0 +1,297 @@
+/*
+Carga Masiva del Catálogo con Archivos Mapeados en Memoria
+
+Problema: el archivo nocturno del catálogo es un CSV de varios GB que hoy se
+procesa llamando a ProductoRepository.guardar un Producto a la vez.
+
+Solución: un cargador por lotes que lee el archivo a una copia de trabajo y
+recién al terminar la publica en el sistema de registro.
+- La copia de trabajo es un catálogo columnar nuevo en cada carga
+  (reto_clean_code/java/domain/CatalogoColumnar.java): arreglos primitivos,
+  sin un objeto por fila mientras se lee.
+- Si una fila está mal formada la carga falla antes de publicar nada: el
+  catálogo vigente no queda a medio cargar. Un precio o un stock que no
+  entra en su tipo (long de centavos, int) es una fila mal formada.
+- Cada id aparece una sola vez en el archivo. Dos filas con el mismo id
+  caen en tramos distintos que se procesan en paralelo, así que "gana la
+  última" dependería del orden de los hilos: un id repetido hace fallar la
+  carga. Se detecta sin estructuras extra: si las filas leídas superan los
+  productos de la copia, hubo ids repetidos.
+- El archivo es la fuente de nombres y precios. El stock del archivo solo
+  vale para los productos nuevos: el de los existentes es el stock vivo, que
+  las reservas siguen modificando mientras se lee el archivo, y
+  guardarCatalogo lo conserva.
+- Al terminar, ProductoRepository.guardarCatalogo publica la copia de una
+  vez. Es el sistema de registro, así que los índices del catálogo (6_7) y
+  la búsqueda (6_8) se alimentan de él como con cualquier guardar().
+- El archivo se mapea en memoria (FileChannel.map): el sistema operativo
+  trae las páginas, sin copias a búferes intermedios.
+- Se divide en tramos, uno por núcleo (o más si el archivo es muy grande:
+  un mapeo admite hasta 2 GB). Cada corte se corre hasta el siguiente fin
+  de línea, así ninguna fila queda partida entre dos tramos.
+- Precio y stock se convierten directamente desde los bytes (el precio a
+  centavos), sin crear Strings intermedios. Solo id y nombre son String.
+- Cada tramo acumula filas en arreglos y las entrega a la copia con
+  CatalogoColumnar.registrarLote: un bloqueo por lote, no por producto.
+
+Formato: encabezado + filas "id,nombre,precio,stock". El id, el precio y el
+stock se ubican desde los extremos de la línea, por lo que el nombre puede
+contener comas sin necesidad de comillas.
+*/
+
+// infrastructure/batch/
+public class CargadorCatalogoMapeado {
+    private static final long TAMANO_MAXIMO_TRAMO = 1L << 30;
+    private static final int FILAS_POR_LOTE = 64 * 1024;
+    // Con la parte entera acotada, entero * 100 + 99 entra en un long
+    private static final long MAXIMO_PRECIO_ENTERO = Long.MAX_VALUE / 100 - 1;
+
+    private final int hilos;
+
+    public CargadorCatalogoMapeado(int hilos) {
+        if (hilos <= 0) {
+            throw new IllegalArgumentException("Debe haber al menos un hilo");
+        }
+        this.hilos = hilos;
+    }
+
+    // Lee todo el archivo a una copia nueva; si una fila falla, no devuelve nada a medias
+    public CatalogoColumnar cargar(Path archivo) throws IOException {
+        CatalogoColumnar catalogo = new CatalogoColumnar();
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            long tamano = canal.size();
+            long inicioDatos = finDeLinea(canal, 0, tamano); // salta el encabezado
+            int tramos = (int) Math.max(hilos,
+                (tamano - inicioDatos + TAMANO_MAXIMO_TRAMO - 1) / TAMANO_MAXIMO_TRAMO);
+            long[] cortes = cortes(canal, inicioDatos, tamano, tramos);
+
+            ExecutorService ejecutor = Executors.newFixedThreadPool(hilos);
+            try {
+                List<Future<Long>> resultados = new ArrayList<>();
+                for (int i = 0; i < tramos; i++) {
+                    long desde = cortes[i];
+                    long hasta = cortes[i + 1];
+                    resultados.add(ejecutor.submit(() -> cargarTramo(canal, desde, hasta, catalogo)));
+                }
+                long filas = 0;
+                for (Future<Long> resultado : resultados) {
+                    filas += esperar(resultado);
+                }
+                // Un id repetido actualiza su fila en lugar de agregar otra
+                if (filas != catalogo.getTotalProductos()) {
+                    throw new IllegalArgumentException("El archivo repite ids de producto (filas duplicadas: "
+                        + (filas - catalogo.getTotalProductos()) + ")");
+                }
+                return catalogo;
+            } finally {
+                ejecutor.shutdownNow();
+            }
+        }
+    }
+
+    private long cargarTramo(FileChannel canal, long desde, long hasta,
+                             CatalogoColumnar catalogo) throws IOException {
+        MappedByteBuffer datos = canal.map(FileChannel.MapMode.READ_ONLY, desde, hasta - desde);
+        LoteFilas lote = new LoteFilas();
+        byte[] auxiliar = new byte[256];
+        long filas = 0;
+        int posicion = 0;
+        int limite = datos.limit();
+
+        while (posicion < limite) {
+            int finLinea = posicion;
+            while (finLinea < limite && datos.get(finLinea) != '\n') {
+                finLinea++;
+            }
+            int siguiente = finLinea + 1;
+            if (finLinea > posicion && datos.get(finLinea - 1) == '\r') {
+                finLinea--;
+            }
+            if (finLinea > posicion) {
+                // id,nombre,...,precio,stock: el id hasta la primera coma;
+                // precio y stock después de las dos últimas
+                int comaId = buscarAdelante(datos, posicion, finLinea);
+                int comaStock = buscarAtras(datos, finLinea, comaId);
+                int comaPrecio = buscarAtras(datos, comaStock, comaId);
+                if (comaId < 0 || comaPrecio < 0) {
+                    throw new IllegalArgumentException("Fila mal formada en el byte " + (desde + posicion));
+                }
+                auxiliar = copiar(datos, posicion, comaId, auxiliar);
+                String id = new String(auxiliar, 0, comaId - posicion, StandardCharsets.UTF_8);
+                auxiliar = copiar(datos, comaId + 1, comaPrecio, auxiliar);
+                String nombre = new String(auxiliar, 0, comaPrecio - comaId - 1, StandardCharsets.UTF_8);
+                lote.agregar(id, nombre,
+                             leerCentavos(datos, comaPrecio + 1, comaStock, desde),
+                             leerEntero(datos, comaStock + 1, finLinea, desde));
+                filas++;
+                if (lote.cantidad == FILAS_POR_LOTE) {
+                    lote.entregar(catalogo);
+                }
+            }
+            posicion = siguiente;
+        }
+        lote.entregar(catalogo);
+        return filas;
+    }
+
+    // "12", "12.5" o "12.50" -> 1200, 1250, 1250
+    private static long leerCentavos(ByteBuffer datos, int desde, int hasta, long base) {
+        long entero = 0;
+        int decimales = -1;
+        long fraccion = 0;
+        for (int i = desde; i < hasta; i++) {
+            byte b = datos.get(i);
+            if (b == '.' && decimales < 0) {
+                decimales = 0;
+            } else if (b >= '0' && b <= '9' && decimales < 2) {
+                if (decimales < 0) {
+                    if (entero > (MAXIMO_PRECIO_ENTERO - (b - '0')) / 10) {
+                        throw new IllegalArgumentException("Precio fuera de rango en el byte " + (base + desde));
+                    }
+                    entero = entero * 10 + (b - '0');
+                } else {
+                    fraccion = fraccion * 10 + (b - '0');
+                    decimales++;
+                }
+            } else {
+                throw new IllegalArgumentException("Precio inválido en el byte " + (base + desde));
+            }
+        }
+        if (hasta == desde || decimales == 0) {
+            throw new IllegalArgumentException("Precio inválido en el byte " + (base + desde));
+        }
+        return entero * 100 + (decimales == 1 ? fraccion * 10 : fraccion);
+    }
+
+    private static int leerEntero(ByteBuffer datos, int desde, int hasta, long base) {
+        if (hasta == desde) {
+            throw new IllegalArgumentException("Stock vacío en el byte " + (base + desde));
+        }
+        int valor = 0;
+        for (int i = desde; i < hasta; i++) {
+            byte b = datos.get(i);
+            if (b < '0' || b > '9') {
+                throw new IllegalArgumentException("Stock inválido en el byte " + (base + desde));
+            }
+            if (valor > (Integer.MAX_VALUE - (b - '0')) / 10) {
+                throw new IllegalArgumentException("Stock fuera de rango en el byte " + (base + desde));
+            }
+            valor = valor * 10 + (b - '0');
+        }
+        return valor;
+    }
+
+    private static int buscarAdelante(ByteBuffer datos, int desde, int hasta) {
+        for (int i = desde; i < hasta; i++) {
+            if (datos.get(i) == ',') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Última coma antes de "hasta" y posterior a "minimo"
+    private static int buscarAtras(ByteBuffer datos, int hasta, int minimo) {
+        for (int i = hasta - 1; i > minimo; i--) {
+            if (datos.get(i) == ',') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] copiar(ByteBuffer datos, int desde, int hasta, byte[] auxiliar) {
+        byte[] destino = hasta - desde <= auxiliar.length ? auxiliar : new byte[hasta - desde];
+        datos.get(desde, destino, 0, hasta - desde);
+        return destino;
+    }
+
+    // Cortes en fin de línea: el tramo i va de cortes[i] a cortes[i + 1]
+    private static long[] cortes(FileChannel canal, long inicio, long tamano, int tramos) throws IOException {
+        long[] cortes = new long[tramos + 1];
+        cortes[0] = inicio;
+        for (int i = 1; i < tramos; i++) {
+            long aproximado = inicio + (tamano - inicio) * i / tramos;
+            cortes[i] = Math.max(cortes[i - 1], finDeLinea(canal, aproximado, tamano));
+        }
+        cortes[tramos] = tamano;
+        return cortes;
+    }
+
+    // Posición siguiente al primer '\n' desde "desde" (o el fin del archivo)
+    private static long finDeLinea(FileChannel canal, long desde, long tamano) throws IOException {
+        ByteBuffer bloque = ByteBuffer.allocate(4096);
+        long posicion = desde;
+        while (posicion < tamano) {
+            bloque.clear();
+            int leidos = canal.read(bloque, posicion);
+            for (int i = 0; i < leidos; i++) {
+                if (bloque.get(i) == '\n') {
+                    return posicion + i + 1;
+                }
+            }
+            posicion += leidos;
+        }
+        return tamano;
+    }
+
+    private static long esperar(Future<Long> resultado) throws IOException {
+        try {
+            return resultado.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Carga del catálogo interrumpida");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Falló la carga de un tramo", e.getCause());
+        }
+    }
+
+    // Columnas de un lote, reutilizadas entre entregas
+    private static final class LoteFilas {
+        private final String[] ids = new String[FILAS_POR_LOTE];
+        private final String[] nombres = new String[FILAS_POR_LOTE];
+        private final long[] preciosCentavos = new long[FILAS_POR_LOTE];
+        private final int[] stocks = new int[FILAS_POR_LOTE];
+        private int cantidad;
+
+        void agregar(String id, String nombre, long precioCentavos, int stock) {
+            ids[cantidad] = id;
+            nombres[cantidad] = nombre;
+            preciosCentavos[cantidad] = precioCentavos;
+            stocks[cantidad] = stock;
+            cantidad++;
+        }
+
+        void entregar(CatalogoColumnar catalogo) {
+            if (cantidad > 0) {
+                catalogo.registrarLote(ids, nombres, preciosCentavos, stocks, cantidad);
+                cantidad = 0;
+            }
+        }
+    }
+}
+
+//Uso: tarea nocturna. Primero se lee todo; solo una copia completa llega al repositorio
+// infrastructure/batch/
+@Component
+public class CargaNocturnaCatalogo {
+    private final ProductoRepository productoRepository;
+
+    public CargaNocturnaCatalogo(ProductoRepository productoRepository) {
+        this.productoRepository = productoRepository;
+    }
+
+    @Scheduled(cron = "0 0 3 * * *")
+    public void ejecutar() throws IOException {
+        CargadorCatalogoMapeado cargador =
+            new CargadorCatalogoMapeado(Runtime.getRuntime().availableProcessors());
+        CatalogoColumnar copia = cargador.cargar(Paths.get("/datos/catalogo/catalogo.csv"));
+        productoRepository.guardarCatalogo(copia);
+    }
+}
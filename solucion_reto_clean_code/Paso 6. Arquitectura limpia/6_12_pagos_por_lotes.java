@@ -0,0 +1,381 @@
+/*
+Envío de Pagos por Lotes (Micro-Lotes en Tubería)
+
+Problema: ProcesarPagoUseCase.ejecutar procesa un Pago por vez y espera la
+respuesta del procesador antes de guardar y confirmar. El rendimiento queda
+limitado por la latencia de ida y vuelta: con 100 ms por viaje, un hilo
+procesa como máximo 10 pagos por segundo.
+
+Solución: los pagos se juntan en micro-lotes y cada lote viaja al puerto
+ServicioPagosExterno en una sola solicitud.
+- Un lote se cierra al llegar a un tamaño máximo o cuando pasa un tiempo
+  máximo desde su primer pago (así un pago solitario no espera de más).
+- Tubería: mientras un lote está en viaje se arma el siguiente; se admiten
+  varios lotes en vuelo a la vez.
+- Cada pago recibe su propio resultado (CompletableFuture): quien llama ve
+  su pago aprobado o rechazado, no el lote.
+- Guardar el pago y confirmar el pedido ocurre en una transacción y en un
+  executor propio, no en el hilo que envía los lotes.
+- Un cobro aprobado nunca se informa como fallido: si falla lo posterior,
+  o si el lote falla en viaje, el resultado queda "en duda".
+- ProcesadorPagosLocal reemplaza al procesador real en pruebas, con
+  latencia configurable.
+*/
+
+//1. Puerto de Pagos con Envío por Lotes
+// domain/services/
+public interface ServicioPagosExterno {
+    // Lanza PagoRechazadoException si el procesador rechaza el pago
+    void procesarPago(Pago pago);
+
+    // Un resultado por pago, en el mismo orden. Los adaptadores que no
+    // soportan lotes heredan esta versión, que envía uno por uno.
+    default List<ResultadoCobro> procesarLote(List<Pago> pagos) {
+        List<ResultadoCobro> resultados = new ArrayList<>(pagos.size());
+        for (Pago pago : pagos) {
+            try {
+                procesarPago(pago);
+                resultados.add(ResultadoCobro.aprobado());
+            } catch (PagoRechazadoException e) {
+                resultados.add(ResultadoCobro.rechazado(e.getMessage()));
+            }
+        }
+        return resultados;
+    }
+}
+
+// domain/valueobjects/
+public final class ResultadoCobro {
+    private static final ResultadoCobro APROBADO = new ResultadoCobro(true, null);
+
+    private final boolean aprobado;
+    private final String motivoRechazo;
+
+    private ResultadoCobro(boolean aprobado, String motivoRechazo) {
+        this.aprobado = aprobado;
+        this.motivoRechazo = motivoRechazo;
+    }
+
+    public static ResultadoCobro aprobado() {
+        return APROBADO;
+    }
+
+    public static ResultadoCobro rechazado(String motivo) {
+        return new ResultadoCobro(false, motivo);
+    }
+
+    // Getters
+}
+
+//2. Loteador: arma los lotes y los envía en tubería
+// infrastructure/external/
+public class LoteadorPagos implements Closeable {
+    private final ServicioPagosExterno servicioPagos;
+    private final int tamanoMaximoLote;
+    private final long esperaMaximaNanos;
+    private final Semaphore lotesEnVuelo;
+    private final BlockingQueue<Solicitud> pendientes;
+    private final ExecutorService envios = Executors.newCachedThreadPool();
+    private final Thread despachador;
+    private volatile boolean cerrado;
+
+    public LoteadorPagos(ServicioPagosExterno servicioPagos, int tamanoMaximoLote,
+                         Duration esperaMaxima, int maximoLotesEnVuelo, int capacidadCola) {
+        if (tamanoMaximoLote <= 0 || maximoLotesEnVuelo <= 0) {
+            throw new IllegalArgumentException("El tamaño de lote y los lotes en vuelo deben ser positivos");
+        }
+        this.servicioPagos = servicioPagos;
+        this.tamanoMaximoLote = tamanoMaximoLote;
+        this.esperaMaximaNanos = esperaMaxima.toNanos();
+        this.lotesEnVuelo = new Semaphore(maximoLotesEnVuelo);
+        this.pendientes = new ArrayBlockingQueue<>(capacidadCola);
+        this.despachador = new Thread(this::despachar, "loteador-pagos");
+        this.despachador.start();
+    }
+
+    public CompletableFuture<ResultadoCobro> enviar(Pago pago) {
+        if (cerrado) {
+            throw new IllegalStateException("El loteador de pagos está cerrado");
+        }
+        Solicitud solicitud = new Solicitud(pago);
+        // Cola llena: se rechaza enseguida en lugar de acumular esperas
+        if (!pendientes.offer(solicitud)) {
+            solicitud.resultado.completeExceptionally(
+                new RejectedExecutionException("Demasiados pagos pendientes"));
+        } else if (cerrado && pendientes.remove(solicitud)) {
+            // close() llegó entre la verificación y el offer: si el despachador
+            // ya no la va a tomar, se cancela aquí en lugar de quedar colgada
+            solicitud.resultado.completeExceptionally(
+                new CancellationException("Loteador cerrado antes de enviar el pago"));
+        }
+        return solicitud.resultado;
+    }
+
+    private void despachar() {
+        List<Solicitud> lote = new ArrayList<>(tamanoMaximoLote);
+        try {
+            while (!cerrado || !pendientes.isEmpty()) {
+                Solicitud primera = pendientes.poll(100, TimeUnit.MILLISECONDS);
+                if (primera == null) {
+                    continue;
+                }
+                lote.add(primera);
+                completarLote(lote, System.nanoTime() + esperaMaximaNanos);
+
+                // Tubería: solo se espera si ya hay demasiados lotes en viaje
+                lotesEnVuelo.acquire();
+                List<Solicitud> enviado = lote;
+                envios.execute(() -> enviarLote(enviado));
+                lote = new ArrayList<>(tamanoMaximoLote);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            lote.forEach(s -> s.resultado.completeExceptionally(
+                new CancellationException("Loteador detenido antes de enviar el pago")));
+        }
+    }
+
+    // Agrega pagos hasta llenar el lote o hasta que venza su espera máxima
+    private void completarLote(List<Solicitud> lote, long limiteNanos) throws InterruptedException {
+        while (lote.size() < tamanoMaximoLote) {
+            pendientes.drainTo(lote, tamanoMaximoLote - lote.size());
+            long restante = limiteNanos - System.nanoTime();
+            if (lote.size() == tamanoMaximoLote || restante <= 0) {
+                return;
+            }
+            Solicitud siguiente = pendientes.poll(restante, TimeUnit.NANOSECONDS);
+            if (siguiente == null) {
+                return;
+            }
+            lote.add(siguiente);
+        }
+    }
+
+    private void enviarLote(List<Solicitud> lote) {
+        List<ResultadoCobro> resultados;
+        try {
+            resultados = servicioPagos.procesarLote(
+                lote.stream().map(Solicitud::getPago).collect(Collectors.toList()));
+            if (resultados.size() != lote.size()) {
+                throw new IllegalStateException("El procesador devolvió " + resultados.size()
+                                                + " resultados para " + lote.size() + " pagos");
+            }
+        } catch (RuntimeException e) {
+            lotesEnVuelo.release();
+            lote.forEach(s -> s.resultado.completeExceptionally(e));
+            return;
+        }
+        // Se libera el cupo antes de entregar: lo que hagan los que esperan
+        // (guardar, confirmar) no retrasa el envío del siguiente lote
+        lotesEnVuelo.release();
+        for (int i = 0; i < lote.size(); i++) {
+            lote.get(i).resultado.complete(resultados.get(i));
+        }
+    }
+
+    // Envía lo pendiente y espera a que terminen los lotes en vuelo
+    @Override
+    public void close() {
+        cerrado = true;
+        try {
+            despachador.join();
+            // Lo que entró después de la última vuelta del despachador no sale
+            List<Solicitud> restantes = new ArrayList<>();
+            pendientes.drainTo(restantes);
+            restantes.forEach(s -> s.resultado.completeExceptionally(
+                new CancellationException("Loteador cerrado antes de enviar el pago")));
+            envios.shutdown();
+            envios.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Solicitud {
+        private final Pago pago;
+        private final CompletableFuture<ResultadoCobro> resultado = new CompletableFuture<>();
+
+        Solicitud(Pago pago) {
+            this.pago = pago;
+        }
+
+        Pago getPago() {
+            return pago;
+        }
+    }
+}
+
+/*
+3. Caso de Uso con Envío por Lotes
+ejecutar() sigue devolviendo un ResultadoPago por pedido: el hilo que llama
+espera solo su resultado, pero comparte el viaje con los demás pagos del lote.
+El registro posterior corre en "efectos" (executor acotado) dentro de una
+transacción: el hilo de envíos queda libre para el siguiente lote.
+*/
+// application/usecases/
+public class ProcesarPagoUseCase {
+    private final PedidoRepository pedidoRepository;
+    private final PagoRepository pagoRepository;
+    private final LoteadorPagos loteadorPagos;
+    private final TransactionTemplate transaccion;
+    private final Executor efectos;
+
+    public ProcesarPagoUseCase(PedidoRepository pedidoRepository,
+                               PagoRepository pagoRepository,
+                               LoteadorPagos loteadorPagos,
+                               PlatformTransactionManager transactionManager,
+                               Executor efectos) {
+        this.pedidoRepository = pedidoRepository;
+        this.pagoRepository = pagoRepository;
+        this.loteadorPagos = loteadorPagos;
+        this.transaccion = new TransactionTemplate(transactionManager);
+        this.efectos = efectos;
+    }
+
+    public ResultadoPago ejecutar(String idPedido, String medioPago, double monto) {
+        return ejecutarAsync(idPedido, medioPago, monto).join();
+    }
+
+    public CompletableFuture<ResultadoPago> ejecutarAsync(String idPedido, String medioPago, double monto) {
+        // 1. Buscar pedido
+        Pedido pedido = pedidoRepository.buscarPorId(idPedido)
+            .orElseThrow(() -> new PedidoNoEncontradoException(idPedido));
+
+        // 2. Crear pago
+        Pago pago = new Pago(idPedido, monto, medioPago);
+
+        // 3. Enviar al procesador dentro del próximo lote
+        CompletableFuture<ResultadoCobro> cobro = loteadorPagos.enviar(pago);
+        return cobro
+            .thenApplyAsync(resultado -> {
+                if (!resultado.isAprobado()) {
+                    return ResultadoPago.fallido("Pago rechazado: " + resultado.getMotivoRechazo());
+                }
+                // 4. Guardar el pago y confirmar el pedido juntos
+                transaccion.executeWithoutResult(estado -> {
+                    pagoRepository.guardar(pago);
+                    pedido.confirmar();
+                    pedidoRepository.guardar(pedido);
+                });
+                return ResultadoPago.exitoso(pago);
+            }, efectos)
+            .exceptionally(e -> resolverError(cobro, pago, e));
+    }
+
+    // Solo es "fallido" lo que con certeza no se cobró
+    private ResultadoPago resolverError(CompletableFuture<ResultadoCobro> cobro, Pago pago, Throwable e) {
+        Throwable causa = e instanceof CompletionException ? e.getCause() : e;
+        if (!cobro.isCompletedExceptionally()) {
+            // El procesador respondió y falló el registro posterior
+            ResultadoCobro resultado = cobro.join();
+            return resultado.isAprobado()
+                ? ResultadoPago.enDuda(pago.getId(), "Pago cobrado sin registrar: " + causa.getMessage())
+                : ResultadoPago.fallido("Pago rechazado: " + resultado.getMotivoRechazo());
+        }
+        if (causa instanceof RejectedExecutionException || causa instanceof CancellationException) {
+            return ResultadoPago.fallido("Pago no enviado: " + causa.getMessage());
+        }
+        // El lote falló en viaje: el procesador pudo haberlo cobrado
+        return ResultadoPago.enDuda(pago.getId(), "Resultado del cobro desconocido: " + causa.getMessage());
+    }
+}
+
+//4. Procesador Local para Pruebas
+// infrastructure/external/
+public class ProcesadorPagosLocal implements ServicioPagosExterno {
+    private final Duration latenciaPorViaje;
+    private final double montoMaximo;
+    private final AtomicInteger viajes = new AtomicInteger();
+
+    // Rechaza los pagos por encima de montoMaximo
+    public ProcesadorPagosLocal(Duration latenciaPorViaje, double montoMaximo) {
+        this.latenciaPorViaje = latenciaPorViaje;
+        this.montoMaximo = montoMaximo;
+    }
+
+    @Override
+    public void procesarPago(Pago pago) {
+        viajar();
+        if (pago.getMonto() > montoMaximo) {
+            throw new PagoRechazadoException("Monto por encima del límite");
+        }
+    }
+
+    // Un solo viaje para todo el lote
+    @Override
+    public List<ResultadoCobro> procesarLote(List<Pago> pagos) {
+        viajar();
+        return pagos.stream()
+            .map(pago -> pago.getMonto() > montoMaximo
+                ? ResultadoCobro.rechazado("Monto por encima del límite")
+                : ResultadoCobro.aprobado())
+            .collect(Collectors.toList());
+    }
+
+    public int getViajes() {
+        return viajes.get();
+    }
+
+    private void viajar() {
+        viajes.incrementAndGet();
+        try {
+            Thread.sleep(latenciaPorViaje.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Viaje al procesador interrumpido", e);
+        }
+    }
+}
+
+//5. Prueba: cada pago recibe su resultado y los viajes se comparten
+class LoteadorPagosTest {
+
+    @Test
+    @DisplayName("Debería agrupar pagos concurrentes en pocos viajes con resultados individuales")
+    void testPagosConcurrentes_CompartenViajes() {
+        // Given - 200 pagos, el de monto 9999 supera el límite del procesador
+        ProcesadorPagosLocal procesador = new ProcesadorPagosLocal(Duration.ofMillis(50), 5000);
+        List<CompletableFuture<ResultadoCobro>> resultados = new ArrayList<>();
+
+        // When
+        try (LoteadorPagos loteador = new LoteadorPagos(procesador, 50, Duration.ofMillis(10), 4, 1000)) {
+            for (int i = 0; i < 200; i++) {
+                double monto = i == 7 ? 9999 : 100;
+                resultados.add(loteador.enviar(new Pago("pedido-" + i, monto, "tarjeta")));
+            }
+            CompletableFuture.allOf(resultados.toArray(new CompletableFuture[0])).join();
+        }
+
+        // Then
+        assertFalse(resultados.get(7).join().isAprobado());
+        assertEquals(199, resultados.stream().filter(r -> r.join().isAprobado()).count());
+        assertTrue(procesador.getViajes() <= 8, "200 pagos deberían viajar en pocos lotes");
+    }
+}
+
+//Configuración
+// infrastructure/config/
+@Configuration
+public class PagosConfig {
+
+    @Bean(destroyMethod = "close")
+    public LoteadorPagos loteadorPagos(ServicioPagosExterno servicioPagos) {
+        return new LoteadorPagos(
+            servicioPagos,
+            50,                       // pagos por lote
+            Duration.ofMillis(5),     // espera máxima para completar un lote
+            4,                        // lotes en vuelo a la vez
+            10_000                    // pagos pendientes antes de rechazar
+        );
+    }
+
+    // Registro posterior al cobro. La cola cubre la del loteador más los
+    // lotes en vuelo: con carga normal no se rechaza un cobro ya aprobado
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService efectosPago() {
+        return new ThreadPoolExecutor(4, 4, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(10_000 + 4 * 50));
+    }
+
+    // El bean de ProcesarPagoUseCase se define en BandejaSalidaConfig (ver 6_16)
+}
@@ -0,0 +1,589 @@
+/*
+Llamadas de Pago No Bloqueantes: Plazos, Cobertura y Corte de Circuito
+
+Problema: ServicioPagosStripe.procesarPago hace una llamada bloqueante sin
+timeout. Si el procesador se pone lento, cada solicitud deja un hilo
+esperando y en poco tiempo no quedan hilos para nadie.
+
+Solución: una capa asíncrona alrededor del procesador de pagos.
+- Plazo (deadline): cada pago lleva un instante límite que se propaga al
+  adaptador (lo usa como timeout de la llamada HTTP). Al vencer, el pago se
+  da por fallido sin esperar más.
+- Cobertura (hedging): si la respuesta tarda más que el p95 de las
+  latencias recientes, se envía un segundo intento y gana el primero que
+  responda. Solo se cubren las llamadas con clave de idempotencia (por
+  omisión el id del pago), que viaja al procesador en cada intento: así
+  cobra una sola vez. Cada intento ocupa un cupo de su compartimento y las
+  coberturas se limitan al 10% de las solicitudes para no duplicar la carga
+  en una caída.
+- Corte de circuito (circuit breaker): si fallan demasiadas llamadas
+  recientes, se rechaza enseguida durante un tiempo y luego se deja pasar
+  una sola llamada de prueba.
+- Compartimentos (bulkheads) por medio de pago: cada medioPago tiene su
+  propio cupo de llamadas simultáneas y su propio circuito. Una red de
+  tarjetas lenta no agota la capacidad de las transferencias.
+- Un pago que no llegó a enviarse (circuito abierto, sin cupo, plazo vencido
+  en la cola) falla con PagoNoEnviadoException: se sabe que no se cobró.
+- ProcesadorPagosFalso inyecta latencia y fallos para verificar todo lo
+  anterior sin salir de la máquina.
+*/
+
+//1. Plazo y Puerto Asíncrono
+// domain/valueobjects/
+public final class Plazo {
+    private final long venceNanos;
+
+    private Plazo(long venceNanos) {
+        this.venceNanos = venceNanos;
+    }
+
+    public static Plazo dentroDe(Duration duracion) {
+        return new Plazo(System.nanoTime() + duracion.toNanos());
+    }
+
+    public long restanteNanos() {
+        return Math.max(0, venceNanos - System.nanoTime());
+    }
+
+    public boolean vencido() {
+        return restanteNanos() == 0;
+    }
+}
+
+// domain/services/
+public interface ServicioPagosAsincrono {
+    // El adaptador no espera más allá del plazo. Con la misma clave de
+    // idempotencia, dos envíos cobran una sola vez; sin clave (null), cada
+    // envío puede cobrar
+    CompletableFuture<ResultadoCobro> procesarPago(Pago pago, String claveIdempotencia, Plazo plazo);
+}
+
+// domain/services/
+// Procesador con cliente bloqueante que acepta clave de idempotencia y timeout
+public interface ServicioPagosConPlazo extends ServicioPagosExterno {
+    void procesarPago(Pago pago, String claveIdempotencia, Duration timeout);
+}
+
+//2. Capa de Resiliencia
+// infrastructure/external/
+public class ServicioPagosResiliente implements ServicioPagosExterno {
+    private final ServicioPagosAsincrono procesador;
+    private final ScheduledExecutorService temporizador = Executors.newSingleThreadScheduledExecutor();
+    private final ConcurrentHashMap<String, Compartimento> compartimentos = new ConcurrentHashMap<>();
+    private final EstimadorLatencia latencias = new EstimadorLatencia(1024);
+    private final LongAdder solicitudes = new LongAdder();
+    private final LongAdder coberturas = new LongAdder();
+    private final int llamadasPorMedio;
+    private final Duration plazoPredeterminado;
+
+    public ServicioPagosResiliente(ServicioPagosAsincrono procesador, int llamadasPorMedio,
+                                   Duration plazoPredeterminado) {
+        this.procesador = procesador;
+        this.llamadasPorMedio = llamadasPorMedio;
+        this.plazoPredeterminado = plazoPredeterminado;
+    }
+
+    // Versión bloqueante para los casos de uso existentes
+    @Override
+    public void procesarPago(Pago pago) {
+        ResultadoCobro cobro;
+        try {
+            cobro = procesarPagoAsync(pago, Plazo.dentroDe(plazoPredeterminado)).join();
+        } catch (CompletionException e) {
+            throw new ProcesadorNoDisponibleException("No se pudo procesar el pago: " + e.getCause().getMessage());
+        }
+        if (!cobro.isAprobado()) {
+            throw new PagoRechazadoException(cobro.getMotivoRechazo());
+        }
+    }
+
+    // Los pagos del lote viajan en paralelo con un mismo plazo. Un pago que
+    // no llegó a enviarse vuelve como rechazado (no se cobró); cualquier otro
+    // error hace fallar el lote, porque esos pagos pudieron cobrarse
+    @Override
+    public List<ResultadoCobro> procesarLote(List<Pago> pagos) {
+        Plazo plazo = Plazo.dentroDe(plazoPredeterminado);
+        List<CompletableFuture<ResultadoCobro>> cobros = new ArrayList<>(pagos.size());
+        for (Pago pago : pagos) {
+            cobros.add(procesarPagoAsync(pago, pago.getId(), plazo, true).handle((cobro, error) -> {
+                if (error == null) {
+                    return cobro;
+                }
+                Throwable causa = error instanceof CompletionException ? error.getCause() : error;
+                if (causa instanceof PagoNoEnviadoException) {
+                    return ResultadoCobro.rechazado(causa.getMessage());
+                }
+                throw new CompletionException(causa);
+            }));
+        }
+        try {
+            CompletableFuture.allOf(cobros.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw new ProcesadorNoDisponibleException("No se pudo procesar el lote: " + e.getCause().getMessage());
+        }
+        return cobros.stream().map(CompletableFuture::join).collect(Collectors.toList());
+    }
+
+    // El id del pago identifica este intento de cobro: sirve de clave de idempotencia
+    public CompletableFuture<ResultadoCobro> procesarPagoAsync(Pago pago, Plazo plazo) {
+        return procesarPagoAsync(pago, pago.getId(), plazo);
+    }
+
+    // Sin clave (null) no se envían coberturas: un segundo intento podría cobrar dos veces
+    public CompletableFuture<ResultadoCobro> procesarPagoAsync(Pago pago, String claveIdempotencia, Plazo plazo) {
+        return procesarPagoAsync(pago, claveIdempotencia, plazo, false);
+    }
+
+    private CompletableFuture<ResultadoCobro> procesarPagoAsync(Pago pago, String claveIdempotencia,
+                                                                Plazo plazo, boolean esperarCupo) {
+        if (plazo.vencido()) {
+            return CompletableFuture.failedFuture(new PagoNoEnviadoException("Plazo vencido antes de enviar el pago"));
+        }
+        Compartimento compartimento = compartimentos.computeIfAbsent(pago.getMedioPago(),
+            medio -> new Compartimento(llamadasPorMedio));
+        if (!compartimento.circuito.permitirLlamada()) {
+            return CompletableFuture.failedFuture(
+                new PagoNoEnviadoException("Circuito abierto para " + pago.getMedioPago()));
+        }
+        if (!tomarCupo(compartimento, plazo, esperarCupo)) {
+            compartimento.circuito.cancelarLlamada();
+            return CompletableFuture.failedFuture(
+                new PagoNoEnviadoException("Sin cupo para " + pago.getMedioPago()));
+        }
+        solicitudes.increment();
+
+        long inicio = System.nanoTime();
+        CompletableFuture<ResultadoCobro> resultado = new CompletableFuture<>();
+        AtomicInteger intentosEnCurso = new AtomicInteger(1);
+        intentar(pago, claveIdempotencia, plazo, resultado, intentosEnCurso, compartimento);
+
+        // Cobertura: un segundo intento si el primero pasa el p95, solo con
+        // clave y si el compartimento tiene un cupo libre para él
+        ScheduledFuture<?> cobertura = claveIdempotencia == null ? null : temporizador.schedule(() -> {
+            if (!resultado.isDone() && !plazo.vencido() && hayPresupuestoDeCobertura()
+                    && compartimento.cupos.tryAcquire()) {
+                coberturas.increment();
+                intentosEnCurso.incrementAndGet();
+                intentar(pago, claveIdempotencia, plazo, resultado, intentosEnCurso, compartimento);
+            }
+        }, latencias.percentil95Nanos(), TimeUnit.NANOSECONDS);
+        // El plazo vence aunque ningún intento responda
+        ScheduledFuture<?> vencimiento = temporizador.schedule(
+            () -> resultado.completeExceptionally(new TimeoutException("Plazo vencido esperando al procesador")),
+            plazo.restanteNanos(), TimeUnit.NANOSECONDS);
+
+        return resultado.whenComplete((cobro, error) -> {
+            if (cobertura != null) {
+                cobertura.cancel(false);
+            }
+            vencimiento.cancel(false);
+            compartimento.circuito.registrar(error == null);
+            if (error == null) {
+                latencias.registrar(System.nanoTime() - inicio);
+            }
+        });
+    }
+
+    // Los lotes esperan un cupo dentro del plazo; las llamadas sueltas no esperan
+    private boolean tomarCupo(Compartimento compartimento, Plazo plazo, boolean esperar) {
+        if (!esperar) {
+            return compartimento.cupos.tryAcquire();
+        }
+        try {
+            return compartimento.cupos.tryAcquire(plazo.restanteNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Gana la primera respuesta; el error solo cuenta si falló el último intento en curso.
+    // El cupo se devuelve cuando termina este intento, no cuando gana otro: la
+    // llamada sigue ocupando al procesador hasta que responde
+    private void intentar(Pago pago, String claveIdempotencia, Plazo plazo,
+                          CompletableFuture<ResultadoCobro> resultado, AtomicInteger intentosEnCurso,
+                          Compartimento compartimento) {
+        CompletableFuture<ResultadoCobro> intento;
+        try {
+            intento = procesador.procesarPago(pago, claveIdempotencia, plazo);
+        } catch (RuntimeException e) {
+            intento = CompletableFuture.failedFuture(e);
+        }
+        intento.whenComplete((cobro, error) -> {
+            compartimento.cupos.release();
+            if (error == null) {
+                resultado.complete(cobro);
+            } else if (intentosEnCurso.decrementAndGet() == 0) {
+                resultado.completeExceptionally(error);
+            }
+        });
+    }
+
+    private boolean hayPresupuestoDeCobertura() {
+        return coberturas.sum() * 10 < solicitudes.sum();
+    }
+
+    public void cerrar() {
+        temporizador.shutdownNow();
+    }
+
+    private static final class Compartimento {
+        private final Semaphore cupos;
+        private final CorteCircuito circuito = new CorteCircuito(20, 0.5, Duration.ofSeconds(10));
+
+        Compartimento(int llamadasSimultaneas) {
+            this.cupos = new Semaphore(llamadasSimultaneas);
+        }
+    }
+}
+
+/*
+3. Corte de Circuito por Ventana de Resultados
+Guarda el resultado de las últimas N llamadas. Con al menos N resultados y
+una tasa de fallos igual o mayor al umbral, el circuito se abre. Pasada la
+espera queda semiabierto: una sola llamada de prueba decide si se cierra o
+vuelve a abrirse.
+*/
+// infrastructure/external/
+class CorteCircuito {
+    enum Estado { CERRADO, ABIERTO, SEMIABIERTO }
+
+    private final boolean[] ventana;
+    private final double umbralFallos;
+    private final long esperaNanos;
+    private Estado estado = Estado.CERRADO;
+    private int registrados;
+    private int fallos;
+    private int siguiente;
+    private long abiertoDesde;
+    private boolean pruebaEnCurso;
+
+    CorteCircuito(int tamanoVentana, double umbralFallos, Duration espera) {
+        this.ventana = new boolean[tamanoVentana];
+        this.umbralFallos = umbralFallos;
+        this.esperaNanos = espera.toNanos();
+    }
+
+    synchronized boolean permitirLlamada() {
+        if (estado == Estado.ABIERTO && System.nanoTime() - abiertoDesde >= esperaNanos) {
+            estado = Estado.SEMIABIERTO;
+        }
+        if (estado == Estado.SEMIABIERTO) {
+            if (pruebaEnCurso) {
+                return false;
+            }
+            pruebaEnCurso = true;
+            return true;
+        }
+        return estado == Estado.CERRADO;
+    }
+
+    // La llamada permitida no llegó a hacerse (por ejemplo, sin cupo)
+    synchronized void cancelarLlamada() {
+        pruebaEnCurso = false;
+    }
+
+    synchronized void registrar(boolean exito) {
+        if (estado == Estado.SEMIABIERTO) {
+            pruebaEnCurso = false;
+            if (exito) {
+                estado = Estado.CERRADO;
+                registrados = 0;
+                fallos = 0;
+            } else {
+                abrir();
+            }
+            return;
+        }
+        if (estado == Estado.ABIERTO) {
+            return; // respuesta tardía de una llamada anterior a la apertura
+        }
+        if (registrados == ventana.length && !ventana[siguiente]) {
+            fallos--; // sale de la ventana un fallo antiguo
+        }
+        ventana[siguiente] = exito;
+        siguiente = (siguiente + 1) % ventana.length;
+        registrados = Math.min(registrados + 1, ventana.length);
+        if (!exito) {
+            fallos++;
+        }
+        if (registrados == ventana.length && fallos >= umbralFallos * ventana.length) {
+            abrir();
+        }
+    }
+
+    synchronized Estado getEstado() {
+        return estado;
+    }
+
+    private void abrir() {
+        estado = Estado.ABIERTO;
+        abiertoDesde = System.nanoTime();
+        registrados = 0;
+        fallos = 0;
+    }
+}
+
+/*
+4. Estimador del p95 de Latencia
+Últimas N latencias exitosas en un anillo. El p95 se recalcula cada 64
+registros ordenando una copia; mientras no hay datos se usa un valor
+inicial conservador.
+*/
+// infrastructure/external/
+class EstimadorLatencia {
+    private static final long P95_INICIAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final long[] muestras;
+    private int siguiente;
+    private int total;
+    private volatile long percentil95Nanos = P95_INICIAL_NANOS;
+
+    EstimadorLatencia(int capacidad) {
+        this.muestras = new long[capacidad];
+    }
+
+    synchronized void registrar(long latenciaNanos) {
+        muestras[siguiente] = latenciaNanos;
+        siguiente = (siguiente + 1) % muestras.length;
+        total++;
+        if (total % 64 == 0) {
+            long[] copia = Arrays.copyOf(muestras, Math.min(total, muestras.length));
+            Arrays.sort(copia);
+            percentil95Nanos = copia[(int) (copia.length * 0.95)];
+        }
+    }
+
+    long percentil95Nanos() {
+        return percentil95Nanos;
+    }
+}
+
+//5. Adaptador para procesadores con cliente bloqueante
+// infrastructure/external/
+public class AdaptadorPagosBloqueante implements ServicioPagosAsincrono {
+    private final ServicioPagosConPlazo servicio;
+    private final ThreadPoolExecutor hilos;
+
+    // Hilos fijos y cola acotada: con el procesador lento, lo que no entra
+    // se rechaza enseguida en lugar de acumularse
+    public AdaptadorPagosBloqueante(ServicioPagosConPlazo servicio, int hilos, int capacidadCola) {
+        this.servicio = servicio;
+        this.hilos = new ThreadPoolExecutor(hilos, hilos, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(capacidadCola));
+    }
+
+    @Override
+    public CompletableFuture<ResultadoCobro> procesarPago(Pago pago, String claveIdempotencia, Plazo plazo) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                // Pudo vencer esperando en la cola: entonces no se llama
+                if (plazo.vencido()) {
+                    throw new PagoNoEnviadoException("Plazo vencido antes de enviar el pago");
+                }
+                try {
+                    // Lo que queda del plazo es el timeout de la llamada
+                    servicio.procesarPago(pago, claveIdempotencia, Duration.ofNanos(plazo.restanteNanos()));
+                    return ResultadoCobro.aprobado();
+                } catch (PagoRechazadoException e) {
+                    return ResultadoCobro.rechazado(e.getMessage());
+                }
+            }, hilos);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(
+                new PagoNoEnviadoException("Sin hilos libres para llamar al procesador"));
+        }
+    }
+
+    public void cerrar() {
+        hilos.shutdown();
+    }
+}
+
+//6. Procesador Falso: latencia y fallos inyectados
+// infrastructure/external/
+public class ProcesadorPagosFalso implements ServicioPagosAsincrono {
+    private final ScheduledExecutorService reloj = Executors.newScheduledThreadPool(2);
+    private final Duration latenciaNormal;
+    private final Duration latenciaLenta;
+    private final double probabilidadLenta;
+    private final double probabilidadFallo;
+    private final AtomicInteger llamadas = new AtomicInteger();
+    private final AtomicInteger llamadasSinClave = new AtomicInteger();
+    private final AtomicInteger cobros = new AtomicInteger();
+    private final Set<String> clavesCobradas = ConcurrentHashMap.newKeySet();
+    private volatile boolean caido;
+
+    public ProcesadorPagosFalso(Duration latenciaNormal, Duration latenciaLenta,
+                                double probabilidadLenta, double probabilidadFallo) {
+        this.latenciaNormal = latenciaNormal;
+        this.latenciaLenta = latenciaLenta;
+        this.probabilidadLenta = probabilidadLenta;
+        this.probabilidadFallo = probabilidadFallo;
+    }
+
+    @Override
+    public CompletableFuture<ResultadoCobro> procesarPago(Pago pago, String claveIdempotencia, Plazo plazo) {
+        llamadas.incrementAndGet();
+        if (claveIdempotencia == null) {
+            llamadasSinClave.incrementAndGet();
+        }
+        ThreadLocalRandom azar = ThreadLocalRandom.current();
+        Duration latencia = azar.nextDouble() < probabilidadLenta ? latenciaLenta : latenciaNormal;
+        boolean falla = caido || azar.nextDouble() < probabilidadFallo;
+
+        CompletableFuture<ResultadoCobro> respuesta = new CompletableFuture<>();
+        reloj.schedule(() -> {
+            if (falla) {
+                respuesta.completeExceptionally(new IllegalStateException("Procesador no disponible"));
+            } else {
+                // Como el procesador real: una clave ya cobrada no se cobra
+                // de nuevo; una llamada sin clave siempre cobra
+                if (claveIdempotencia == null || clavesCobradas.add(claveIdempotencia)) {
+                    cobros.incrementAndGet();
+                }
+                respuesta.complete(ResultadoCobro.aprobado());
+            }
+        }, latencia.toNanos(), TimeUnit.NANOSECONDS);
+        return respuesta;
+    }
+
+    public void setCaido(boolean caido) {
+        this.caido = caido;
+    }
+
+    public int getLlamadas() {
+        return llamadas.get();
+    }
+
+    public int getLlamadasSinClave() {
+        return llamadasSinClave.get();
+    }
+
+    // Cobros efectivos: dos cobros del mismo pago cuentan dos veces
+    public int getCobros() {
+        return cobros.get();
+    }
+}
+
+//7. Pruebas contra el procesador falso
+class ServicioPagosResilienteTest {
+
+    @Test
+    @DisplayName("La cobertura debería recortar la cola de latencia sin cobrar dos veces")
+    void testCobertura_RecortaLatenciasAltas() {
+        // Given - 5% de las llamadas tarda 1 s, el resto 20 ms
+        ProcesadorPagosFalso procesador = new ProcesadorPagosFalso(
+            Duration.ofMillis(20), Duration.ofSeconds(1), 0.05, 0);
+        ServicioPagosResiliente servicio = new ServicioPagosResiliente(procesador, 1000, Duration.ofSeconds(2));
+        calentar(servicio, 200);
+
+        // When
+        List<Long> latencias = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            long inicio = System.nanoTime();
+            servicio.procesarPagoAsync(new Pago("pedido-" + i, 100, "tarjeta"),
+                                       Plazo.dentroDe(Duration.ofSeconds(2))).join();
+            latencias.add(System.nanoTime() - inicio);
+        }
+
+        // Then - el 99% responde muy por debajo del segundo de la llamada lenta
+        Collections.sort(latencias);
+        assertTrue(latencias.get(197) < TimeUnit.MILLISECONDS.toNanos(300));
+        assertEquals(0, procesador.getLlamadasSinClave());
+        assertEquals(400, procesador.getCobros());
+    }
+
+    @Test
+    @DisplayName("Sin clave de idempotencia no debería enviarse un segundo intento")
+    void testCobertura_SoloConClave() {
+        // Given - 4% de las llamadas tarda 300 ms, muy por encima del p95
+        ProcesadorPagosFalso procesador = new ProcesadorPagosFalso(
+            Duration.ofMillis(5), Duration.ofMillis(300), 0.04, 0);
+        ServicioPagosResiliente servicio = new ServicioPagosResiliente(procesador, 1000, Duration.ofSeconds(2));
+        calentar(servicio, 200);
+        int llamadasAntes = procesador.getLlamadas();
+        int cobrosAntes = procesador.getCobros();
+
+        // When
+        for (int i = 0; i < 100; i++) {
+            servicio.procesarPagoAsync(new Pago("pedido-" + i, 100, "tarjeta"), null,
+                                       Plazo.dentroDe(Duration.ofSeconds(2))).join();
+        }
+
+        // Then - un intento y un cobro por pago
+        assertEquals(100, procesador.getLlamadas() - llamadasAntes);
+        assertEquals(100, procesador.getCobros() - cobrosAntes);
+    }
+
+    @Test
+    @DisplayName("Con el procesador caído el circuito debería abrirse y fallar sin llamarlo")
+    void testCorteCircuito_SeAbreConFallos() {
+        ProcesadorPagosFalso procesador = new ProcesadorPagosFalso(
+            Duration.ofMillis(5), Duration.ofMillis(5), 0, 0);
+        ServicioPagosResiliente servicio = new ServicioPagosResiliente(procesador, 100, Duration.ofSeconds(1));
+        procesador.setCaido(true);
+
+        for (int i = 0; i < 20; i++) {
+            assertThrows(CompletionException.class, () -> servicio.procesarPagoAsync(
+                new Pago("p", 100, "tarjeta"), Plazo.dentroDe(Duration.ofSeconds(1))).join());
+        }
+        int llamadasAlAbrir = procesador.getLlamadas();
+
+        assertThrows(CompletionException.class, () -> servicio.procesarPagoAsync(
+            new Pago("p", 100, "tarjeta"), Plazo.dentroDe(Duration.ofSeconds(1))).join());
+        assertEquals(llamadasAlAbrir, procesador.getLlamadas());
+
+        // Otro medio de pago tiene su propio circuito
+        procesador.setCaido(false);
+        assertTrue(servicio.procesarPagoAsync(new Pago("q", 100, "transferencia"),
+                                              Plazo.dentroDe(Duration.ofSeconds(1))).join().isAprobado());
+    }
+
+    @Test
+    @DisplayName("Un pago debería fallar al vencer su plazo aunque el procesador no responda")
+    void testPlazo_VenceSinRespuesta() {
+        ProcesadorPagosFalso procesador = new ProcesadorPagosFalso(
+            Duration.ofSeconds(5), Duration.ofSeconds(5), 0, 0);
+        ServicioPagosResiliente servicio = new ServicioPagosResiliente(procesador, 100, Duration.ofSeconds(1));
+
+        long inicio = System.nanoTime();
+        CompletionException error = assertThrows(CompletionException.class, () -> servicio.procesarPagoAsync(
+            new Pago("p", 100, "tarjeta"), Plazo.dentroDe(Duration.ofMillis(100))).join());
+
+        assertTrue(error.getCause() instanceof TimeoutException);
+        assertTrue(System.nanoTime() - inicio < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    private void calentar(ServicioPagosResiliente servicio, int pagos) {
+        for (int i = 0; i < pagos; i++) {
+            servicio.procesarPagoAsync(new Pago("calentamiento-" + i, 100, "tarjeta"),
+                                       Plazo.dentroDe(Duration.ofSeconds(2))).join();
+        }
+    }
+}
+
+//Configuración: el procesador real queda detrás de la capa de resiliencia
+// infrastructure/config/
+@Configuration
+public class ResilienciaPagosConfig {
+
+    @Bean(destroyMethod = "cerrar")
+    public AdaptadorPagosBloqueante adaptadorPagosStripe(ServicioPagosStripe servicioPagosStripe) {
+        return new AdaptadorPagosBloqueante(
+            servicioPagosStripe,
+            64,                       // llamadas bloqueantes simultáneas
+            256                       // llamadas en espera antes de rechazar
+        );
+    }
+
+    @Bean(destroyMethod = "cerrar")
+    @Primary
+    public ServicioPagosExterno servicioPagos(AdaptadorPagosBloqueante adaptadorPagosStripe) {
+        return new ServicioPagosResiliente(
+            adaptadorPagosStripe,
+            32,                       // llamadas simultáneas por medio de pago
+            Duration.ofSeconds(3)     // plazo cuando el caso de uso no indica otro
+        );
+    }
+}
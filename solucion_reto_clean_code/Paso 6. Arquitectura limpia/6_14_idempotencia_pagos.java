@@ -0,0 +1,648 @@
+/*
+Idempotencia de Pagos por Pedido y Clave del Cliente
+
+Problema: ProcesarPagoUseCase crea un Pago nuevo en cada llamada. Si el
+cliente reintenta (timeout del navegador, doble clic, reintento automático
+de la app) el pedido se cobra dos veces.
+
+Solución: el cliente envía una clave de idempotencia por intento de pago
+(cabecera Idempotency-Key) y un almacén registra cada intento por
+(idPedido, clave).
+- Una solicitud repetida de un pago ya cobrado recibe el ResultadoPago
+  original sin volver a cobrar. Si el primero sigue en curso, la repetida
+  se rechaza en lugar de cobrar en paralelo.
+- Solo un pago que con certeza no se cobró (rechazado o nunca enviado)
+  libera la clave: el cliente puede reintentar. Si el resultado es
+  desconocido (en duda) la clave queda retenida y una repetida no cobra.
+- La reserva se anexa al archivo antes de cobrar: tras una caída a mitad
+  del pago, el intento figura en duda en lugar de quedar libre.
+- Compacto: cada intento ocupa una huella de 64 bits del par (idPedido,
+  clave) en una tabla de direccionamiento abierto de arreglos primitivos, más
+  el id de transacción. La cantidad de entradas en memoria es fija y al
+  llenarse se desaloja la más antigua (los reintentos llegan en minutos, no
+  en semanas).
+- Persistente: cada cambio de estado se anexa a un archivo local (huella +
+  estado + id de transacción + CRC32) en el mismo bloque sincronizado que
+  cambia la memoria, así el archivo guarda los cambios en el mismo orden en
+  que ocurrieron. Solo el force a disco queda fuera del lock, agrupando los
+  concurrentes (group commit, como en 6_16), y termina antes de responder.
+  Al arrancar, el archivo se vuelve a leer actualizando cada entrada en su
+  lugar; cuando crece, se compacta reescribiendo solo las entradas vivas.
+Todas las operaciones del camino del pago son O(1).
+*/
+
+//1. Almacén de Intentos
+// infrastructure/persistence/
+public class AlmacenIdempotencia implements Closeable {
+    private static final long VACIO = 0;
+    // Estado de un intento, tal como se guarda en el archivo
+    private static final byte EN_CURSO = 1;
+    private static final byte COBRADO = 2;
+    private static final byte EN_DUDA = 3;
+    private static final byte LIBERADO = 4;
+
+    private final int maximoEntradas;
+    private final int mascara;
+    // Tabla: huella del intento -> estado e id de transacción (solo si está cobrado)
+    private final long[] huellas;
+    private final byte[] estados;
+    private final String[] transacciones;
+    private final int[] posicionesFifo;
+    // Orden de llegada, para desalojar la entrada más antigua
+    private final long[] fifo;
+    private int cabezaFifo;
+    private int enFifo;
+
+    private final Path archivo;
+    private final Object bloqueoForzado = new Object();
+    // Escritura: protegidos por "this"; el canal solo se reemplaza con ambos locks
+    private FileChannel canal;
+    private volatile long escritos;
+    private long registrosEnArchivo;
+    private boolean compactando;
+    // Durabilidad: protegido por bloqueoForzado
+    private volatile long forzados;
+
+    public AlmacenIdempotencia(Path archivo, int maximoEntradas) throws IOException {
+        if (maximoEntradas < 2) {
+            throw new IllegalArgumentException("El almacén debe admitir al menos 2 entradas");
+        }
+        this.maximoEntradas = maximoEntradas;
+        int capacidad = Integer.highestOneBit(maximoEntradas - 1) << 2; // carga <= 50%
+        this.mascara = capacidad - 1;
+        this.huellas = new long[capacidad];
+        this.estados = new byte[capacidad];
+        this.transacciones = new String[capacidad];
+        this.posicionesFifo = new int[capacidad];
+        this.fifo = new long[maximoEntradas];
+        this.archivo = archivo;
+        long bytesValidos = Files.exists(archivo) ? cargar() : 0;
+        // Lectura también: la compactación copia desde aquí la cola del archivo
+        this.canal = FileChannel.open(archivo, StandardOpenOption.CREATE,
+                                      StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Descarta un registro incompleto que haya dejado una caída
+        canal.truncate(bytesValidos);
+        this.escritos = bytesValidos;
+        this.forzados = bytesValidos;
+    }
+
+    // La reserva llega a disco antes de cobrar: si el proceso cae a mitad del
+    // pago, al reiniciar el intento figura en duda y no se cobra de nuevo
+    public Reserva reservar(String idPedido, String claveCliente) {
+        long huella = huella(idPedido, claveCliente);
+        long fin;
+        synchronized (this) {
+            int posicion = buscar(huella);
+            if (posicion >= 0) {
+                switch (estados[posicion]) {
+                    case COBRADO:
+                        return Reserva.repetida(ResultadoPago.exitoso(transacciones[posicion]));
+                    case EN_DUDA:
+                        return Reserva.EN_DUDA;
+                    default:
+                        return Reserva.EN_CURSO;
+                }
+            }
+            try {
+                fin = anexar(huella, EN_CURSO, null);
+            } catch (IOException e) {
+                throw new UncheckedIOException("No se pudo reservar el pago del pedido " + idPedido, e);
+            }
+            insertar(huella, EN_CURSO, null);
+        }
+        try {
+            forzarHasta(fin);
+        } catch (IOException e) {
+            // No se cobró: el cliente puede reintentar. Si el registro llegó a
+            // disco igual, al reiniciar el intento figura en duda y no se cobra
+            synchronized (this) {
+                quitar(huella);
+            }
+            throw new UncheckedIOException("No se pudo reservar el pago del pedido " + idPedido, e);
+        }
+        return Reserva.NUEVA;
+    }
+
+    // Registra el resultado del intento. Solo un pago que con certeza no se
+    // cobró (rechazado o nunca enviado) libera la clave; uno en duda la retiene
+    // hasta que se resuelva, por ejemplo con la conciliación de 6_15
+    public void completar(String idPedido, String claveCliente, ResultadoPago resultado) {
+        long huella = huella(idPedido, claveCliente);
+        byte estado = resultado.isExitoso() ? COBRADO : resultado.isEnDuda() ? EN_DUDA : LIBERADO;
+        String transaccion = estado == COBRADO ? resultado.getIdTransaccion() : null;
+        try {
+            long fin;
+            synchronized (this) {
+                // Memoria y archivo cambian juntos: otro hilo no puede reservar
+                // la clave liberada antes de que la liberación quede anexada
+                if (estado == LIBERADO) {
+                    quitar(huella);
+                } else {
+                    int posicion = buscar(huella);
+                    if (posicion < 0) {
+                        insertar(huella, estado, transaccion); // se desalojó mientras estaba en curso
+                    } else {
+                        estados[posicion] = estado;
+                        transacciones[posicion] = transaccion;
+                    }
+                }
+                fin = anexar(huella, estado, transaccion);
+            }
+            forzarHasta(fin);
+            compactarSiConviene();
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo registrar el pago del pedido " + idPedido, e);
+        }
+    }
+
+    // El intento terminó antes de llegar al procesador: se puede reintentar
+    public void liberar(String idPedido, String claveCliente) {
+        completar(idPedido, claveCliente, ResultadoPago.fallido("Pago no enviado"));
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (bloqueoForzado) {
+            synchronized (this) {
+                canal.close();
+            }
+        }
+    }
+
+    private int buscar(long huella) {
+        for (int i = indiceIdeal(huella); huellas[i] != VACIO; i = (i + 1) & mascara) {
+            if (huellas[i] == huella) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int insertar(long huella, byte estado, String transaccion) {
+        if (enFifo == maximoEntradas) {
+            desalojarMasAntigua();
+        }
+        int i = indiceIdeal(huella);
+        while (huellas[i] != VACIO) {
+            i = (i + 1) & mascara;
+        }
+        int posicionFifo = (cabezaFifo + enFifo) % maximoEntradas;
+        fifo[posicionFifo] = huella;
+        enFifo++;
+        huellas[i] = huella;
+        estados[i] = estado;
+        transacciones[i] = transaccion;
+        posicionesFifo[i] = posicionFifo;
+        return i;
+    }
+
+    private void desalojarMasAntigua() {
+        int posicion = buscar(fifo[cabezaFifo]);
+        // Si la entrada ya se liberó y volvió a entrar, su posición en la fila es otra
+        if (posicion >= 0 && posicionesFifo[posicion] == cabezaFifo) {
+            borrar(posicion);
+        }
+        cabezaFifo = (cabezaFifo + 1) % maximoEntradas;
+        enFifo--;
+    }
+
+    private void quitar(long huella) {
+        int posicion = buscar(huella);
+        if (posicion >= 0) {
+            borrar(posicion);
+        }
+    }
+
+    // Borrado con desplazamiento hacia atrás: la tabla no necesita lápidas
+    private void borrar(int posicion) {
+        int hueco = posicion;
+        for (int i = (posicion + 1) & mascara; huellas[i] != VACIO; i = (i + 1) & mascara) {
+            int ideal = indiceIdeal(huellas[i]);
+            if (((i - ideal) & mascara) >= ((i - hueco) & mascara)) {
+                huellas[hueco] = huellas[i];
+                estados[hueco] = estados[i];
+                transacciones[hueco] = transacciones[i];
+                posicionesFifo[hueco] = posicionesFifo[i];
+                hueco = i;
+            }
+        }
+        huellas[hueco] = VACIO;
+        estados[hueco] = 0;
+        transacciones[hueco] = null;
+    }
+
+    private int indiceIdeal(long huella) {
+        return (int) (huella ^ (huella >>> 32)) & mascara;
+    }
+
+    // FNV-1a de 64 bits sobre "idPedido \0 clave" con mezcla final
+    static long huella(String idPedido, String claveCliente) {
+        long h = 0xcbf29ce484222325L;
+        String texto = idPedido + '\0' + claveCliente;
+        for (int i = 0; i < texto.length(); i++) {
+            h = (h ^ texto.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == VACIO ? 1 : h;
+    }
+
+    /*
+    Persistencia: huella (long) + estado (byte) + longitud (short) +
+    id de transacción (UTF-8) + CRC32
+    */
+    // Se llama bajo "this", junto con el cambio en memoria, y devuelve hasta
+    // dónde forzar. El force va afuera: los hilos que llegan mientras otro
+    // fuerza comparten el siguiente (group commit)
+    private long anexar(long huella, byte estado, String idTransaccion) throws IOException {
+        ByteBuffer registro = codificar(huella, estado, idTransaccion);
+        long posicion = escritos;
+        while (registro.hasRemaining()) {
+            posicion += canal.write(registro, posicion);
+        }
+        escritos = posicion;
+        registrosEnArchivo++;
+        return posicion;
+    }
+
+    private void forzarHasta(long fin) throws IOException {
+        if (forzados >= fin) {
+            return;
+        }
+        synchronized (bloqueoForzado) {
+            if (forzados >= fin) {
+                return; // otro hilo ya forzó nuestro registro junto con el suyo
+            }
+            long objetivo = escritos;
+            canal.force(false);
+            forzados = objetivo;
+        }
+    }
+
+    private static ByteBuffer codificar(long huella, byte estado, String idTransaccion) {
+        byte[] transaccion = idTransaccion == null ? new byte[0] : idTransaccion.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer registro = ByteBuffer.allocate(8 + 1 + 2 + transaccion.length + 4);
+        registro.putLong(huella).put(estado).putShort((short) transaccion.length).put(transaccion);
+        CRC32 crc = new CRC32();
+        crc.update(registro.array(), 0, registro.position());
+        registro.putInt((int) crc.getValue()).flip();
+        return registro;
+    }
+
+    // Devuelve cuántos bytes válidos tiene el archivo
+    private long cargar() throws IOException {
+        long bytesValidos = 0;
+        try (DataInputStream entrada = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(archivo)))) {
+            while (true) {
+                long huella;
+                byte estado;
+                byte[] transaccion;
+                int crcGuardado;
+                try {
+                    huella = entrada.readLong();
+                    estado = entrada.readByte();
+                    transaccion = new byte[entrada.readUnsignedShort()];
+                    entrada.readFully(transaccion);
+                    crcGuardado = entrada.readInt();
+                } catch (EOFException e) {
+                    return bytesValidos; // fin del archivo o registro truncado
+                }
+                ByteBuffer cuerpo = ByteBuffer.allocate(11 + transaccion.length);
+                cuerpo.putLong(huella).put(estado).putShort((short) transaccion.length).put(transaccion);
+                CRC32 crc = new CRC32();
+                crc.update(cuerpo.array());
+                if ((int) crc.getValue() != crcGuardado || estado < EN_CURSO || estado > LIBERADO) {
+                    return bytesValidos;
+                }
+                // Un registro posterior de la misma huella actualiza la entrada
+                // en su lugar, como completar: sin ocupar otro lugar en la fila
+                // de desalojo. Un intento que quedó en curso cayó a mitad del
+                // pago: en duda
+                int posicion = buscar(huella);
+                if (estado == LIBERADO) {
+                    if (posicion >= 0) {
+                        borrar(posicion);
+                    }
+                } else {
+                    byte recuperado = estado == COBRADO ? COBRADO : EN_DUDA;
+                    String idTransaccion = estado == COBRADO ? new String(transaccion, StandardCharsets.UTF_8) : null;
+                    if (posicion >= 0) {
+                        estados[posicion] = recuperado;
+                        transacciones[posicion] = idTransaccion;
+                    } else {
+                        insertar(huella, recuperado, idTransaccion);
+                    }
+                }
+                registrosEnArchivo++;
+                bytesValidos += 15 + transaccion.length;
+            }
+        }
+    }
+
+    // Reescribe solo las entradas vivas, en orden de llegada. La copia y su
+    // force ocurren sin locks; al final, con ambos locks, se agregan los pocos
+    // registros anexados mientras tanto y se reemplaza el archivo
+    private void compactarSiConviene() throws IOException {
+        long[] huellasVivas;
+        byte[] estadosVivos;
+        String[] transaccionesVivas;
+        int vivas = 0;
+        long corte;
+        long registrosAlCorte;
+        synchronized (this) {
+            if (compactando || registrosEnArchivo <= 2L * maximoEntradas) {
+                return;
+            }
+            compactando = true;
+            huellasVivas = new long[enFifo];
+            estadosVivos = new byte[enFifo];
+            transaccionesVivas = new String[enFifo];
+            for (int k = 0; k < enFifo; k++) {
+                int posicionFifo = (cabezaFifo + k) % maximoEntradas;
+                int posicion = buscar(fifo[posicionFifo]);
+                if (posicion >= 0 && posicionesFifo[posicion] == posicionFifo) {
+                    huellasVivas[vivas] = huellas[posicion];
+                    estadosVivos[vivas] = estados[posicion];
+                    transaccionesVivas[vivas] = transacciones[posicion];
+                    vivas++;
+                }
+            }
+            corte = escritos;
+            registrosAlCorte = registrosEnArchivo;
+        }
+        Path temporal = archivo.resolveSibling(archivo.getFileName() + ".compactando");
+        try {
+            FileChannel nuevo = FileChannel.open(temporal, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                long posicion = 0;
+                for (int k = 0; k < vivas; k++) {
+                    ByteBuffer registro = codificar(huellasVivas[k], estadosVivos[k], transaccionesVivas[k]);
+                    while (registro.hasRemaining()) {
+                        posicion += nuevo.write(registro, posicion);
+                    }
+                }
+                nuevo.force(true);
+                synchronized (bloqueoForzado) {
+                    synchronized (this) {
+                        // Los registros posteriores al corte son más nuevos que la
+                        // copia: al recargar, reemplazan a su entrada
+                        long desde = corte;
+                        while (desde < escritos) {
+                            desde += canal.transferTo(desde, escritos - desde, nuevo.position(posicion + desde - corte));
+                        }
+                        nuevo.force(false);
+                        Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        forzarDirectorio();
+                        canal.close();
+                        canal = nuevo;
+                        escritos = posicion + (escritos - corte);
+                        forzados = escritos;
+                        registrosEnArchivo = vivas + (registrosEnArchivo - registrosAlCorte);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                nuevo.close();
+                throw e;
+            }
+        } finally {
+            synchronized (this) {
+                compactando = false;
+            }
+        }
+    }
+
+    // El reemplazo del archivo (un cambio del directorio) también debe llegar a disco
+    private void forzarDirectorio() throws IOException {
+        try (FileChannel directorio = FileChannel.open(archivo.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            directorio.force(true);
+        }
+    }
+
+    public static final class Reserva {
+        static final Reserva NUEVA = new Reserva(Estado.NUEVA, null);
+        static final Reserva EN_CURSO = new Reserva(Estado.EN_CURSO, null);
+        static final Reserva EN_DUDA = new Reserva(Estado.EN_DUDA, null);
+
+        public enum Estado { NUEVA, EN_CURSO, EN_DUDA, REPETIDA }
+
+        private final Estado estado;
+        private final ResultadoPago resultadoOriginal;
+
+        private Reserva(Estado estado, ResultadoPago resultadoOriginal) {
+            this.estado = estado;
+            this.resultadoOriginal = resultadoOriginal;
+        }
+
+        static Reserva repetida(ResultadoPago resultadoOriginal) {
+            return new Reserva(Estado.REPETIDA, resultadoOriginal);
+        }
+
+        // Getters
+    }
+}
+
+/*
+2. Caso de Uso Idempotente
+Decora a ProcesarPagoUseCase: el flujo de pago no cambia, solo se
+consulta el almacén antes y se registra el resultado después.
+*/
+// application/usecases/
+public class ProcesarPagoIdempotenteUseCase {
+    private final ProcesarPagoUseCase procesarPago;
+    private final AlmacenIdempotencia almacen;
+
+    public ProcesarPagoIdempotenteUseCase(ProcesarPagoUseCase procesarPago, AlmacenIdempotencia almacen) {
+        this.procesarPago = procesarPago;
+        this.almacen = almacen;
+    }
+
+    public ResultadoPago ejecutar(String idPedido, String claveIdempotencia, String medioPago, double monto) {
+        AlmacenIdempotencia.Reserva reserva = almacen.reservar(idPedido, claveIdempotencia);
+        switch (reserva.getEstado()) {
+            case REPETIDA:
+                return reserva.getResultadoOriginal();
+            case EN_CURSO:
+                return ResultadoPago.fallido("Ya hay un pago en curso para el pedido " + idPedido);
+            case EN_DUDA:
+                return ResultadoPago.enDuda(null, "El pago anterior con esta clave está en revisión");
+            default:
+                break;
+        }
+        ResultadoPago resultado;
+        try {
+            resultado = procesarPago.ejecutar(idPedido, medioPago, monto);
+        } catch (PedidoNoEncontradoException e) {
+            almacen.liberar(idPedido, claveIdempotencia); // no se llegó a cobrar
+            throw e;
+        } catch (RuntimeException e) {
+            // No se sabe si llegó a cobrarse: la clave queda retenida
+            almacen.completar(idPedido, claveIdempotencia, ResultadoPago.enDuda(null, e.getMessage()));
+            throw e;
+        }
+        almacen.completar(idPedido, claveIdempotencia, resultado);
+        return resultado;
+    }
+}
+
+//3. Controlador: la clave llega en la cabecera Idempotency-Key
+// interfaces/web/
+@RestController
+@RequestMapping("/api/pagos")
+public class PagoController {
+    private final ProcesarPagoIdempotenteUseCase procesarPagoUseCase;
+
+    public PagoController(ProcesarPagoIdempotenteUseCase procesarPagoUseCase) {
+        this.procesarPagoUseCase = procesarPagoUseCase;
+    }
+
+    @PostMapping
+    public ResponseEntity<ResultadoPagoResponse> procesarPago(
+            @RequestHeader("Idempotency-Key") String claveIdempotencia,
+            @RequestBody ProcesarPagoRequest request) {
+        ResultadoPago resultado = procesarPagoUseCase.ejecutar(
+            request.getPedidoId(),
+            claveIdempotencia,
+            request.getMedioPago(),
+            request.getMonto()
+        );
+
+        return ResponseEntity.ok(ResultadoPagoResponse.from(resultado));
+    }
+}
+
+//4. Prueba: el archivo reproduce la memoria tras una caída, aun con hilos concurrentes
+class AlmacenIdempotenciaTest {
+
+    @Test
+    @DisplayName("Tras una caída debería recordar los cobros, dejar en duda los pagos en curso y liberar los rechazados")
+    void testCaidaYRecuperacion() throws Exception {
+        // Given - un cobro, un pago en curso al caer y uno rechazado
+        Path archivo = Files.createTempDirectory("idempotencia").resolve("intentos.log");
+        AlmacenIdempotencia antes = new AlmacenIdempotencia(archivo, 1000);
+        antes.reservar("p1", "k1");
+        antes.completar("p1", "k1", ResultadoPago.exitoso("tx-1"));
+        antes.reservar("p2", "k2");
+        antes.reservar("p3", "k3");
+        antes.completar("p3", "k3", ResultadoPago.fallido("Tarjeta rechazada"));
+
+        // When - el proceso cae sin cerrar el almacén y a mitad de un registro
+        try (FileChannel cola = FileChannel.open(archivo, StandardOpenOption.APPEND)) {
+            cola.write(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5}));
+        }
+        try (AlmacenIdempotencia despues = new AlmacenIdempotencia(archivo, 1000)) {
+            // Then
+            AlmacenIdempotencia.Reserva cobrado = despues.reservar("p1", "k1");
+            assertEquals(AlmacenIdempotencia.Reserva.Estado.REPETIDA, cobrado.getEstado());
+            assertEquals("tx-1", cobrado.getResultadoOriginal().getIdTransaccion());
+            assertEquals(AlmacenIdempotencia.Reserva.Estado.EN_DUDA, despues.reservar("p2", "k2").getEstado());
+            assertEquals(AlmacenIdempotencia.Reserva.Estado.NUEVA, despues.reservar("p3", "k3").getEstado());
+        } finally {
+            antes.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Al reabrir no debería desalojar claves vivas aunque el archivo tenga más registros que entradas")
+    void testRecargaNoDesalojaClavesVivas() throws Exception {
+        // Given - 4 cobros en un almacén de 4 entradas: 8 registros, sin compactar
+        Path archivo = Files.createTempDirectory("idempotencia").resolve("intentos.log");
+        try (AlmacenIdempotencia almacen = new AlmacenIdempotencia(archivo, 4)) {
+            for (int i = 0; i < 4; i++) {
+                almacen.reservar("p" + i, "k");
+                almacen.completar("p" + i, "k", ResultadoPago.exitoso("tx-" + i));
+            }
+        }
+
+        // When
+        try (AlmacenIdempotencia reabierto = new AlmacenIdempotencia(archivo, 4)) {
+            // Then - los 4 cobros siguen recordados
+            for (int i = 0; i < 4; i++) {
+                assertEquals(AlmacenIdempotencia.Reserva.Estado.REPETIDA, reabierto.reservar("p" + i, "k").getEstado());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Con reservas y liberaciones concurrentes debería cobrar cada clave una vez y recargar el mismo estado")
+    void testConcurrenciaYRecarga() throws Exception {
+        // Given - 8 hilos compiten por 16 claves; de cada reserva ganada, una de cada diez cobra
+        Path archivo = Files.createTempDirectory("idempotencia").resolve("intentos.log");
+        AtomicIntegerArray cobros = new AtomicIntegerArray(16);
+        AtomicInteger reservasPerdidas = new AtomicInteger();
+        try (AlmacenIdempotencia almacen = new AlmacenIdempotencia(archivo, 1000)) {
+            ExecutorService hilos = Executors.newFixedThreadPool(8);
+            List<Future<Void>> tareas = new ArrayList<>();
+            for (int h = 0; h < 8; h++) {
+                tareas.add(hilos.submit(() -> {
+                    ThreadLocalRandom azar = ThreadLocalRandom.current();
+                    for (int i = 0; i < 2000; i++) {
+                        int clave = azar.nextInt(16);
+                        if (almacen.reservar("p" + clave, "k").getEstado() != AlmacenIdempotencia.Reserva.Estado.NUEVA) {
+                            continue;
+                        }
+                        // Una caída en este momento (copia del archivo tal como está)
+                        // debe recordar la reserva: si la clave quedara libre, un
+                        // reintento cobraría mientras este pago sigue en curso
+                        if (azar.nextInt(20) == 0) {
+                            Path caida = archivo.resolveSibling("caida-" + Thread.currentThread().getId() + ".log");
+                            Files.copy(archivo, caida, StandardCopyOption.REPLACE_EXISTING);
+                            try (AlmacenIdempotencia recuperado = new AlmacenIdempotencia(caida, 1000)) {
+                                if (recuperado.reservar("p" + clave, "k").getEstado() == AlmacenIdempotencia.Reserva.Estado.NUEVA) {
+                                    reservasPerdidas.incrementAndGet();
+                                }
+                            }
+                        }
+                        if (azar.nextInt(10) == 0) {
+                            cobros.incrementAndGet(clave);
+                            almacen.completar("p" + clave, "k", ResultadoPago.exitoso("tx-" + clave));
+                        } else {
+                            almacen.liberar("p" + clave, "k");
+                        }
+                    }
+                    return null;
+                }));
+            }
+            hilos.shutdown();
+            assertTrue(hilos.awaitTermination(60, TimeUnit.SECONDS));
+            for (Future<Void> tarea : tareas) {
+                tarea.get(); // propaga el error de un hilo
+            }
+        }
+        assertEquals(0, reservasPerdidas.get());
+
+        // When
+        try (AlmacenIdempotencia reabierto = new AlmacenIdempotencia(archivo, 1000)) {
+            // Then - ninguna clave cobrada dos veces, y ninguna libre quedó retenida al recargar
+            for (int clave = 0; clave < 16; clave++) {
+                assertTrue(cobros.get(clave) <= 1);
+                AlmacenIdempotencia.Reserva.Estado esperado = cobros.get(clave) == 1
+                    ? AlmacenIdempotencia.Reserva.Estado.REPETIDA
+                    : AlmacenIdempotencia.Reserva.Estado.NUEVA;
+                assertEquals(esperado, reabierto.reservar("p" + clave, "k").getEstado());
+            }
+        }
+    }
+}
+
+//Configuración
+// infrastructure/config/
+@Configuration
+public class IdempotenciaConfig {
+
+    @Bean(destroyMethod = "close")
+    public AlmacenIdempotencia almacenIdempotencia() throws IOException {
+        return new AlmacenIdempotencia(
+            Paths.get("/datos/pagos/idempotencia.log"),
+            1_000_000                 // intentos recordados en memoria
+        );
+    }
+
+    @Bean
+    public ProcesarPagoIdempotenteUseCase procesarPagoIdempotenteUseCase(ProcesarPagoUseCase procesarPagoUseCase,
+                                                                         AlmacenIdempotencia almacen) {
+        return new ProcesarPagoIdempotenteUseCase(procesarPagoUseCase, almacen);
+    }
+}
@@ -0,0 +1,565 @@
+/*
+Conciliación de Pagos en Flujo (Ordenamiento Externo + Merge-Join)
+
+Problema: al cierre del día se concilian los Pago del sistema (buscados uno
+a uno con PagoRepository.buscarPorPedido) contra el archivo de liquidación
+del procesador, y hoy ambos lados se cargan completos en memoria.
+
+Solución: un motor de conciliación que nunca tiene más de un bloque fijo de
+registros en memoria, sin importar el tamaño de los archivos.
+- Cada lado se ordena por idPedido con ordenamiento externo: se leen
+  bloques de N registros, se ordenan en memoria y se vuelcan a disco como
+  tramos ordenados; luego los tramos se mezclan (k vías, con una cola de
+  prioridad que solo guarda la cabeza de cada tramo). Si hay más tramos que
+  el máximo por mezcla, se mezclan por grupos en varias pasadas.
+- Los dos lados ordenados se recorren a la par (merge-join), una sola vez,
+  pedido por pedido. Dentro de un pedido (puede tener varios pagos) primero
+  se emparejan los montos iguales -> CONCILIADO; lo que sobra se empareja en
+  orden -> MONTO_DISTINTO; el resto solo está en el sistema ->
+  FALTA_EN_PROCESADOR, o solo en la liquidación -> FALTA_EN_SISTEMA.
+  Ejemplo: sistema A:50 y A:100, liquidación A:100 -> CONCILIADO(100) +
+  FALTA_EN_PROCESADOR(50). En memoria solo están los pagos de un pedido.
+- Los montos se comparan en centavos (long), nunca en double.
+- Los pagos del sistema se recorren con un cursor (PagoRepository.recorrerPorFecha)
+  en lugar de buscarse pedido por pedido.
+*/
+
+//1. Movimiento a Conciliar
+// infrastructure/batch/
+public final class MovimientoPago {
+    // Con el monto como segundo criterio, los pagos repetidos de un mismo
+    // pedido se emparejan en el mismo orden en ambos lados
+    public static final Comparator<MovimientoPago> POR_PEDIDO =
+        Comparator.comparing(MovimientoPago::getIdPedido)
+                  .thenComparingLong(MovimientoPago::getMontoCentavos);
+
+    private final String idPedido;
+    private final long montoCentavos;
+    private final String referencia;
+
+    public MovimientoPago(String idPedido, long montoCentavos, String referencia) {
+        if (idPedido == null || idPedido.isEmpty()) {
+            throw new IllegalArgumentException("El movimiento debe tener un pedido");
+        }
+        this.idPedido = idPedido;
+        this.montoCentavos = montoCentavos;
+        this.referencia = referencia == null ? "" : referencia;
+    }
+
+    public static MovimientoPago desde(Pago pago) {
+        return new MovimientoPago(pago.getIdPedido(), Math.round(pago.getMonto() * 100), pago.getId());
+    }
+
+    void escribir(DataOutput salida) throws IOException {
+        salida.writeUTF(idPedido);
+        salida.writeLong(montoCentavos);
+        salida.writeUTF(referencia);
+    }
+
+    static MovimientoPago leer(DataInput entrada) throws IOException {
+        return new MovimientoPago(entrada.readUTF(), entrada.readLong(), entrada.readUTF());
+    }
+
+    public String getIdPedido() {
+        return idPedido;
+    }
+
+    public long getMontoCentavos() {
+        return montoCentavos;
+    }
+
+    public String getReferencia() {
+        return referencia;
+    }
+}
+
+//2. Ordenamiento Externo
+// infrastructure/batch/
+public class OrdenadorExterno implements Closeable {
+    private static final int TAMANO_BUFFER = 64 * 1024;
+
+    private final Path directorio;
+    private final int registrosPorTramo;
+    private final int tramosPorMezcla;
+    private final List<Path> temporales = new ArrayList<>();
+    private final List<MezclaTramos> mezclasAbiertas = new ArrayList<>();
+
+    public OrdenadorExterno(Path directorio, int registrosPorTramo, int tramosPorMezcla) {
+        if (registrosPorTramo <= 0) {
+            throw new IllegalArgumentException("Cada tramo debe tener al menos un registro");
+        }
+        if (tramosPorMezcla < 2) {
+            throw new IllegalArgumentException("Cada mezcla debe combinar al menos dos tramos");
+        }
+        this.directorio = directorio;
+        this.registrosPorTramo = registrosPorTramo;
+        this.tramosPorMezcla = tramosPorMezcla;
+    }
+
+    // Devuelve la entrada ordenada; los archivos temporales viven hasta close()
+    public Iterator<MovimientoPago> ordenar(Iterator<MovimientoPago> entrada) throws IOException {
+        List<Path> tramos = new ArrayList<>();
+        List<MovimientoPago> bloque = new ArrayList<>();
+        while (entrada.hasNext()) {
+            bloque.add(entrada.next());
+            if (bloque.size() == registrosPorTramo) {
+                tramos.add(volcar(bloque));
+                bloque.clear();
+            }
+        }
+        if (tramos.isEmpty()) {
+            // Todo entró en un bloque: no hace falta tocar el disco
+            bloque.sort(MovimientoPago.POR_PEDIDO);
+            return bloque.iterator();
+        }
+        if (!bloque.isEmpty()) {
+            tramos.add(volcar(bloque));
+        }
+        bloque = null;
+
+        while (tramos.size() > tramosPorMezcla) {
+            List<Path> siguientes = new ArrayList<>();
+            for (int i = 0; i < tramos.size(); i += tramosPorMezcla) {
+                List<Path> grupo = tramos.subList(i, Math.min(i + tramosPorMezcla, tramos.size()));
+                Path mezclado = nuevoTemporal();
+                try (MezclaTramos mezcla = new MezclaTramos(grupo);
+                     DataOutputStream salida = abrirSalida(mezclado)) {
+                    while (mezcla.hasNext()) {
+                        mezcla.next().escribir(salida);
+                    }
+                }
+                for (Path tramo : grupo) {
+                    Files.deleteIfExists(tramo);
+                }
+                siguientes.add(mezclado);
+            }
+            tramos = siguientes;
+        }
+
+        MezclaTramos mezcla = new MezclaTramos(tramos);
+        mezclasAbiertas.add(mezcla);
+        return mezcla;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (MezclaTramos mezcla : mezclasAbiertas) {
+            mezcla.close();
+        }
+        mezclasAbiertas.clear();
+        for (Path temporal : temporales) {
+            Files.deleteIfExists(temporal);
+        }
+        temporales.clear();
+    }
+
+    private Path volcar(List<MovimientoPago> bloque) throws IOException {
+        bloque.sort(MovimientoPago.POR_PEDIDO);
+        Path tramo = nuevoTemporal();
+        try (DataOutputStream salida = abrirSalida(tramo)) {
+            for (MovimientoPago movimiento : bloque) {
+                movimiento.escribir(salida);
+            }
+        }
+        return tramo;
+    }
+
+    private Path nuevoTemporal() throws IOException {
+        Path temporal = Files.createTempFile(directorio, "conciliacion-", ".tramo");
+        temporales.add(temporal);
+        return temporal;
+    }
+
+    private static DataOutputStream abrirSalida(Path archivo) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(archivo), TAMANO_BUFFER));
+    }
+
+    // Mezcla k tramos ordenados: en memoria solo la cabeza de cada uno
+    private static final class MezclaTramos implements Iterator<MovimientoPago>, Closeable {
+        private final PriorityQueue<LectorTramo> cabezas =
+            new PriorityQueue<>((a, b) -> MovimientoPago.POR_PEDIDO.compare(a.actual, b.actual));
+        private final List<LectorTramo> lectores = new ArrayList<>();
+
+        MezclaTramos(List<Path> tramos) throws IOException {
+            try {
+                for (Path tramo : tramos) {
+                    LectorTramo lector = new LectorTramo(tramo);
+                    lectores.add(lector);
+                    if (lector.avanzar()) {
+                        cabezas.add(lector);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !cabezas.isEmpty();
+        }
+
+        @Override
+        public MovimientoPago next() {
+            LectorTramo lector = cabezas.poll();
+            if (lector == null) {
+                throw new NoSuchElementException();
+            }
+            MovimientoPago movimiento = lector.actual;
+            try {
+                if (lector.avanzar()) {
+                    cabezas.add(lector);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return movimiento;
+        }
+
+        @Override
+        public void close() throws IOException {
+            cabezas.clear();
+            for (LectorTramo lector : lectores) {
+                lector.entrada.close();
+            }
+            lectores.clear();
+        }
+    }
+
+    private static final class LectorTramo {
+        private final DataInputStream entrada;
+        private MovimientoPago actual;
+
+        LectorTramo(Path tramo) throws IOException {
+            this.entrada = new DataInputStream(new BufferedInputStream(Files.newInputStream(tramo), TAMANO_BUFFER));
+        }
+
+        boolean avanzar() throws IOException {
+            try {
+                actual = MovimientoPago.leer(entrada);
+                return true;
+            } catch (EOFException e) {
+                actual = null;
+                return false;
+            }
+        }
+    }
+}
+
+//3. Resultado y Resumen
+// infrastructure/batch/
+public final class ResultadoConciliacion {
+    public enum Tipo { CONCILIADO, MONTO_DISTINTO, FALTA_EN_PROCESADOR, FALTA_EN_SISTEMA }
+
+    private final Tipo tipo;
+    private final MovimientoPago delSistema;   // null si FALTA_EN_SISTEMA
+    private final MovimientoPago liquidado;    // null si FALTA_EN_PROCESADOR
+
+    ResultadoConciliacion(Tipo tipo, MovimientoPago delSistema, MovimientoPago liquidado) {
+        this.tipo = tipo;
+        this.delSistema = delSistema;
+        this.liquidado = liquidado;
+    }
+
+    public String getIdPedido() {
+        return delSistema != null ? delSistema.getIdPedido() : liquidado.getIdPedido();
+    }
+
+    public Tipo getTipo() {
+        return tipo;
+    }
+
+    public MovimientoPago getDelSistema() {
+        return delSistema;
+    }
+
+    public MovimientoPago getLiquidado() {
+        return liquidado;
+    }
+}
+
+// infrastructure/batch/
+public final class ResumenConciliacion {
+    private final long[] cantidades = new long[ResultadoConciliacion.Tipo.values().length];
+
+    void registrar(ResultadoConciliacion.Tipo tipo) {
+        cantidades[tipo.ordinal()]++;
+    }
+
+    public long getCantidad(ResultadoConciliacion.Tipo tipo) {
+        return cantidades[tipo.ordinal()];
+    }
+
+    public long getDiferencias() {
+        long total = 0;
+        for (ResultadoConciliacion.Tipo tipo : ResultadoConciliacion.Tipo.values()) {
+            if (tipo != ResultadoConciliacion.Tipo.CONCILIADO) {
+                total += cantidades[tipo.ordinal()];
+            }
+        }
+        return total;
+    }
+}
+
+//4. Motor de Conciliación
+// infrastructure/batch/
+public class ConciliadorPagos {
+    private final Path directorioTemporal;
+    private final int registrosPorTramo;
+    private final int tramosPorMezcla;
+
+    public ConciliadorPagos(Path directorioTemporal, int registrosPorTramo, int tramosPorMezcla) {
+        this.directorioTemporal = directorioTemporal;
+        this.registrosPorTramo = registrosPorTramo;
+        this.tramosPorMezcla = tramosPorMezcla;
+    }
+
+    // Las entradas pueden venir en cualquier orden; cada resultado se entrega a "salida"
+    public ResumenConciliacion conciliar(Iterator<MovimientoPago> delSistema,
+                                         Iterator<MovimientoPago> liquidados,
+                                         Consumer<ResultadoConciliacion> salida) throws IOException {
+        ResumenConciliacion resumen = new ResumenConciliacion();
+        try (OrdenadorExterno ordenador =
+                 new OrdenadorExterno(directorioTemporal, registrosPorTramo, tramosPorMezcla)) {
+            Iterator<MovimientoPago> sistema = ordenador.ordenar(delSistema);
+            Iterator<MovimientoPago> procesador = ordenador.ordenar(liquidados);
+
+            Consumer<ResultadoConciliacion> registrar = resultado -> {
+                resumen.registrar(resultado.getTipo());
+                salida.accept(resultado);
+            };
+            List<MovimientoPago> nuestros = new ArrayList<>();
+            List<MovimientoPago> suyos = new ArrayList<>();
+            MovimientoPago nuestro = siguiente(sistema);
+            MovimientoPago suyo = siguiente(procesador);
+            while (nuestro != null || suyo != null) {
+                String idPedido = nuestro == null ? suyo.getIdPedido()
+                                : suyo == null ? nuestro.getIdPedido()
+                                : nuestro.getIdPedido().compareTo(suyo.getIdPedido()) <= 0
+                                    ? nuestro.getIdPedido() : suyo.getIdPedido();
+                // Los movimientos del pedido en cada lado, ya ordenados por monto
+                nuestros.clear();
+                while (nuestro != null && nuestro.getIdPedido().equals(idPedido)) {
+                    nuestros.add(nuestro);
+                    nuestro = siguiente(sistema);
+                }
+                suyos.clear();
+                while (suyo != null && suyo.getIdPedido().equals(idPedido)) {
+                    suyos.add(suyo);
+                    suyo = siguiente(procesador);
+                }
+                conciliarPedido(nuestros, suyos, registrar);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return resumen;
+    }
+
+    // Primero los montos iguales (ambas listas vienen ordenadas por monto);
+    // los sobrantes se emparejan en orden y el resto falta del otro lado
+    private static void conciliarPedido(List<MovimientoPago> nuestros, List<MovimientoPago> suyos,
+                                        Consumer<ResultadoConciliacion> salida) {
+        List<MovimientoPago> sobranNuestros = new ArrayList<>();
+        List<MovimientoPago> sobranSuyos = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < nuestros.size() && j < suyos.size()) {
+            long nuestroMonto = nuestros.get(i).getMontoCentavos();
+            long suyoMonto = suyos.get(j).getMontoCentavos();
+            if (nuestroMonto == suyoMonto) {
+                salida.accept(new ResultadoConciliacion(
+                    ResultadoConciliacion.Tipo.CONCILIADO, nuestros.get(i++), suyos.get(j++)));
+            } else if (nuestroMonto < suyoMonto) {
+                sobranNuestros.add(nuestros.get(i++));
+            } else {
+                sobranSuyos.add(suyos.get(j++));
+            }
+        }
+        sobranNuestros.addAll(nuestros.subList(i, nuestros.size()));
+        sobranSuyos.addAll(suyos.subList(j, suyos.size()));
+
+        int pares = Math.min(sobranNuestros.size(), sobranSuyos.size());
+        for (int k = 0; k < pares; k++) {
+            salida.accept(new ResultadoConciliacion(
+                ResultadoConciliacion.Tipo.MONTO_DISTINTO, sobranNuestros.get(k), sobranSuyos.get(k)));
+        }
+        for (int k = pares; k < sobranNuestros.size(); k++) {
+            salida.accept(new ResultadoConciliacion(
+                ResultadoConciliacion.Tipo.FALTA_EN_PROCESADOR, sobranNuestros.get(k), null));
+        }
+        for (int k = pares; k < sobranSuyos.size(); k++) {
+            salida.accept(new ResultadoConciliacion(
+                ResultadoConciliacion.Tipo.FALTA_EN_SISTEMA, null, sobranSuyos.get(k)));
+        }
+    }
+
+    private static MovimientoPago siguiente(Iterator<MovimientoPago> movimientos) {
+        return movimientos.hasNext() ? movimientos.next() : null;
+    }
+}
+
+//5. Lector del Archivo de Liquidación
+// infrastructure/external/
+public final class LectorLiquidacion {
+    // Formato: encabezado + filas "id_pedido,id_transaccion,monto" (monto con punto decimal)
+    // Se lee línea a línea: cerrar el Stream cierra el archivo
+    public static Stream<MovimientoPago> leer(Path archivo) throws IOException {
+        return Files.lines(archivo, StandardCharsets.UTF_8)
+            .skip(1)
+            .filter(linea -> !linea.isBlank())
+            .map(LectorLiquidacion::interpretar);
+    }
+
+    private static MovimientoPago interpretar(String linea) {
+        String[] campos = linea.split(",", -1);
+        if (campos.length != 3) {
+            throw new IllegalArgumentException("Fila de liquidación mal formada: " + linea);
+        }
+        long centavos = new BigDecimal(campos[2].trim()).movePointRight(2).longValueExact();
+        return new MovimientoPago(campos[0].trim(), centavos, campos[1].trim());
+    }
+
+    private LectorLiquidacion() {
+    }
+}
+
+//6. Puerto: recorrer los pagos del día con un cursor
+// domain/repositories/ (agregado a PagoRepository, ver 6_1)
+//   Stream<Pago> recorrerPorFecha(LocalDate fecha);
+
+// infrastructure/persistence/
+// Implementación JDBC: queryForStream con fetchSize, las filas llegan por partes
+//   jdbcTemplate.setFetchSize(1_000);
+//   return jdbcTemplate.queryForStream(
+//       "SELECT id, id_pedido, monto, medio_pago FROM pagos WHERE fecha = ?",
+//       (fila, i) -> Pago.reconstruir(fila.getString(1), fila.getString(2),
+//                                     fila.getDouble(3), fila.getString(4)),
+//       fecha);
+
+//7. Uso: conciliación diaria
+// infrastructure/batch/
+@Component
+public class ConciliacionDiaria {
+    private final PagoRepository pagoRepository;
+
+    public ConciliacionDiaria(PagoRepository pagoRepository) {
+        this.pagoRepository = pagoRepository;
+    }
+
+    @Scheduled(cron = "0 30 2 * * *")
+    public void ejecutar() throws IOException {
+        LocalDate ayer = LocalDate.now().minusDays(1);
+        Path liquidacion = Paths.get("/datos/liquidaciones/liquidacion-" + ayer + ".csv");
+        Path reporte = Paths.get("/datos/conciliaciones/conciliacion-" + ayer + ".csv");
+        ConciliadorPagos conciliador = new ConciliadorPagos(
+            Paths.get("/datos/tmp"),
+            500_000,   // registros por tramo en memoria
+            64         // tramos combinados por mezcla
+        );
+
+        try (Stream<Pago> pagos = pagoRepository.recorrerPorFecha(ayer);
+             Stream<MovimientoPago> liquidados = LectorLiquidacion.leer(liquidacion);
+             BufferedWriter salida = Files.newBufferedWriter(reporte, StandardCharsets.UTF_8)) {
+            salida.write("tipo,id_pedido,monto_sistema,monto_procesador");
+            salida.newLine();
+            conciliador.conciliar(
+                pagos.map(MovimientoPago::desde).iterator(),
+                liquidados.iterator(),
+                resultado -> escribir(salida, resultado));
+        }
+    }
+
+    private static void escribir(BufferedWriter salida, ResultadoConciliacion resultado) {
+        try {
+            salida.write(resultado.getTipo() + "," + resultado.getIdPedido() + ","
+                + centavos(resultado.getDelSistema()) + "," + centavos(resultado.getLiquidado()));
+            salida.newLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String centavos(MovimientoPago movimiento) {
+        return movimiento == null ? "" : BigDecimal.valueOf(movimiento.getMontoCentavos(), 2).toPlainString();
+    }
+}
+
+//8. Prueba: varias pasadas de mezcla con pocos registros en memoria
+class ConciliadorPagosTest {
+
+    @Test
+    @DisplayName("Debería clasificar cada pedido igual que una conciliación en memoria")
+    void testConciliacion_ConTramosPequenos() throws IOException {
+        // Given - 5000 pagos desordenados; tramos de 100 y mezclas de 4 fuerzan varias pasadas
+        Random azar = new Random(42);
+        List<MovimientoPago> sistema = new ArrayList<>();
+        List<MovimientoPago> procesador = new ArrayList<>();
+        long[] esperados = new long[ResultadoConciliacion.Tipo.values().length];
+        for (int i = 0; i < 5000; i++) {
+            String idPedido = "pedido-" + i;
+            long monto = 100 + azar.nextInt(10_000);
+            ResultadoConciliacion.Tipo tipo = ResultadoConciliacion.Tipo.values()[azar.nextInt(4)];
+            esperados[tipo.ordinal()]++;
+            if (tipo != ResultadoConciliacion.Tipo.FALTA_EN_SISTEMA) {
+                sistema.add(new MovimientoPago(idPedido, monto, "pago-" + i));
+            }
+            if (tipo != ResultadoConciliacion.Tipo.FALTA_EN_PROCESADOR) {
+                long liquidado = tipo == ResultadoConciliacion.Tipo.MONTO_DISTINTO ? monto + 1 : monto;
+                procesador.add(new MovimientoPago(idPedido, liquidado, "tx-" + i));
+            }
+        }
+        Collections.shuffle(sistema, azar);
+        Collections.shuffle(procesador, azar);
+        Path directorio = Files.createTempDirectory("conciliacion");
+        List<ResultadoConciliacion> resultados = new ArrayList<>();
+
+        // When
+        ResumenConciliacion resumen = new ConciliadorPagos(directorio, 100, 4)
+            .conciliar(sistema.iterator(), procesador.iterator(), resultados::add);
+
+        // Then - cada pedido una vez, en orden, y sin archivos temporales sobrantes
+        assertEquals(5000, resultados.size());
+        for (int i = 1; i < resultados.size(); i++) {
+            assertTrue(resultados.get(i - 1).getIdPedido().compareTo(resultados.get(i).getIdPedido()) < 0);
+        }
+        for (ResultadoConciliacion.Tipo tipo : ResultadoConciliacion.Tipo.values()) {
+            assertEquals(esperados[tipo.ordinal()], resumen.getCantidad(tipo));
+        }
+        try (Stream<Path> sobrantes = Files.list(directorio)) {
+            assertEquals(0, sobrantes.count());
+        }
+    }
+
+    @Test
+    @DisplayName("Con varios pagos por pedido debería emparejar primero los montos iguales")
+    void testConciliacion_PedidosRepetidos() throws IOException {
+        // Given - montos en centavos; A y B tienen pagos repetidos
+        List<MovimientoPago> sistema = List.of(
+            new MovimientoPago("A", 100, "pago-1"), new MovimientoPago("A", 50, "pago-2"),
+            new MovimientoPago("B", 10, "pago-3"), new MovimientoPago("B", 10, "pago-4"),
+            new MovimientoPago("C", 70, "pago-5"));
+        List<MovimientoPago> procesador = List.of(
+            new MovimientoPago("D", 5, "tx-4"), new MovimientoPago("C", 80, "tx-3"),
+            new MovimientoPago("B", 10, "tx-2"), new MovimientoPago("A", 100, "tx-1"));
+        List<ResultadoConciliacion> resultados = new ArrayList<>();
+
+        // When - tramos de 2 registros: los repetidos quedan en tramos distintos
+        ResumenConciliacion resumen = new ConciliadorPagos(Files.createTempDirectory("conciliacion"), 2, 2)
+            .conciliar(sistema.iterator(), procesador.iterator(), resultados::add);
+
+        // Then
+        List<String> obtenidos = resultados.stream()
+            .map(r -> r.getTipo() + ":" + r.getIdPedido() + ":"
+                + (r.getDelSistema() != null ? r.getDelSistema() : r.getLiquidado()).getMontoCentavos())
+            .collect(Collectors.toList());
+        assertEquals(List.of(
+            "CONCILIADO:A:100", "FALTA_EN_PROCESADOR:A:50",
+            "CONCILIADO:B:10", "FALTA_EN_PROCESADOR:B:10",
+            "MONTO_DISTINTO:C:70",
+            "FALTA_EN_SISTEMA:D:5"), obtenidos);
+        assertEquals(2, resumen.getCantidad(ResultadoConciliacion.Tipo.CONCILIADO));
+        assertEquals(4, resumen.getDiferencias());
+    }
+}
@@ -0,0 +1,785 @@
+/*
+Bandeja de Salida (Outbox) para los Efectos de un Pago
+
+Problema: en ProcesarPagoUseCase guardar el Pago, confirmar el Pedido y avisar
+a los demás sistemas son pasos separados. Si el proceso cae entre uno y otro
+queda un pago cobrado sin pedido confirmado, o un pedido confirmado del que
+nadie se enteró.
+
+Solución: el caso de uso ya no aplica los efectos; los registra.
+- Un pago aprobado produce UN registro (PagoConfirmado) en un archivo local
+  de solo anexar. El registro lleva todo lo necesario para los tres efectos,
+  así que el cambio de estado y sus efectos se guardan de forma atómica: o
+  está el registro completo (CRC32 válido) o no está.
+- Se fuerza a disco antes de responder, con escritura agrupada (group
+  commit): las solicitudes concurrentes comparten un mismo force.
+- Un despachador en su propio hilo lee la bandeja por lotes, aplica los
+  efectos (repositorios y notificación, en un viaje por lote) y recién
+  entonces avanza un cursor persistido. La latencia de los sistemas de
+  abajo sale del camino de la solicitud.
+- Entrega al menos una vez: si el despachador o el proceso caen antes de
+  guardar el cursor, el lote se vuelve a entregar. Por eso los manejadores
+  deben ser idempotentes (guardar por id, confirmar solo si está pendiente,
+  los consumidores de eventos descartan por idPago).
+- Solo se despacha lo que ya está forzado a disco: un efecto nunca se aplica
+  por un registro que una caída podría borrar.
+- Mensaje venenoso: si un lote falla, se entrega mensaje por mensaje para
+  aislar al que falla; los anteriores avanzan el cursor. El que falla se
+  reintenta hasta un máximo y luego se aparta a una bandeja de aparcados
+  (durable, sin despachador) para revisarlo a mano.
+- Cuando el despachador alcanza el final y el archivo superó un umbral, el
+  archivo se vacía y el cursor vuelve a cero, ya forzado a disco antes de
+  admitir nuevas escrituras.
+*/
+
+//1. Bandeja de Salida (registro durable)
+// infrastructure/outbox/
+public class BandejaSalida implements Closeable {
+    private static final int ENCABEZADO = 8; // largo del cuerpo (int) + CRC32 (int)
+
+    private final Path archivoCursor;
+    private final long umbralVaciado;
+    private final FileChannel canal;
+    private final Object bloqueoForzado = new Object();
+
+    // Escritura: protegidos por "this"
+    private long ultimaSecuencia;
+    private volatile long escritos;
+    // Durabilidad: protegido por bloqueoForzado
+    private volatile long forzados;
+    // Lectura: solo los usa el hilo despachador
+    private long cursor;
+    private ByteBuffer lectura = ByteBuffer.allocate(1 << 20);
+
+    private volatile Runnable alRegistrar = () -> { };
+
+    public BandejaSalida(Path archivo, long umbralVaciado) throws IOException {
+        this.archivoCursor = archivo.resolveSibling(archivo.getFileName() + ".cursor");
+        this.umbralVaciado = umbralVaciado;
+        long bytesValidos = Files.exists(archivo) ? recuperar(archivo) : 0;
+        this.canal = FileChannel.open(archivo, StandardOpenOption.CREATE,
+                                      StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Descarta un registro incompleto que haya dejado una caída
+        canal.truncate(bytesValidos);
+        this.escritos = bytesValidos;
+        this.forzados = bytesValidos;
+        leerCursor();
+        // Un cursor más allá del final: la caída ocurrió entre vaciar el archivo y guardar el cursor
+        if (cursor > bytesValidos) {
+            cursor = 0;
+        }
+    }
+
+    // Vuelve cuando el registro está en disco; devuelve su número de secuencia
+    public long registrar(String tipo, byte[] contenido) throws IOException {
+        long secuencia;
+        long fin;
+        synchronized (this) {
+            secuencia = ++ultimaSecuencia;
+            ByteBuffer registro = codificar(secuencia, tipo, contenido);
+            long posicion = escritos;
+            while (registro.hasRemaining()) {
+                posicion += canal.write(registro, posicion);
+            }
+            escritos = posicion;
+            fin = posicion;
+        }
+        forzarHasta(fin);
+        alRegistrar.run();
+        return secuencia;
+    }
+
+    // El despachador se entera de cada registro nuevo sin sondear el archivo
+    void alRegistrar(Runnable aviso) {
+        this.alRegistrar = aviso;
+    }
+
+    // Hasta "maximo" mensajes desde el cursor, solo entre los ya forzados a disco
+    List<MensajeSalida> leerPendientes(int maximo) throws IOException {
+        List<MensajeSalida> mensajes = new ArrayList<>();
+        long posicion = cursor;
+        long limite = forzados;
+        while (posicion < limite && mensajes.size() < maximo) {
+            lectura.clear();
+            lectura.limit((int) Math.min(lectura.capacity(), limite - posicion));
+            while (lectura.hasRemaining()) {
+                if (canal.read(lectura, posicion + lectura.position()) < 0) {
+                    throw new EOFException("La bandeja terminó antes de lo registrado");
+                }
+            }
+            lectura.flip();
+            int leidosAntes = mensajes.size();
+            while (mensajes.size() < maximo && lectura.remaining() >= ENCABEZADO) {
+                int largo = lectura.getInt(lectura.position());
+                if (lectura.remaining() < ENCABEZADO + largo) {
+                    break;
+                }
+                lectura.position(lectura.position() + ENCABEZADO);
+                posicion += ENCABEZADO + largo;
+                mensajes.add(decodificar(lectura, largo, posicion));
+            }
+            if (mensajes.size() == leidosAntes) {
+                // El registro no entra en el búfer de lectura
+                int largo = lectura.getInt(0);
+                lectura = ByteBuffer.allocate(Math.max(lectura.capacity() * 2, ENCABEZADO + largo));
+            }
+        }
+        return mensajes;
+    }
+
+    // El lote hasta "ultimo" (inclusive) ya fue entregado
+    void confirmar(MensajeSalida ultimo) throws IOException {
+        cursor = ultimo.getFin();
+        guardarCursor();
+        if (cursor >= umbralVaciado && cursor == forzados) {
+            vaciarSiEstaAlDia();
+        }
+    }
+
+    public long getPendientesEnBytes() {
+        return forzados - cursor;
+    }
+
+    @Override
+    public void close() throws IOException {
+        canal.close();
+    }
+
+    private void forzarHasta(long fin) throws IOException {
+        if (forzados >= fin) {
+            return;
+        }
+        synchronized (bloqueoForzado) {
+            if (forzados >= fin) {
+                return; // otro hilo ya forzó nuestro registro junto con el suyo
+            }
+            long objetivo = escritos;
+            canal.force(false);
+            forzados = objetivo;
+        }
+    }
+
+    // Orden de bloqueo: bloqueoForzado y luego "this", para no competir con forzarHasta
+    private void vaciarSiEstaAlDia() throws IOException {
+        synchronized (bloqueoForzado) {
+            synchronized (this) {
+                if (escritos != cursor) {
+                    return; // llegaron registros nuevos: se vacía en otra vuelta
+                }
+                canal.truncate(0);
+                canal.force(true);
+                escritos = 0;
+                forzados = 0;
+                cursor = 0;
+                // Antes de soltar los locks: si se escribiera primero y el proceso
+                // cayera, el cursor viejo saltearía los registros nuevos
+                guardarCursor();
+            }
+        }
+    }
+
+    // Cursor: posición (long) + última secuencia (long), reemplazado de forma
+    // atómica y forzado a disco junto con el directorio
+    private void guardarCursor() throws IOException {
+        ByteBuffer datos = ByteBuffer.allocate(16).putLong(cursor).putLong(ultimaSecuencia());
+        datos.flip();
+        Path temporal = archivoCursor.resolveSibling(archivoCursor.getFileName() + ".tmp");
+        try (FileChannel salida = FileChannel.open(temporal, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (datos.hasRemaining()) {
+                salida.write(datos);
+            }
+            salida.force(true);
+        }
+        Files.move(temporal, archivoCursor, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        try (FileChannel directorio = FileChannel.open(archivoCursor.toAbsolutePath().getParent(),
+                                                       StandardOpenOption.READ)) {
+            directorio.force(true);
+        }
+    }
+
+    private void leerCursor() throws IOException {
+        if (!Files.exists(archivoCursor)) {
+            return;
+        }
+        byte[] contenido = Files.readAllBytes(archivoCursor);
+        if (contenido.length < 16) {
+            return; // cursor incompleto: se entrega de nuevo desde el principio
+        }
+        ByteBuffer datos = ByteBuffer.wrap(contenido);
+        cursor = datos.getLong();
+        // Las secuencias siguen creciendo aunque el archivo se haya vaciado
+        ultimaSecuencia = Math.max(ultimaSecuencia, datos.getLong());
+    }
+
+    private synchronized long ultimaSecuencia() {
+        return ultimaSecuencia;
+    }
+
+    // Recorre el archivo validando cada CRC; devuelve cuántos bytes son válidos
+    private long recuperar(Path archivo) throws IOException {
+        long tamano = Files.size(archivo);
+        long bytesValidos = 0;
+        try (DataInputStream entrada = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(archivo)))) {
+            while (true) {
+                byte[] cuerpo;
+                int crcGuardado;
+                try {
+                    int largo = entrada.readInt();
+                    if (largo < 10 || largo > tamano - bytesValidos - ENCABEZADO) {
+                        return bytesValidos; // largo dañado: lo que sigue no es confiable
+                    }
+                    cuerpo = new byte[largo];
+                    crcGuardado = entrada.readInt();
+                    entrada.readFully(cuerpo);
+                } catch (EOFException e) {
+                    return bytesValidos; // fin del archivo o registro truncado
+                }
+                CRC32 crc = new CRC32();
+                crc.update(cuerpo);
+                if ((int) crc.getValue() != crcGuardado) {
+                    return bytesValidos;
+                }
+                ultimaSecuencia = ByteBuffer.wrap(cuerpo).getLong();
+                bytesValidos += ENCABEZADO + cuerpo.length;
+            }
+        }
+    }
+
+    /*
+    Registro: largo del cuerpo (int) + CRC32 del cuerpo (int) +
+    cuerpo = secuencia (long) + largo del tipo (short) + tipo (UTF-8) + contenido
+    */
+    private static ByteBuffer codificar(long secuencia, String tipo, byte[] contenido) {
+        byte[] nombreTipo = tipo.getBytes(StandardCharsets.UTF_8);
+        int largo = 8 + 2 + nombreTipo.length + contenido.length;
+        ByteBuffer registro = ByteBuffer.allocate(ENCABEZADO + largo);
+        registro.putInt(largo).putInt(0)
+                .putLong(secuencia).putShort((short) nombreTipo.length).put(nombreTipo).put(contenido);
+        CRC32 crc = new CRC32();
+        crc.update(registro.array(), ENCABEZADO, largo);
+        registro.putInt(4, (int) crc.getValue());
+        registro.flip();
+        return registro;
+    }
+
+    private static MensajeSalida decodificar(ByteBuffer lectura, int largo, long fin) {
+        int inicio = lectura.position();
+        long secuencia = lectura.getLong();
+        byte[] nombreTipo = new byte[lectura.getShort()];
+        lectura.get(nombreTipo);
+        byte[] contenido = new byte[largo - (lectura.position() - inicio)];
+        lectura.get(contenido);
+        return new MensajeSalida(secuencia, new String(nombreTipo, StandardCharsets.UTF_8), contenido, fin);
+    }
+}
+
+// infrastructure/outbox/
+public final class MensajeSalida {
+    private final long secuencia;
+    private final String tipo;
+    private final byte[] contenido;
+    private final long fin; // posición siguiente al registro en el archivo
+
+    MensajeSalida(long secuencia, String tipo, byte[] contenido, long fin) {
+        this.secuencia = secuencia;
+        this.tipo = tipo;
+        this.contenido = contenido;
+        this.fin = fin;
+    }
+
+    public long getSecuencia() {
+        return secuencia;
+    }
+
+    public String getTipo() {
+        return tipo;
+    }
+
+    public byte[] getContenido() {
+        return contenido;
+    }
+
+    long getFin() {
+        return fin;
+    }
+}
+
+//2. Despachador por Lotes
+// infrastructure/outbox/
+public interface ManejadorSalida {
+    // Debe ser idempotente: un mismo mensaje puede llegar más de una vez
+    void manejar(List<MensajeSalida> mensajes) throws Exception;
+}
+
+// infrastructure/outbox/
+public class DespachadorSalida implements Closeable {
+    private static final long ESPERA_SIN_PENDIENTES = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final BandejaSalida bandeja;
+    private final BandejaSalida aparcados;
+    private final Map<String, ManejadorSalida> manejadores;
+    private final int mensajesPorLote;
+    private final int maximoIntentos;
+    private final long esperaInicialReintento;
+    private final long esperaMaximaReintento;
+    private final Thread hilo;
+    private final LongAdder despachados = new LongAdder();
+    private final LongAdder reintentos = new LongAdder();
+    private final LongAdder apartados = new LongAdder();
+    private volatile boolean activo = true;
+    // Fallos seguidos del mensaje que encabeza la bandeja (solo los usa el hilo)
+    private long secuenciaConFallos = -1;
+    private int fallosSeguidos;
+
+    public DespachadorSalida(BandejaSalida bandeja, BandejaSalida aparcados,
+                             Map<String, ManejadorSalida> manejadores, int mensajesPorLote,
+                             int maximoIntentos, Duration esperaInicialReintento,
+                             Duration esperaMaximaReintento) {
+        if (mensajesPorLote <= 0 || maximoIntentos <= 0) {
+            throw new IllegalArgumentException("El lote y los intentos deben ser al menos uno");
+        }
+        this.bandeja = bandeja;
+        this.aparcados = aparcados;
+        this.manejadores = Map.copyOf(manejadores);
+        this.mensajesPorLote = mensajesPorLote;
+        this.maximoIntentos = maximoIntentos;
+        this.esperaInicialReintento = esperaInicialReintento.toNanos();
+        this.esperaMaximaReintento = esperaMaximaReintento.toNanos();
+        this.hilo = new Thread(this::despachar, "despachador-salida");
+        this.hilo.setDaemon(true);
+        bandeja.alRegistrar(() -> LockSupport.unpark(hilo));
+        this.hilo.start();
+    }
+
+    public long getDespachados() {
+        return despachados.sum();
+    }
+
+    public long getReintentos() {
+        return reintentos.sum();
+    }
+
+    public long getAparcados() {
+        return apartados.sum();
+    }
+
+    // Lo que quede sin entregar sigue en la bandeja y sale en el próximo arranque
+    @Override
+    public void close() {
+        activo = false;
+        LockSupport.unpark(hilo);
+        try {
+            hilo.join(TimeUnit.NANOSECONDS.toMillis(esperaMaximaReintento) + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void despachar() {
+        long espera = esperaInicialReintento;
+        while (activo) {
+            try {
+                List<MensajeSalida> lote = bandeja.leerPendientes(mensajesPorLote);
+                if (lote.isEmpty()) {
+                    LockSupport.parkNanos(this, ESPERA_SIN_PENDIENTES);
+                    continue;
+                }
+                int resueltos = entregarAislando(lote);
+                if (resueltos > 0) {
+                    bandeja.confirmar(lote.get(resueltos - 1));
+                    despachados.add(resueltos);
+                }
+                if (resueltos == lote.size()) {
+                    espera = esperaInicialReintento;
+                    continue;
+                }
+            } catch (Exception e) {
+                // Falló la bandeja misma (lectura o cursor): se vuelve a intentar
+                reintentos.increment();
+            }
+            // El cursor quedó antes del mensaje que falla: se reintenta desde ahí
+            dormir(espera);
+            espera = Math.min(espera * 2, esperaMaximaReintento);
+        }
+    }
+
+    // Primero el lote completo. Si falla, mensaje por mensaje en orden hasta
+    // dar con el que falla solo: los anteriores quedan entregados y él suma un
+    // fallo; al llegar al máximo se aparca y sigue el resto del lote.
+    // Devuelve cuántos mensajes del principio del lote quedaron resueltos
+    private int entregarAislando(List<MensajeSalida> lote) throws IOException {
+        int resueltos = 0;
+        while (resueltos < lote.size()) {
+            if (intentar(lote.subList(resueltos, lote.size()))) {
+                return lote.size();
+            }
+            reintentos.increment();
+            int i = resueltos;
+            while (i < lote.size() && intentar(List.of(lote.get(i)))) {
+                i++;
+            }
+            if (i == lote.size()) {
+                return i; // el fallo del lote no se repitió
+            }
+            MensajeSalida culpable = lote.get(i);
+            if (culpable.getSecuencia() != secuenciaConFallos) {
+                secuenciaConFallos = culpable.getSecuencia();
+                fallosSeguidos = 0;
+            }
+            if (++fallosSeguidos < maximoIntentos) {
+                return i;
+            }
+            aparcar(culpable);
+            resueltos = i + 1;
+        }
+        return resueltos;
+    }
+
+    private boolean intentar(List<MensajeSalida> mensajes) {
+        try {
+            entregar(mensajes);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    // Queda en la bandeja de aparcados, durable, para revisarlo y volver a registrarlo
+    private void aparcar(MensajeSalida mensaje) throws IOException {
+        aparcados.registrar(mensaje.getTipo(), mensaje.getContenido());
+        apartados.increment();
+        secuenciaConFallos = -1;
+        fallosSeguidos = 0;
+    }
+
+    // Un llamado por tipo de mensaje; dentro de cada tipo se respeta el orden de registro
+    private void entregar(List<MensajeSalida> lote) throws Exception {
+        Map<String, List<MensajeSalida>> porTipo = new LinkedHashMap<>();
+        for (MensajeSalida mensaje : lote) {
+            porTipo.computeIfAbsent(mensaje.getTipo(), tipo -> new ArrayList<>()).add(mensaje);
+        }
+        for (Map.Entry<String, List<MensajeSalida>> grupo : porTipo.entrySet()) {
+            ManejadorSalida manejador = manejadores.get(grupo.getKey());
+            if (manejador == null) {
+                throw new IllegalStateException("No hay manejador para los mensajes " + grupo.getKey());
+            }
+            manejador.manejar(grupo.getValue());
+        }
+    }
+
+    // parkNanos podría despertarse con cada registro nuevo; el reintento debe esperar completo
+    private void dormir(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            activo = false;
+        }
+    }
+}
+
+//3. Efectos de un Pago Confirmado
+// application/events/
+public final class PagoConfirmado {
+    public static final String TIPO = "pago-confirmado";
+
+    private final String idPago;
+    private final String idPedido;
+    private final double monto;
+    private final String medioPago;
+
+    public PagoConfirmado(String idPago, String idPedido, double monto, String medioPago) {
+        this.idPago = idPago;
+        this.idPedido = idPedido;
+        this.monto = monto;
+        this.medioPago = medioPago;
+    }
+
+    public static PagoConfirmado desde(Pago pago) {
+        return new PagoConfirmado(pago.getId(), pago.getIdPedido(), pago.getMonto(), pago.getMedioPago());
+    }
+
+    public byte[] codificar() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream salida = new DataOutputStream(bytes)) {
+            salida.writeUTF(idPago);
+            salida.writeUTF(idPedido);
+            salida.writeDouble(monto);
+            salida.writeUTF(medioPago);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static PagoConfirmado decodificar(byte[] contenido) {
+        try (DataInputStream entrada = new DataInputStream(new ByteArrayInputStream(contenido))) {
+            return new PagoConfirmado(entrada.readUTF(), entrada.readUTF(), entrada.readDouble(), entrada.readUTF());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Pago aPago() {
+        return Pago.reconstruir(idPago, idPedido, monto, medioPago);
+    }
+
+    // Getters
+}
+
+// application/ports/
+public interface PublicadorEventos {
+    // Un solo viaje para todo el lote; los consumidores descartan repetidos por idPago
+    void publicar(List<PagoConfirmado> eventos);
+}
+
+// application/events/
+public class EfectosPagoConfirmado implements ManejadorSalida {
+    private final PagoRepository pagoRepository;
+    private final PedidoRepository pedidoRepository;
+    private final PublicadorEventos publicadorEventos;
+
+    public EfectosPagoConfirmado(PagoRepository pagoRepository,
+                                 PedidoRepository pedidoRepository,
+                                 PublicadorEventos publicadorEventos) {
+        this.pagoRepository = pagoRepository;
+        this.pedidoRepository = pedidoRepository;
+        this.publicadorEventos = publicadorEventos;
+    }
+
+    @Override
+    public void manejar(List<MensajeSalida> mensajes) {
+        List<PagoConfirmado> eventos = new ArrayList<>(mensajes.size());
+        for (MensajeSalida mensaje : mensajes) {
+            PagoConfirmado evento = PagoConfirmado.decodificar(mensaje.getContenido());
+
+            // 1. Guardar el pago (por id: repetirlo lo reemplaza)
+            pagoRepository.guardar(evento.aPago());
+
+            // 2. Confirmar el pedido, salvo que una entrega anterior ya lo hizo
+            Pedido pedido = pedidoRepository.buscarPorId(evento.getIdPedido())
+                .orElseThrow(() -> new PedidoNoEncontradoException(evento.getIdPedido()));
+            if (pedido.getEstado() == Pedido.EstadoPedido.PENDIENTE) {
+                pedido.confirmar();
+                pedidoRepository.guardar(pedido);
+            }
+            eventos.add(evento);
+        }
+        // 3. Avisar a los demás sistemas, una vez por lote
+        publicadorEventos.publicar(eventos);
+    }
+}
+
+/*
+4. Caso de Uso: registrar en lugar de aplicar
+Reemplaza la versión de 6_12. El cobro sigue yendo por el LoteadorPagos;
+lo que cambia es el paso 4. Si el cobro se aprobó pero la bandeja no pudo
+escribir, el resultado queda en duda (nunca fallido: la clave de
+idempotencia de 6_14 sigue retenida y un reintento no cobra otra vez) y la
+conciliación diaria (6_15) lo reporta como FALTA_EN_SISTEMA.
+Tras un pago exitoso, el Pedido se ve CONFIRMADO en cuanto el despachador
+entrega el lote (milisegundos), no en el mismo instante.
+El registro corre en "efectos" (ver 6_12), no en el hilo que envía los
+lotes: el force de la bandeja no demora el siguiente lote, y los registros
+concurrentes comparten un mismo force.
+*/
+// application/usecases/
+public class ProcesarPagoUseCase {
+    private final PedidoRepository pedidoRepository;
+    private final LoteadorPagos loteadorPagos;
+    private final BandejaSalida bandejaSalida;
+    private final Executor efectos;
+
+    public ProcesarPagoUseCase(PedidoRepository pedidoRepository,
+                               LoteadorPagos loteadorPagos,
+                               BandejaSalida bandejaSalida,
+                               Executor efectos) {
+        this.pedidoRepository = pedidoRepository;
+        this.loteadorPagos = loteadorPagos;
+        this.bandejaSalida = bandejaSalida;
+        this.efectos = efectos;
+    }
+
+    public ResultadoPago ejecutar(String idPedido, String medioPago, double monto) {
+        return ejecutarAsync(idPedido, medioPago, monto).join();
+    }
+
+    public CompletableFuture<ResultadoPago> ejecutarAsync(String idPedido, String medioPago, double monto) {
+        // 1. Buscar pedido
+        pedidoRepository.buscarPorId(idPedido)
+            .orElseThrow(() -> new PedidoNoEncontradoException(idPedido));
+
+        // 2. Crear pago
+        Pago pago = new Pago(idPedido, monto, medioPago);
+
+        // 3. Enviar al procesador dentro del próximo lote
+        CompletableFuture<ResultadoCobro> envio = loteadorPagos.enviar(pago);
+        return envio
+            .thenApplyAsync(cobro -> {
+                if (!cobro.isAprobado()) {
+                    return ResultadoPago.fallido("Pago rechazado: " + cobro.getMotivoRechazo());
+                }
+                // 4. Pago, confirmación y aviso quedan en un solo registro durable
+                try {
+                    bandejaSalida.registrar(PagoConfirmado.TIPO, PagoConfirmado.desde(pago).codificar());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return ResultadoPago.exitoso(pago);
+            }, efectos)
+            .exceptionally(e -> resolverError(envio, pago, e));
+    }
+
+    // Solo es "fallido" lo que con certeza no se cobró (ver 6_12)
+    private ResultadoPago resolverError(CompletableFuture<ResultadoCobro> envio, Pago pago, Throwable e) {
+        Throwable causa = e instanceof CompletionException ? e.getCause() : e;
+        if (!envio.isCompletedExceptionally()) {
+            // El procesador respondió y falló el registro en la bandeja
+            ResultadoCobro cobro = envio.join();
+            return cobro.isAprobado()
+                ? ResultadoPago.enDuda(pago.getId(), "Pago cobrado sin registrar: " + causa.getMessage())
+                : ResultadoPago.fallido("Pago rechazado: " + cobro.getMotivoRechazo());
+        }
+        if (causa instanceof RejectedExecutionException || causa instanceof CancellationException) {
+            return ResultadoPago.fallido("Pago no enviado: " + causa.getMessage());
+        }
+        return ResultadoPago.enDuda(pago.getId(), "Resultado del cobro desconocido: " + causa.getMessage());
+    }
+}
+
+//5. Prueba: entrega al menos una vez, aunque el manejador falle y el proceso reinicie
+class BandejaSalidaTest {
+
+    @Test
+    @DisplayName("Debería entregar todos los mensajes y retomar desde el cursor al reabrir")
+    void testEntregaConFallosYReinicio() throws Exception {
+        // Given - el manejador falla en su primer llamado
+        Path archivo = Files.createTempDirectory("bandeja").resolve("salida.log");
+        Set<Long> entregados = ConcurrentHashMap.newKeySet();
+        AtomicInteger llamados = new AtomicInteger();
+        ManejadorSalida manejador = mensajes -> {
+            if (llamados.incrementAndGet() == 1) {
+                throw new IllegalStateException("Sistema de abajo no disponible");
+            }
+            mensajes.forEach(mensaje -> entregados.add(mensaje.getSecuencia()));
+        };
+
+        // When - 8 hilos registran 2000 mensajes
+        try (BandejaSalida bandeja = new BandejaSalida(archivo, 1 << 20)) {
+            try (BandejaSalida aparcados = new BandejaSalida(archivo.resolveSibling("aparcados.log"), Long.MAX_VALUE);
+                 DespachadorSalida despachador = new DespachadorSalida(bandeja, aparcados,
+                    Map.of("prueba", manejador), 100, 5, Duration.ofMillis(10), Duration.ofMillis(100))) {
+                ExecutorService hilos = Executors.newFixedThreadPool(8);
+                for (int i = 0; i < 2000; i++) {
+                    byte[] contenido = ("mensaje-" + i).getBytes(StandardCharsets.UTF_8);
+                    hilos.submit(() -> bandeja.registrar("prueba", contenido));
+                }
+                hilos.shutdown();
+                assertTrue(hilos.awaitTermination(10, TimeUnit.SECONDS));
+                long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (entregados.size() < 2000 && System.nanoTime() < limite) {
+                    Thread.sleep(10);
+                }
+                assertTrue(despachador.getReintentos() >= 1);
+            }
+        }
+
+        // Then - todo entregado, y al reabrir no queda nada pendiente
+        assertEquals(2000, entregados.size());
+        try (BandejaSalida reabierta = new BandejaSalida(archivo, 1 << 20)) {
+            assertEquals(0, reabierta.getPendientesEnBytes());
+            assertEquals(2001, reabierta.registrar("prueba", new byte[0]));
+        }
+    }
+
+    @Test
+    @DisplayName("Un mensaje que siempre falla debería aparcarse sin frenar a los demás")
+    void testMensajeVenenoso_SeAparca() throws Exception {
+        // Given - el manejador rechaza cualquier lote que incluya "veneno"
+        Path archivo = Files.createTempDirectory("bandeja").resolve("salida.log");
+        Set<String> entregados = ConcurrentHashMap.newKeySet();
+        ManejadorSalida manejador = mensajes -> {
+            List<String> textos = new ArrayList<>();
+            for (MensajeSalida mensaje : mensajes) {
+                textos.add(new String(mensaje.getContenido(), StandardCharsets.UTF_8));
+            }
+            if (textos.contains("veneno")) {
+                throw new IllegalArgumentException("Mensaje mal formado");
+            }
+            entregados.addAll(textos);
+        };
+
+        // When
+        try (BandejaSalida bandeja = new BandejaSalida(archivo, 1 << 20);
+             BandejaSalida aparcados = new BandejaSalida(archivo.resolveSibling("aparcados.log"), Long.MAX_VALUE);
+             DespachadorSalida despachador = new DespachadorSalida(bandeja, aparcados,
+                 Map.of("prueba", manejador), 100, 3, Duration.ofMillis(1), Duration.ofMillis(10))) {
+            for (int i = 0; i < 300; i++) {
+                String texto = i == 150 ? "veneno" : "mensaje-" + i;
+                bandeja.registrar("prueba", texto.getBytes(StandardCharsets.UTF_8));
+            }
+            long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (entregados.size() < 299 && System.nanoTime() < limite) {
+                Thread.sleep(10);
+            }
+
+            // Then - los 299 restantes entregados y el venenoso apartado
+            assertEquals(299, entregados.size());
+            assertEquals(1, despachador.getAparcados());
+            assertTrue(aparcados.getPendientesEnBytes() > 0);
+        }
+    }
+}
+
+//Configuración
+// infrastructure/config/
+@Configuration
+public class BandejaSalidaConfig {
+
+    @Bean(destroyMethod = "close")
+    @Primary
+    public BandejaSalida bandejaSalida() throws IOException {
+        return new BandejaSalida(
+            Paths.get("/datos/pagos/salida.log"),
+            64L * 1024 * 1024         // bytes entregados antes de vaciar el archivo
+        );
+    }
+
+    @Bean
+    public EfectosPagoConfirmado efectosPagoConfirmado(PagoRepository pagoRepository,
+                                                       PedidoRepository pedidoRepository,
+                                                       PublicadorEventos publicadorEventos) {
+        return new EfectosPagoConfirmado(pagoRepository, pedidoRepository, publicadorEventos);
+    }
+
+    // Sin despachador: lo aparcado se revisa a mano y se vuelve a registrar
+    @Bean(destroyMethod = "close")
+    public BandejaSalida bandejaAparcados() throws IOException {
+        return new BandejaSalida(Paths.get("/datos/pagos/salida-aparcados.log"), Long.MAX_VALUE);
+    }
+
+    @Bean(destroyMethod = "close")
+    public DespachadorSalida despachadorSalida(BandejaSalida bandejaSalida,
+                                               @Qualifier("bandejaAparcados") BandejaSalida bandejaAparcados,
+                                               EfectosPagoConfirmado efectosPagoConfirmado) {
+        return new DespachadorSalida(
+            bandejaSalida,
+            bandejaAparcados,
+            Map.of(PagoConfirmado.TIPO, efectosPagoConfirmado),
+            500,                      // mensajes por lote
+            10,                       // intentos de un mensaje antes de aparcarlo
+            Duration.ofMillis(50),    // primera espera tras un fallo
+            Duration.ofSeconds(30)    // espera máxima entre reintentos
+        );
+    }
+
+    @Bean
+    public ProcesarPagoUseCase procesarPagoUseCase(PedidoRepository pedidoRepository,
+                                                   LoteadorPagos loteadorPagos,
+                                                   BandejaSalida bandejaSalida,
+                                                   ExecutorService efectosPago) {
+        return new ProcesarPagoUseCase(pedidoRepository, loteadorPagos, bandejaSalida, efectosPago);
+    }
+}
@@ -44,11 +44,19 @@ public class Carrito {
                 .sum();
     }
     
-    public Pedido crearPedido() {
+    // Ids ordenados por tiempo (ver reto_clean_code/java/domain/GeneradorIds.java)
+    public Pedido crearPedido(GeneradorIds generadorIds) {
         if (items.isEmpty()) {
             throw new CarritoVacioException("No se puede crear pedido con carrito vacío");
         }
-        return new Pedido(UUID.randomUUID().toString(), this.calcularTotal());
+        return new Pedido(generadorIds.siguienteUuid().toString(), idCliente, this.calcularTotal());
+    }
+    
+    // Copia independiente: un repositorio en memoria no entrega la instancia que guarda (ver 6_4)
+    public Carrito copiar() {
+        Carrito copia = new Carrito(idCliente);
+        copia.items.addAll(items);
+        return copia;
     }
 }
 
@@ -57,49 +65,64 @@ public class Producto {
     private String id;
     private String nombre;
     private double precio;
-    private int stock;
+    private final AtomicInteger stock;
     
     // LÓGICA DE NEGOCIO ENRIQUECIDA
     public boolean tieneStockSuficiente(int cantidad) {
-        return this.stock >= cantidad;
+        return this.stock.get() >= cantidad;
     }
     
+    // Verificar y descontar en un solo paso atómico (CAS): dos compras
+    // concurrentes no pueden reservar la misma unidad
     public void reservarStock(int cantidad) {
-        if (!tieneStockSuficiente(cantidad)) {
-            throw new StockInsuficienteException("No hay suficiente stock para reservar");
-        }
-        this.stock -= cantidad;
+        int actual;
+        do {
+            actual = this.stock.get();
+            if (actual < cantidad) {
+                throw new StockInsuficienteException("No hay suficiente stock para reservar");
+            }
+        } while (!this.stock.compareAndSet(actual, actual - cantidad));
     }
     
     public void liberarStock(int cantidad) {
-        this.stock += cantidad;
+        this.stock.addAndGet(cantidad);
     }
 }
 
 // domain/entities/
 public class Pedido {
     private String id;
-    private EstadoPedido estado = EstadoPedido.PENDIENTE;
+    private String idCliente;
+    private final AtomicReference<EstadoPedido> estado = new AtomicReference<>(EstadoPedido.PENDIENTE);
     private double total;
     private LocalDateTime fechaCreacion;
     
-    // ENUM PARA ESTADOS VÁLIDOS
+    // ENUM PARA ESTADOS VÁLIDOS (la tabla de transiciones vive en el enum,
+    // ver reto_clean_code/java/domain/EstadoPedido.java)
     public enum EstadoPedido {
-        PENDIENTE, CONFIRMADO, PAGADO, ENVIADO, ENTREGADO, CANCELADO
+        PENDIENTE, CONFIRMADO, PAGADO, ENVIADO, ENTREGADO, CANCELADO;
+        
+        public boolean puedeCambiarA(EstadoPedido destino) { /* tabla de transiciones */ }
     }
     
     public void confirmar() {
-        if (this.estado != EstadoPedido.PENDIENTE) {
-            throw new CambioEstadoInvalidoException("Solo pedidos pendientes pueden confirmarse");
-        }
-        this.estado = EstadoPedido.CONFIRMADO;
+        cambiarEstado(EstadoPedido.CONFIRMADO, "Solo pedidos pendientes pueden confirmarse");
     }
     
     public void cancelar() {
-        if (this.estado == EstadoPedido.ENVIADO || this.estado == EstadoPedido.ENTREGADO) {
-            throw new CambioEstadoInvalidoException("No se puede cancelar un pedido enviado o entregado");
-        }
-        this.estado = EstadoPedido.CANCELADO;
+        cambiarEstado(EstadoPedido.CANCELADO, "No se puede cancelar un pedido enviado o entregado");
+    }
+    
+    // Verificar y cambiar en un solo paso atómico (CAS): un pago y una
+    // cancelación concurrentes no pueden aplicarse ambos
+    private void cambiarEstado(EstadoPedido destino, String mensajeError) {
+        EstadoPedido actual;
+        do {
+            actual = estado.get();
+            if (!actual.puedeCambiarA(destino)) {
+                throw new CambioEstadoInvalidoException(mensajeError);
+            }
+        } while (!estado.compareAndSet(actual, destino));
     }
 }
 
@@ -116,6 +139,34 @@ public interface ProductoRepository {
     Optional<Producto> buscarPorId(String id);
     List<Producto> buscarTodos();
     void guardar(Producto producto);
+    
+    // Reserva todas las líneas o ninguna; lanza StockInsuficienteException
+    void reservarStock(List<ReservaStock> reservas);
+    
+    // Devuelve stock con un incremento atómico (no guarda una copia leída antes)
+    void liberarStock(List<ReservaStock> reservas);
+    
+    // Alta o actualización de todo un catálogo leído aparte (carga nocturna, ver 6_11):
+    // se publica de una vez, quien lee ve el catálogo anterior o el nuevo.
+    // Nombre y precio vienen del catálogo; el stock, solo para productos nuevos
+    void guardarCatalogo(CatalogoColumnar catalogo);
+}
+
+// domain/valueobjects/
+public final class ReservaStock {
+    private final String idProducto;
+    private final int cantidad;
+    
+    public ReservaStock(String idProducto, int cantidad) {
+        if (cantidad <= 0) {
+            throw new IllegalArgumentException("La cantidad debe ser positiva");
+        }
+        this.idProducto = idProducto;
+        this.cantidad = cantidad;
+    }
+    
+    public String getIdProducto() { return idProducto; }
+    public int getCantidad() { return cantidad; }
 }
 
 // domain/repositories/
@@ -128,6 +179,8 @@ public interface PedidoRepository {
 public interface PagoRepository {
     void guardar(Pago pago);
     Optional<Pago> buscarPorPedido(String idPedido);
+    // Recorre con un cursor, sin cargar el día completo (ver 6_15)
+    Stream<Pago> recorrerPorFecha(LocalDate fecha);
 }
 
 //CAPA APLICACION (Use Cases)
@@ -164,13 +217,16 @@ public class CrearPedidoUseCase {
     private final CarritoRepository carritoRepository;
     private final PedidoRepository pedidoRepository;
     private final ProductoRepository productoRepository;
+    private final GeneradorIds generadorIds;
     
     public CrearPedidoUseCase(CarritoRepository carritoRepository,
                             PedidoRepository pedidoRepository,
-                            ProductoRepository productoRepository) {
+                            ProductoRepository productoRepository,
+                            GeneradorIds generadorIds) {
         this.carritoRepository = carritoRepository;
         this.pedidoRepository = pedidoRepository;
         this.productoRepository = productoRepository;
+        this.generadorIds = generadorIds;
     }
     
     public Pedido ejecutar(String idCliente) {
@@ -179,14 +235,13 @@ public class CrearPedidoUseCase {
             .orElseThrow(() -> new CarritoNoEncontradoException(idCliente));
         
         // 2. Crear pedido desde carrito
-        Pedido pedido = carrito.crearPedido();
+        Pedido pedido = carrito.crearPedido(generadorIds);
         
-        // 3. Reservar stock de productos
-        carrito.getItems().forEach(item -> {
-            Producto producto = item.getProducto();
-            producto.reservarStock(item.getCantidad());
-            productoRepository.guardar(producto);
-        });
+        // 3. Reservar stock de todas las líneas en una sola operación (todo o nada)
+        List<ReservaStock> reservas = carrito.getItems().stream()
+            .map(item -> new ReservaStock(item.getProducto().getId(), item.getCantidad()))
+            .collect(Collectors.toList());
+        productoRepository.reservarStock(reservas);
         
         // 4. Guardar pedido
         pedidoRepository.guardar(pedido);
@@ -223,15 +278,23 @@ public class ProcesarPagoUseCase {
         // 3. Procesar pago externamente
         try {
             pago.procesar(); // Lógica delegada al servicio externo
+        } catch (PagoRechazadoException e) {
+            return ResultadoPago.fallido("Pago rechazado: " + e.getMessage());
+        } catch (Exception e) {
+            // Timeout o error de red: el procesador pudo haberlo cobrado
+            return ResultadoPago.enDuda(pago.getId(), "Resultado del cobro desconocido: " + e.getMessage());
+        }
+        
+        // 4. Registrar el pago y actualizar estado del pedido
+        try {
             pagoRepository.guardar(pago);
-            
-            // 4. Actualizar estado del pedido
             pedido.confirmar();
             pedidoRepository.guardar(pedido);
             
             return ResultadoPago.exitoso(pago);
         } catch (Exception e) {
-            return ResultadoPago.fallido("Error procesando pago: " + e.getMessage());
+            // El cobro ya se hizo: informarlo como fallido invitaría a cobrar otra vez
+            return ResultadoPago.enDuda(pago.getId(), "Pago cobrado sin registrar: " + e.getMessage());
         }
     }
 }
@@ -249,16 +312,29 @@ public class CarritoDTO {
 // application/dtos/
 public class ResultadoPago {
     private final boolean exitoso;
+    // El cobro pudo haberse hecho (o se hizo y faltó registrarlo): no es un
+    // fallo que se pueda reintentar cobrando de nuevo
+    private final boolean enDuda;
     private final String mensaje;
     private final String idTransaccion;
     
     // Factory methods
     public static ResultadoPago exitoso(Pago pago) {
-        return new ResultadoPago(true, "Pago procesado exitosamente", pago.getId());
+        return exitoso(pago.getId());
+    }
+    
+    // También para repetir el resultado de un pago ya registrado (ver 6_14)
+    public static ResultadoPago exitoso(String idTransaccion) {
+        return new ResultadoPago(true, false, "Pago procesado exitosamente", idTransaccion);
     }
     
+    // Solo cuando se sabe que no hubo cobro (rechazado o nunca enviado)
     public static ResultadoPago fallido(String mensajeError) {
-        return new ResultadoPago(false, mensajeError, null);
+        return new ResultadoPago(false, false, mensajeError, null);
+    }
+    
+    public static ResultadoPago enDuda(String idTransaccion, String mensaje) {
+        return new ResultadoPago(false, true, mensaje, idTransaccion);
     }
 }
 
@@ -350,9 +426,136 @@ public class CarritoRepositoryJpa implements CarritoRepository {
     }
 }
 
+// infrastructure/persistence/
+@Repository
+public class ProductoRepositoryJpa implements ProductoRepository {
+    private static final String RESERVAR_STOCK =
+        "UPDATE producto SET stock = stock - ? WHERE id = ? AND stock >= ?";
+    private static final String LIBERAR_STOCK =
+        "UPDATE producto SET stock = stock + ? WHERE id = ?";
+    private static final String INSERTAR_CARGA =
+        "INSERT INTO producto_carga (id, nombre, precio, stock) VALUES (?, ?, ?, ?)";
+    private static final String PUBLICAR_CARGA =
+        "MERGE INTO producto p USING producto_carga c ON (p.id = c.id) "
+        // El stock de un producto existente es el vivo: el del archivo no lo pisa
+        + "WHEN MATCHED THEN UPDATE SET nombre = c.nombre, precio = c.precio "
+        + "WHEN NOT MATCHED THEN INSERT (id, nombre, precio, stock) VALUES (c.id, c.nombre, c.precio, c.stock)";
+    private static final int FILAS_POR_LOTE_CARGA = 10_000;
+    
+    private final ProductoJpaRepository jpaRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate loteAnidado;
+    private final TransactionTemplate transaccion;
+    
+    public ProductoRepositoryJpa(ProductoJpaRepository jpaRepository, JdbcTemplate jdbcTemplate,
+                                 PlatformTransactionManager transactionManager) {
+        this.jpaRepository = jpaRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transaccion = new TransactionTemplate(transactionManager);
+        // NESTED: el lote corre sobre un savepoint de la transacción de reservarStock
+        this.loteAnidado = new TransactionTemplate(transactionManager);
+        this.loteAnidado.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+    }
+    
+    // buscarPorId, buscarTodos y guardar: mapeo Entity <-> Domain como en CarritoRepositoryJpa
+    
+    @Override
+    @Transactional
+    public void reservarStock(List<ReservaStock> reservas) {
+        // 1. Agrupar por producto y ordenar por id: todas las transacciones
+        //    bloquean las filas en el mismo orden, así no hay deadlocks
+        Map<String, Integer> cantidadPorProducto = reservas.stream()
+            .collect(Collectors.toMap(ReservaStock::getIdProducto, ReservaStock::getCantidad,
+                                      Integer::sum, TreeMap::new));
+        List<ReservaStock> ordenadas = cantidadPorProducto.entrySet().stream()
+            .map(e -> new ReservaStock(e.getKey(), e.getValue()))
+            .collect(Collectors.toList());
+        
+        // 2. Una sola escritura por lote; cada UPDATE solo descuenta si alcanza el stock.
+        //    Si alguna línea no se aplicó, la excepción revierte toda la transacción
+        boolean conteosInformados = loteAnidado.execute(estado -> {
+            int[][] filas = jdbcTemplate.batchUpdate(RESERVAR_STOCK, ordenadas, ordenadas.size(),
+                (ps, reserva) -> {
+                    ps.setInt(1, reserva.getCantidad());
+                    ps.setString(2, reserva.getIdProducto());
+                    ps.setInt(3, reserva.getCantidad());
+                });
+            for (int i = 0; i < ordenadas.size(); i++) {
+                if (filas[0][i] == Statement.SUCCESS_NO_INFO) {
+                    estado.setRollbackOnly();
+                    return false;
+                }
+                verificarAplicada(filas[0][i], ordenadas.get(i));
+            }
+            return true;
+        });
+        
+        // 3. El driver no informó las filas de cada sentencia (SUCCESS_NO_INFO):
+        //    se vuelve al savepoint y se aplica fila por fila, que siempre informa
+        if (!conteosInformados) {
+            for (ReservaStock reserva : ordenadas) {
+                verificarAplicada(jdbcTemplate.update(RESERVAR_STOCK,
+                    reserva.getCantidad(), reserva.getIdProducto(), reserva.getCantidad()), reserva);
+            }
+        }
+    }
+    
+    // Exactamente una fila: cualquier otro valor no confirma el descuento
+    private static void verificarAplicada(int filasAfectadas, ReservaStock reserva) {
+        if (filasAfectadas != 1) {
+            throw new StockInsuficienteException(
+                "No hay suficiente stock para reservar: " + reserva.getIdProducto());
+        }
+    }
+    
+    @Override
+    public void guardarCatalogo(CatalogoColumnar catalogo) {
+        // 1. Tabla de trabajo: se llena por lotes fuera de la transacción que publica
+        jdbcTemplate.execute("TRUNCATE TABLE producto_carga");
+        int total = catalogo.getTotalProductos();
+        for (int desde = 0; desde < total; desde += FILAS_POR_LOTE_CARGA) {
+            int inicio = desde;
+            int cantidad = Math.min(FILAS_POR_LOTE_CARGA, total - desde);
+            jdbcTemplate.batchUpdate(INSERTAR_CARGA, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ps.setString(1, catalogo.getId(inicio + i));
+                    ps.setString(2, catalogo.getNombre(inicio + i));
+                    ps.setBigDecimal(3, BigDecimal.valueOf(catalogo.getPrecioCentavos(inicio + i), 2));
+                    ps.setInt(4, catalogo.getStock(inicio + i));
+                }
+                
+                @Override
+                public int getBatchSize() {
+                    return cantidad;
+                }
+            });
+        }
+        // 2. Publicación en una sola sentencia y una sola transacción
+        transaccion.executeWithoutResult(estado -> jdbcTemplate.update(PUBLICAR_CARGA));
+    }
+    
+    @Override
+    @Transactional
+    public void liberarStock(List<ReservaStock> reservas) {
+        // Mismo orden de filas que reservarStock
+        List<ReservaStock> ordenadas = reservas.stream()
+            .sorted(Comparator.comparing(ReservaStock::getIdProducto))
+            .collect(Collectors.toList());
+        jdbcTemplate.batchUpdate(LIBERAR_STOCK, ordenadas, ordenadas.size(),
+            (ps, reserva) -> {
+                ps.setInt(1, reserva.getCantidad());
+                ps.setString(2, reserva.getIdProducto());
+            });
+    }
+}
+
 // infrastructure/external/
+// ServicioPagosConPlazo: ver 6_13
 @Component
-public class ServicioPagosStripe implements ServicioPagosExterno {
+public class ServicioPagosStripe implements ServicioPagosConPlazo {
+    private static final Duration TIMEOUT_PREDETERMINADO = Duration.ofSeconds(30);
+    
     private final StripeClient stripeClient;
     
     public ServicioPagosStripe(StripeClient stripeClient) {
@@ -361,10 +564,19 @@ public class ServicioPagosStripe implements ServicioPagosExterno {
     
     @Override
     public void procesarPago(Pago pago) {
-        // Integración con Stripe
+        procesarPago(pago, pago.getId(), TIMEOUT_PREDETERMINADO);
+    }
+    
+    @Override
+    public void procesarPago(Pago pago, String claveIdempotencia, Duration timeout) {
+        // Integración con Stripe: con la misma clave, un reenvío no cobra de nuevo
         PaymentIntent intent = stripeClient.createPaymentIntent(
             pago.getMonto(),
-            pago.getMedioPago()
+            pago.getMedioPago(),
+            RequestOptions.builder()
+                .setIdempotencyKey(claveIdempotencia)
+                .setReadTimeout((int) timeout.toMillis())
+                .build()
         );
         
         if (!intent.getStatus().equals("succeeded")) {
@@ -384,11 +596,18 @@ public class UseCaseConfig {
         return new AgregarProductoAlCarritoUseCase(carritoRepository, productoRepository);
     }
     
+    // Cada instancia con su propio número de nodo (0 a 1023)
+    @Bean
+    public GeneradorIds generadorIds(@Value("${aplicacion.nodo}") int nodo) {
+        return new GeneradorIds(nodo, 4);
+    }
+    
     @Bean
     public CrearPedidoUseCase crearPedidoUseCase(
             CarritoRepository carritoRepository,
             PedidoRepository pedidoRepository,
-            ProductoRepository productoRepository) {
-        return new CrearPedidoUseCase(carritoRepository, pedidoRepository, productoRepository);
+            ProductoRepository productoRepository,
+            GeneradorIds generadorIds) {
+        return new CrearPedidoUseCase(carritoRepository, pedidoRepository, productoRepository, generadorIds);
     }
 }
\ No newline at end of file
@@ -0,0 +1,392 @@
+/*
+Repositorio de Carritos en Memoria
+
+Problema: CarritoRepository solo tiene la implementación JPA, por lo que cada
+agregarItem hace un viaje de ida y vuelta a la base de datos.
+
+Solución: un adaptador en memoria que implementa el mismo puerto del dominio.
+- Particionado (striping) por idCliente: cada segmento tiene su propio lock,
+  así dos clientes distintos casi nunca compiten entre sí.
+- Presupuesto de memoria en bytes: cada carrito se contabiliza por su tamaño
+  estimado (cabecera + líneas) y cada segmento admite una fracción del
+  presupuesto; al superarlo se desaloja el carrito usado hace más tiempo. Un
+  carrito que por sí solo excede la fracción del segmento no se guarda en
+  memoria: va directo al respaldo.
+- Expiración por inactividad con una rueda temporal (timing wheel): tocar un
+  carrito solo actualiza su vencimiento, el barrido lo hace un único hilo.
+- Escritura diferida (write-behind): los carritos expirados o desalojados se
+  guardan de forma asíncrona en el repositorio de respaldo (JPA). Mientras
+  una escritura o una eliminación no se aplica, queda en la cola de
+  pendientes (la eliminación como lápida), así un fallo de caché no lee del
+  respaldo un carrito viejo ni uno ya eliminado. Si el respaldo falla, se
+  registra y se reintenta con espera exponencial; solo se aplica la última
+  escritura pendiente de cada cliente.
+- Cada llamador recibe su propia copia del carrito (Carrito.copiar): nadie
+  modifica fuera del lock la instancia que guarda el repositorio. Los cambios
+  se publican con guardar, igual que con JPA.
+
+El caso de uso no cambia: sigue dependiendo de la interfaz CarritoRepository.
+*/
+
+// infrastructure/persistence/
+public class CarritoRepositoryEnMemoria implements CarritoRepository {
+    private final Segmento[] segmentos;
+    private static final Logger log = LoggerFactory.getLogger(CarritoRepositoryEnMemoria.class);
+    // Estimación del tamaño en memoria: objeto carrito, id y lista, más cada línea
+    private static final long BYTES_POR_CARRITO = 160;
+    private static final long BYTES_POR_LINEA = 48;
+    private static final long ESPERA_INICIAL_MILLIS = 100;
+    private static final long ESPERA_MAXIMA_MILLIS = 30_000;
+
+    private final CarritoRepository respaldo;
+    private final RuedaTemporal ruedaExpiracion;
+    private final long inactividadMaximaMillis;
+    private final ExecutorService escritor = Executors.newSingleThreadExecutor();
+    private final ScheduledExecutorService reloj = Executors.newSingleThreadScheduledExecutor();
+    private final ScheduledFuture<?> barrido;
+    // Escrituras y eliminaciones aún no aplicadas: se consultan antes de ir al respaldo
+    private final ConcurrentHashMap<String, Escritura> pendientesDeEscritura = new ConcurrentHashMap<>();
+
+    public CarritoRepositoryEnMemoria(CarritoRepository respaldo,
+                                      int cantidadSegmentos,
+                                      long presupuestoBytes,
+                                      Duration inactividadMaxima) {
+        if (Integer.bitCount(cantidadSegmentos) != 1) {
+            throw new IllegalArgumentException("La cantidad de segmentos debe ser potencia de 2");
+        }
+        this.respaldo = respaldo;
+        this.inactividadMaximaMillis = inactividadMaxima.toMillis();
+        this.segmentos = new Segmento[cantidadSegmentos];
+        long bytesPorSegmento = Math.max(BYTES_POR_CARRITO, presupuestoBytes / cantidadSegmentos);
+        for (int i = 0; i < cantidadSegmentos; i++) {
+            segmentos[i] = new Segmento(bytesPorSegmento);
+        }
+        this.ruedaExpiracion = new RuedaTemporal(512, 1000);
+        this.barrido = reloj.scheduleAtFixedRate(this::expirarInactivos, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public Optional<Carrito> buscarPorCliente(String idCliente) {
+        Segmento segmento = segmentoDe(idCliente);
+        segmento.lock.lock();
+        try {
+            Entrada entrada = segmento.carritos.get(idCliente);
+            if (entrada != null) {
+                entrada.tocar(System.currentTimeMillis() + inactividadMaximaMillis);
+                return Optional.of(entrada.carrito.copiar());
+            }
+        } finally {
+            segmento.lock.unlock();
+        }
+        // Fallo de caché: primero la cola de escritura, luego el respaldo
+        Escritura pendiente = pendientesDeEscritura.get(idCliente);
+        if (pendiente != null && pendiente.esEliminacion()) {
+            return Optional.empty();
+        }
+        Optional<Carrito> cargado = pendiente != null
+            ? Optional.of(pendiente.carrito)
+            : respaldo.buscarPorCliente(idCliente);
+        return cargado.map(this::insertarSiAusente);
+    }
+
+    // La carga ocurrió fuera del lock: si otro hilo guardó mientras tanto, gana el suyo
+    private Carrito insertarSiAusente(Carrito cargado) {
+        String idCliente = cargado.getIdCliente();
+        long vence = System.currentTimeMillis() + inactividadMaximaMillis;
+        Segmento segmento = segmentoDe(idCliente);
+        long bytes = estimarBytes(cargado);
+        if (bytes > segmento.maximoBytes) {
+            return cargado.copiar();
+        }
+        Carrito vigente;
+        List<Carrito> desalojados = List.of();
+        segmento.lock.lock();
+        try {
+            Entrada entrada = segmento.carritos.get(idCliente);
+            if (entrada == null) {
+                entrada = new Entrada(cargado.copiar(), bytes, vence);
+                segmento.agregar(idCliente, entrada);
+                ruedaExpiracion.programar(idCliente, vence);
+                desalojados = segmento.desalojarExcedentes();
+            } else {
+                entrada.tocar(vence);
+            }
+            vigente = entrada.carrito.copiar();
+        } finally {
+            segmento.lock.unlock();
+        }
+        desalojados.forEach(this::escribirEnRespaldo);
+        return vigente;
+    }
+
+    @Override
+    public void guardar(Carrito carrito) {
+        String idCliente = carrito.getIdCliente();
+        long vence = System.currentTimeMillis() + inactividadMaximaMillis;
+        Segmento segmento = segmentoDe(idCliente);
+        long bytes = estimarBytes(carrito);
+        List<Carrito> desalojados;
+        segmento.lock.lock();
+        try {
+            if (bytes > segmento.maximoBytes) {
+                // Demasiado grande para la memoria: se escribe en el respaldo
+                segmento.quitar(idCliente);
+                desalojados = List.of(carrito.copiar());
+            } else {
+                Entrada entrada = segmento.carritos.get(idCliente);
+                if (entrada == null) {
+                    entrada = new Entrada(carrito.copiar(), bytes, vence);
+                    segmento.agregar(idCliente, entrada);
+                    ruedaExpiracion.programar(idCliente, vence);
+                } else {
+                    segmento.reemplazar(entrada, carrito.copiar(), bytes);
+                    entrada.tocar(vence);
+                }
+                desalojados = segmento.desalojarExcedentes();
+            }
+        } finally {
+            segmento.lock.unlock();
+        }
+        desalojados.forEach(this::escribirEnRespaldo);
+    }
+
+    // La lápida queda en pendientes hasta que el respaldo aplica la
+    // eliminación: un fallo de caché anterior no recarga el carrito eliminado
+    @Override
+    public void eliminar(String idCliente) {
+        Segmento segmento = segmentoDe(idCliente);
+        segmento.lock.lock();
+        try {
+            segmento.quitar(idCliente);
+        } finally {
+            segmento.lock.unlock();
+        }
+        encolar(idCliente, new Escritura(null));
+    }
+
+    // Llamado por el reloj: retira los carritos cuyo vencimiento ya pasó
+    private void expirarInactivos() {
+        long ahora = System.currentTimeMillis();
+        for (String idCliente : ruedaExpiracion.avanzar(ahora)) {
+            Segmento segmento = segmentoDe(idCliente);
+            Carrito expirado = null;
+            segmento.lock.lock();
+            try {
+                Entrada entrada = segmento.carritos.get(idCliente);
+                if (entrada == null) {
+                    continue;
+                }
+                if (entrada.vence > ahora) {
+                    // Se usó después de programarse: se reprograma
+                    ruedaExpiracion.programar(idCliente, entrada.vence);
+                } else {
+                    segmento.quitar(idCliente);
+                    expirado = entrada.carrito;
+                }
+            } finally {
+                segmento.lock.unlock();
+            }
+            if (expirado != null) {
+                escribirEnRespaldo(expirado);
+            }
+        }
+    }
+
+    private void escribirEnRespaldo(Carrito carrito) {
+        encolar(carrito.getIdCliente(), new Escritura(carrito));
+    }
+
+    private void encolar(String idCliente, Escritura escritura) {
+        pendientesDeEscritura.put(idCliente, escritura);
+        escritor.execute(() -> aplicarEnRespaldo(idCliente, escritura, 0));
+    }
+
+    // Corre en el escritor.  Si otra escritura del mismo cliente la reemplazó,
+    // no se aplica: esa otra ya está en la cola y es la vigente
+    private void aplicarEnRespaldo(String idCliente, Escritura escritura, int intento) {
+        if (pendientesDeEscritura.get(idCliente) != escritura) {
+            return;
+        }
+        try {
+            if (escritura.esEliminacion()) {
+                respaldo.eliminar(idCliente);
+            } else {
+                respaldo.guardar(escritura.carrito);
+            }
+            pendientesDeEscritura.remove(idCliente, escritura);
+        } catch (RuntimeException e) {
+            long espera = Math.min(ESPERA_MAXIMA_MILLIS, ESPERA_INICIAL_MILLIS << Math.min(intento, 16));
+            log.warn("No se pudo {} el carrito de {} en el respaldo (intento {}); se reintenta en {} ms",
+                escritura.esEliminacion() ? "eliminar" : "guardar", idCliente, intento + 1, espera, e);
+            reloj.schedule(() -> escritor.execute(() -> aplicarEnRespaldo(idCliente, escritura, intento + 1)),
+                espera, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static long estimarBytes(Carrito carrito) {
+        return BYTES_POR_CARRITO + BYTES_POR_LINEA * carrito.getItems().size();
+    }
+
+    private Segmento segmentoDe(String idCliente) {
+        int hash = idCliente.hashCode();
+        return segmentos[(hash ^ (hash >>> 16)) & (segmentos.length - 1)];
+    }
+
+    // Vuelca los carritos al respaldo y espera a que se apliquen las
+    // escrituras pendientes, reintentos incluidos (el reloj sigue vivo para ellos)
+    public void cerrar() throws InterruptedException {
+        barrido.cancel(false);
+        for (Segmento segmento : segmentos) {
+            segmento.lock.lock();
+            try {
+                segmento.carritos.values().forEach(entrada -> escribirEnRespaldo(entrada.carrito));
+                segmento.carritos.clear();
+                segmento.bytes = 0;
+            } finally {
+                segmento.lock.unlock();
+            }
+        }
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (!pendientesDeEscritura.isEmpty() && System.nanoTime() < limite) {
+            Thread.sleep(50);
+        }
+        reloj.shutdownNow();
+        escritor.shutdown();
+        escritor.awaitTermination(10, TimeUnit.SECONDS);
+        if (!pendientesDeEscritura.isEmpty()) {
+            throw new IllegalStateException("Quedaron " + pendientesDeEscritura.size()
+                + " carritos sin aplicar en el respaldo");
+        }
+    }
+
+    // Un segmento: mapa en orden de acceso para desalojar el menos usado.
+    // Los bytes se contabilizan bajo el lock del segmento
+    private static class Segmento {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<String, Entrada> carritos = new LinkedHashMap<>(16, 0.75f, true);
+        private final long maximoBytes;
+        private long bytes;
+
+        Segmento(long maximoBytes) {
+            this.maximoBytes = maximoBytes;
+        }
+
+        void agregar(String idCliente, Entrada entrada) {
+            carritos.put(idCliente, entrada);
+            bytes += entrada.bytes;
+        }
+
+        void reemplazar(Entrada entrada, Carrito carrito, long nuevosBytes) {
+            bytes += nuevosBytes - entrada.bytes;
+            entrada.carrito = carrito;
+            entrada.bytes = nuevosBytes;
+        }
+
+        void quitar(String idCliente) {
+            Entrada entrada = carritos.remove(idCliente);
+            if (entrada != null) {
+                bytes -= entrada.bytes;
+            }
+        }
+
+        List<Carrito> desalojarExcedentes() {
+            List<Carrito> desalojados = new ArrayList<>();
+            Iterator<Entrada> iterador = carritos.values().iterator();
+            while (bytes > maximoBytes && iterador.hasNext()) {
+                Entrada entrada = iterador.next();
+                desalojados.add(entrada.carrito);
+                bytes -= entrada.bytes;
+                iterador.remove();
+            }
+            return desalojados;
+        }
+    }
+
+    private static class Entrada {
+        private Carrito carrito;
+        private long bytes;
+        private volatile long vence;
+
+        Entrada(Carrito carrito, long bytes, long vence) {
+            this.carrito = carrito;
+            this.bytes = bytes;
+            this.vence = vence;
+        }
+
+        void tocar(long nuevoVencimiento) {
+            this.vence = nuevoVencimiento;
+        }
+    }
+
+    // Escritura pendiente en el respaldo; sin carrito es una eliminación (lápida)
+    private static class Escritura {
+        private final Carrito carrito;
+
+        Escritura(Carrito carrito) {
+            this.carrito = carrito;
+        }
+
+        boolean esEliminacion() {
+            return carrito == null;
+        }
+    }
+}
+
+/*
+Rueda Temporal (Hashed Timing Wheel)
+Un arreglo circular de ranuras; cada ranura cubre un tick. Programar es O(1)
+y no crea un timer por carrito. Si el vencimiento supera una vuelta completa,
+la clave vuelve a caer en su ranura y se reprograma al revisarse.
+*/
+// infrastructure/persistence/
+class RuedaTemporal {
+    private final Set<String>[] ranuras;
+    private final long tickMillis;
+    private long ultimoTick;
+
+    @SuppressWarnings("unchecked")
+    RuedaTemporal(int cantidadRanuras, long tickMillis) {
+        this.ranuras = new Set[cantidadRanuras];
+        for (int i = 0; i < cantidadRanuras; i++) {
+            ranuras[i] = new HashSet<>();
+        }
+        this.tickMillis = tickMillis;
+        this.ultimoTick = System.currentTimeMillis() / tickMillis;
+    }
+
+    synchronized void programar(String clave, long venceMillis) {
+        long tick = Math.max(venceMillis / tickMillis, ultimoTick + 1);
+        ranuras[(int) (tick % ranuras.length)].add(clave);
+    }
+
+    // Devuelve las claves de las ranuras recorridas desde el último avance
+    synchronized List<String> avanzar(long ahoraMillis) {
+        List<String> candidatas = new ArrayList<>();
+        long tickActual = ahoraMillis / tickMillis;
+        long pasos = Math.min(tickActual - ultimoTick, ranuras.length);
+        for (long i = 1; i <= pasos; i++) {
+            Set<String> ranura = ranuras[(int) ((ultimoTick + i) % ranuras.length)];
+            candidatas.addAll(ranura);
+            ranura.clear();
+        }
+        ultimoTick = tickActual;
+        return candidatas;
+    }
+}
+
+//Configuración: el repositorio en memoria envuelve al de JPA
+// infrastructure/config/
+@Configuration
+public class RepositorioConfig {
+
+    @Bean(destroyMethod = "cerrar")
+    @Primary
+    public CarritoRepository carritoRepository(CarritoRepositoryJpa carritoRepositoryJpa) {
+        return new CarritoRepositoryEnMemoria(
+            new CarritoRepositoryCoalescente(carritoRepositoryJpa),  // ver 6_10
+            64,                       // segmentos
+            512L * 1024 * 1024,       // presupuesto de memoria en bytes (estimados)
+            Duration.ofMinutes(30)    // inactividad antes de expirar
+        );
+    }
+}
@@ -0,0 +1,512 @@
+/*
+Retenciones de Stock con Vencimiento
+
+Problema:
+- AgregarProductoAlCarritoUseCase solo consulta getStock(): dos clientes pueden
+  agregar la última unidad y uno de ellos falla recién al pagar (sobreventa).
+- CrearPedidoUseCase reserva stock sin vencimiento: un checkout abandonado lo
+  deja bloqueado para siempre.
+
+Solución: retenciones de stock por carrito con tiempo límite.
+- Al agregar al carrito se retiene el stock durante un tiempo (por ejemplo 15 min).
+- Al crear el pedido las retenciones se consolidan y dejan de vencer. Si el
+  pedido no se llega a guardar, el stock consolidado vuelve al catálogo.
+- Si el carrito se abandona, la retención vence y el stock vuelve al catálogo.
+
+Los vencimientos los maneja una rueda temporal jerárquica: programar y
+cancelar son O(1) y millones de retenciones no necesitan un hilo ni un timer
+cada una, solo un nodo en una lista.
+
+El stock se descuenta y se devuelve con actualizaciones condicionales del
+repositorio (reservarStock / liberarStock), nunca guardando una copia del
+Producto leída antes: otra retención pudo cambiarlo en el medio.
+*/
+
+/*
+1. Rueda Temporal Jerárquica
+Cuatro niveles de 64 ranuras. El nivel 0 cubre los próximos 64 ticks, el
+nivel 1 los próximos 64², etc. Cuando el nivel 0 da una vuelta, la ranura
+correspondiente del nivel superior se "baja" (cascada) a los niveles
+inferiores. Cada ranura es una lista doblemente enlazada, por eso cancelar
+solo desenlaza el nodo.
+*/
+// infrastructure/scheduling/
+public class RuedaTemporalJerarquica {
+    private static final int BITS_POR_NIVEL = 6;
+    private static final int RANURAS = 1 << BITS_POR_NIVEL;
+    private static final int MASCARA = RANURAS - 1;
+    private static final int NIVELES = 4;
+    private static final long HORIZONTE_TICKS = 1L << (BITS_POR_NIVEL * NIVELES);
+
+    private final Temporizador[][] ranuras = new Temporizador[NIVELES][RANURAS];
+    private final long tickMillis;
+    private final long inicioMillis;
+    private long tickActual; // próximo tick a procesar
+
+    public RuedaTemporalJerarquica(long tickMillis, long inicioMillis) {
+        this.tickMillis = tickMillis;
+        this.inicioMillis = inicioMillis;
+    }
+
+    public synchronized Temporizador programar(long venceMillis, Runnable accion) {
+        long venceTick = Math.max((venceMillis - inicioMillis) / tickMillis, tickActual);
+        Temporizador temporizador = new Temporizador(venceTick, accion);
+        insertar(temporizador);
+        return temporizador;
+    }
+
+    public synchronized boolean cancelar(Temporizador temporizador) {
+        if (temporizador.nivel < 0) {
+            return false; // ya vencido o cancelado
+        }
+        desenlazar(temporizador);
+        return true;
+    }
+
+    /**
+     * Procesa todos los ticks hasta "ahoraMillis" y ejecuta las acciones
+     * vencidas fuera del lock.
+     */
+    public void avanzar(long ahoraMillis) {
+        List<Runnable> vencidas = new ArrayList<>();
+        synchronized (this) {
+            long objetivo = (ahoraMillis - inicioMillis) / tickMillis;
+            while (tickActual <= objetivo) {
+                procesarTick(vencidas);
+            }
+        }
+        vencidas.forEach(Runnable::run);
+    }
+
+    private void procesarTick(List<Runnable> vencidas) {
+        long tick = tickActual;
+        // Cascada: al completar una vuelta de un nivel se baja la ranura
+        // que corresponde en el nivel superior
+        for (int nivel = 1; nivel < NIVELES; nivel++) {
+            if ((tick & ((1L << (BITS_POR_NIVEL * nivel)) - 1)) != 0) {
+                break;
+            }
+            int indice = (int) ((tick >>> (BITS_POR_NIVEL * nivel)) & MASCARA);
+            Temporizador nodo = ranuras[nivel][indice];
+            ranuras[nivel][indice] = null;
+            while (nodo != null) {
+                Temporizador siguiente = nodo.siguiente;
+                nodo.anterior = nodo.siguiente = null;
+                insertar(nodo);
+                nodo = siguiente;
+            }
+        }
+        int indice = (int) (tick & MASCARA);
+        Temporizador nodo = ranuras[0][indice];
+        ranuras[0][indice] = null;
+        while (nodo != null) {
+            Temporizador siguiente = nodo.siguiente;
+            nodo.nivel = -1;
+            nodo.anterior = nodo.siguiente = null;
+            vencidas.add(nodo.accion);
+            nodo = siguiente;
+        }
+        tickActual = tick + 1;
+    }
+
+    private void insertar(Temporizador temporizador) {
+        // Lo que excede el horizonte se ubica en el último nivel y se vuelve
+        // a ubicar en cada cascada hasta entrar en rango
+        long tickUbicacion = Math.min(temporizador.venceTick, tickActual + HORIZONTE_TICKS - 1);
+        long restante = tickUbicacion - tickActual;
+        int nivel = 0;
+        while (nivel < NIVELES - 1 && restante >= (1L << (BITS_POR_NIVEL * (nivel + 1)))) {
+            nivel++;
+        }
+        int indice = (int) ((tickUbicacion >>> (BITS_POR_NIVEL * nivel)) & MASCARA);
+        temporizador.nivel = nivel;
+        temporizador.ranura = indice;
+        temporizador.siguiente = ranuras[nivel][indice];
+        if (temporizador.siguiente != null) {
+            temporizador.siguiente.anterior = temporizador;
+        }
+        ranuras[nivel][indice] = temporizador;
+    }
+
+    private void desenlazar(Temporizador temporizador) {
+        if (temporizador.anterior != null) {
+            temporizador.anterior.siguiente = temporizador.siguiente;
+        } else {
+            ranuras[temporizador.nivel][temporizador.ranura] = temporizador.siguiente;
+        }
+        if (temporizador.siguiente != null) {
+            temporizador.siguiente.anterior = temporizador.anterior;
+        }
+        temporizador.nivel = -1;
+        temporizador.anterior = temporizador.siguiente = null;
+    }
+
+    public static class Temporizador {
+        private final long venceTick;
+        private final Runnable accion;
+        private Temporizador anterior;
+        private Temporizador siguiente;
+        private int nivel = -1;
+        private int ranura;
+
+        private Temporizador(long venceTick, Runnable accion) {
+            this.venceTick = venceTick;
+            this.accion = accion;
+        }
+    }
+}
+
+/*
+2. Servicio de Retenciones (Capa de Aplicación)
+Una retención por carrito y producto. Volver a agregar el mismo producto suma
+la cantidad y renueva el vencimiento (cancelar + programar, ambos O(1)).
+Si el carrito no se llega a guardar, deshacer devuelve lo recién retenido.
+*/
+// application/services/
+public class ServicioRetencionesStock {
+    private final ProductoRepository productoRepository;
+    private final RuedaTemporalJerarquica rueda;
+    private final Duration duracionRetencion;
+    private final ConcurrentHashMap<String, Map<String, Retencion>> retencionesPorCarrito = new ConcurrentHashMap<>();
+
+    public ServicioRetencionesStock(ProductoRepository productoRepository,
+                                    RuedaTemporalJerarquica rueda,
+                                    Duration duracionRetencion) {
+        this.productoRepository = productoRepository;
+        this.rueda = rueda;
+        this.duracionRetencion = duracionRetencion;
+    }
+
+    public void retener(String idCarrito, String idProducto, int cantidad) {
+        // Descuento condicional en el repositorio; lanza StockInsuficienteException si no alcanza
+        productoRepository.reservarStock(List.of(new ReservaStock(idProducto, cantidad)));
+
+        Map<String, Retencion> retenciones =
+            retencionesPorCarrito.computeIfAbsent(idCarrito, id -> new ConcurrentHashMap<>());
+        retenciones.compute(idProducto, (id, anterior) -> {
+            int total = cantidad;
+            // Si la retención anterior ya venció, su stock ya fue devuelto
+            if (anterior != null && rueda.cancelar(anterior.temporizador)) {
+                total += anterior.cantidad;
+            }
+            long vence = System.currentTimeMillis() + duracionRetencion.toMillis();
+            return programar(idCarrito, new Retencion(id, total, vence));
+        });
+    }
+
+    /**
+     * Devuelve "cantidad" unidades recién retenidas (el carrito no se pudo
+     * guardar). El resto de la retención conserva su vencimiento.
+     */
+    public void deshacer(String idCarrito, String idProducto, int cantidad) {
+        Map<String, Retencion> retenciones = retencionesPorCarrito.get(idCarrito);
+        if (retenciones == null) {
+            return;
+        }
+        int[] devuelto = new int[1];
+        retenciones.computeIfPresent(idProducto, (id, actual) -> {
+            if (!rueda.cancelar(actual.temporizador)) {
+                return actual; // ya venció: su stock ya fue devuelto
+            }
+            devuelto[0] = Math.min(cantidad, actual.cantidad);
+            int resto = actual.cantidad - devuelto[0];
+            return resto == 0 ? null : programar(idCarrito, new Retencion(id, resto, actual.vence));
+        });
+        if (devuelto[0] > 0) {
+            productoRepository.liberarStock(List.of(new ReservaStock(idProducto, devuelto[0])));
+        }
+    }
+
+    /**
+     * Convierte las retenciones del carrito en reservas definitivas. Un
+     * carrito puede tener varias líneas del mismo producto y una sola
+     * retención por producto, así que las cantidades se agrupan antes. Lo que
+     * falte respecto de lo retenido (por ejemplo, porque venció) se reserva de
+     * nuevo; lo retenido de más se devuelve.
+     */
+    public void consolidar(String idCarrito, List<ItemCarrito> items) {
+        Map<String, Retencion> retenciones = retencionesPorCarrito.remove(idCarrito);
+        List<ReservaStock> retenidas = new ArrayList<>();
+        List<ReservaStock> pendientes = new ArrayList<>();
+        List<ReservaStock> sobrantes = new ArrayList<>();
+        agruparPorProducto(items).forEach((idProducto, cantidad) -> {
+            Retencion retencion = retenciones != null ? retenciones.remove(idProducto) : null;
+            int retenido = retencion != null && rueda.cancelar(retencion.temporizador) ? retencion.cantidad : 0;
+            if (retenido > 0) {
+                retenidas.add(new ReservaStock(idProducto, retenido));
+            }
+            if (cantidad > retenido) {
+                pendientes.add(new ReservaStock(idProducto, cantidad - retenido));
+            } else if (retenido > cantidad) {
+                sobrantes.add(new ReservaStock(idProducto, retenido - cantidad));
+            }
+        });
+        // Retenciones de productos que ya no están en el carrito
+        if (retenciones != null) {
+            retenciones.values().forEach(retencion -> {
+                if (rueda.cancelar(retencion.temporizador)) {
+                    retenidas.add(new ReservaStock(retencion.idProducto, retencion.cantidad));
+                    sobrantes.add(new ReservaStock(retencion.idProducto, retencion.cantidad));
+                }
+            });
+        }
+        if (!pendientes.isEmpty()) {
+            try {
+                // Todo lo que falta o nada
+                productoRepository.reservarStock(pendientes);
+            } catch (RuntimeException e) {
+                // Sin pedido, todo lo retenido vuelve al catálogo
+                if (!retenidas.isEmpty()) {
+                    productoRepository.liberarStock(retenidas);
+                }
+                throw e;
+            }
+        }
+        if (!sobrantes.isEmpty()) {
+            productoRepository.liberarStock(sobrantes);
+        }
+    }
+
+    /**
+     * Devuelve el stock que consolidar convirtió en reserva cuando el pedido
+     * no se pudo guardar.
+     */
+    public void liberarConsolidado(List<ItemCarrito> items) {
+        List<ReservaStock> reservas = new ArrayList<>();
+        agruparPorProducto(items).forEach((idProducto, cantidad) ->
+            reservas.add(new ReservaStock(idProducto, cantidad)));
+        if (!reservas.isEmpty()) {
+            productoRepository.liberarStock(reservas);
+        }
+    }
+
+    public void liberar(String idCarrito) {
+        Map<String, Retencion> retenciones = retencionesPorCarrito.remove(idCarrito);
+        if (retenciones == null) {
+            return;
+        }
+        retenciones.values().forEach(retencion -> {
+            if (rueda.cancelar(retencion.temporizador)) {
+                devolverStock(retencion);
+            }
+        });
+    }
+
+    private void vencer(String idCarrito, Retencion retencion) {
+        Map<String, Retencion> retenciones = retencionesPorCarrito.get(idCarrito);
+        if (retenciones != null) {
+            retenciones.remove(retencion.idProducto, retencion);
+        }
+        devolverStock(retencion);
+    }
+
+    private Retencion programar(String idCarrito, Retencion retencion) {
+        retencion.temporizador = rueda.programar(retencion.vence, () -> vencer(idCarrito, retencion));
+        return retencion;
+    }
+
+    private static Map<String, Integer> agruparPorProducto(List<ItemCarrito> items) {
+        Map<String, Integer> cantidades = new LinkedHashMap<>();
+        for (ItemCarrito item : items) {
+            cantidades.merge(item.getProducto().getId(), item.getCantidad(), Integer::sum);
+        }
+        return cantidades;
+    }
+
+    // Incremento condicional en el repositorio, no un guardar de una copia vieja
+    private void devolverStock(Retencion retencion) {
+        productoRepository.liberarStock(List.of(new ReservaStock(retencion.idProducto, retencion.cantidad)));
+    }
+
+    private static class Retencion {
+        private final String idProducto;
+        private final int cantidad;
+        private final long vence;
+        private RuedaTemporalJerarquica.Temporizador temporizador;
+
+        Retencion(String idProducto, int cantidad, long vence) {
+            this.idProducto = idProducto;
+            this.cantidad = cantidad;
+            this.vence = vence;
+        }
+    }
+}
+
+/*
+3. Casos de Uso con Retenciones
+Agregar al carrito ya no solo consulta el stock: lo retiene. Crear el pedido
+consolida las retenciones en lugar de reservar desde cero.
+*/
+// application/usecases/
+public class AgregarProductoAlCarritoUseCase {
+    private final CarritoRepository carritoRepository;
+    private final ProductoRepository productoRepository;
+    private final ServicioRetencionesStock retenciones;
+
+    public AgregarProductoAlCarritoUseCase(CarritoRepository carritoRepository,
+                                         ProductoRepository productoRepository,
+                                         ServicioRetencionesStock retenciones) {
+        this.carritoRepository = carritoRepository;
+        this.productoRepository = productoRepository;
+        this.retenciones = retenciones;
+    }
+
+    public void ejecutar(String idCliente, String idProducto, int cantidad) {
+        if (cantidad <= 0) {
+            throw new IllegalArgumentException("La cantidad debe ser positiva");
+        }
+
+        // 1. Buscar producto
+        Producto producto = productoRepository.buscarPorId(idProducto)
+            .orElseThrow(() -> new ProductoNoEncontradoException(idProducto));
+
+        // 2. Agregar al carrito (copia local: nada se publica hasta guardar).
+        //    Valida contra el stock leído antes de retener; retener después
+        //    haría fallar la validación con el stock ya descontado
+        Carrito carrito = carritoRepository.buscarPorCliente(idCliente)
+            .orElse(new Carrito(idCliente));
+        carrito.agregarItem(producto, cantidad);
+
+        // 3. Retener stock (lanza StockInsuficienteException si otro cliente se adelantó)
+        retenciones.retener(idCliente, idProducto, cantidad);
+
+        // 4. Guardar; si falla, la retención recién tomada no queda colgada
+        try {
+            carritoRepository.guardar(carrito);
+        } catch (RuntimeException e) {
+            retenciones.deshacer(idCliente, idProducto, cantidad);
+            throw e;
+        }
+    }
+}
+
+// application/usecases/
+public class CrearPedidoUseCase {
+    private final CarritoRepository carritoRepository;
+    private final PedidoRepository pedidoRepository;
+    private final ServicioRetencionesStock retenciones;
+    private final GeneradorIds generadorIds;
+
+    public CrearPedidoUseCase(CarritoRepository carritoRepository,
+                            PedidoRepository pedidoRepository,
+                            ServicioRetencionesStock retenciones,
+                            GeneradorIds generadorIds) {
+        this.carritoRepository = carritoRepository;
+        this.pedidoRepository = pedidoRepository;
+        this.retenciones = retenciones;
+        this.generadorIds = generadorIds;
+    }
+
+    public Pedido ejecutar(String idCliente) {
+        // 1. Buscar carrito
+        Carrito carrito = carritoRepository.buscarPorCliente(idCliente)
+            .orElseThrow(() -> new CarritoNoEncontradoException(idCliente));
+
+        // 2. Crear pedido desde carrito
+        Pedido pedido = carrito.crearPedido(generadorIds);
+
+        // 3. Consolidar las retenciones: el stock deja de vencer
+        retenciones.consolidar(idCliente, carrito.getItems());
+
+        // 4. Guardar pedido; si falla, el stock consolidado ya no vence y
+        //    quedaría bloqueado: se devuelve antes de propagar el error
+        try {
+            pedidoRepository.guardar(pedido);
+        } catch (RuntimeException e) {
+            retenciones.liberarConsolidado(carrito.getItems());
+            throw e;
+        }
+
+        // 5. Limpiar carrito
+        carritoRepository.eliminar(idCliente);
+
+        return pedido;
+    }
+}
+
+//4. Pruebas: sin stock retenido dos veces ni bloqueado sin pedido
+@ExtendWith(MockitoExtension.class)
+class CrearPedidoConRetencionesTest {
+
+    @Mock
+    private CarritoRepository carritoRepository;
+
+    @Mock
+    private PedidoRepository pedidoRepository;
+
+    @Mock
+    private ProductoRepository productoRepository;
+
+    @Mock
+    private GeneradorIds generadorIds;
+
+    private final RuedaTemporalJerarquica rueda = new RuedaTemporalJerarquica(100, System.currentTimeMillis());
+    private ServicioRetencionesStock retenciones;
+    private CrearPedidoUseCase useCase;
+    private Carrito carrito;
+
+    @BeforeEach
+    void setUp() {
+        retenciones = new ServicioRetencionesStock(productoRepository, rueda, Duration.ofMinutes(15));
+        useCase = new CrearPedidoUseCase(carritoRepository, pedidoRepository, retenciones, generadorIds);
+        when(generadorIds.siguienteUuid()).thenReturn(UUID.randomUUID());
+
+        // Dos líneas del mismo producto (agregarItem agrega líneas): una sola retención de 5
+        Producto producto = new Producto("prod-1", "Teclado", 30.00, 10);
+        carrito = new Carrito("cliente-1");
+        carrito.agregarItem(producto, 2);
+        retenciones.retener("cliente-1", "prod-1", 2);
+        carrito.agregarItem(producto, 3);
+        retenciones.retener("cliente-1", "prod-1", 3);
+        when(carritoRepository.buscarPorCliente("cliente-1")).thenReturn(Optional.of(carrito));
+    }
+
+    @Test
+    @DisplayName("Con dos líneas del mismo producto debería consolidar una vez sin volver a reservar")
+    void testConsolidar_LineasRepetidas() {
+        // When
+        useCase.ejecutar("cliente-1");
+
+        // Then - solo las dos retenciones reservaron stock; nada se devuelve
+        verify(productoRepository, times(2)).reservarStock(anyList());
+        verify(productoRepository, never()).liberarStock(anyList());
+        verify(carritoRepository).eliminar("cliente-1");
+    }
+
+    @Test
+    @DisplayName("Si el pedido no se guarda debería devolver el stock consolidado")
+    void testGuardarPedidoFalla_LiberaStock() {
+        // Given
+        doThrow(new IllegalStateException("base de datos caída")).when(pedidoRepository).guardar(any());
+
+        // When
+        assertThrows(IllegalStateException.class, () -> useCase.ejecutar("cliente-1"));
+
+        // Then - se devuelven exactamente las 5 unidades, en una sola línea
+        verify(productoRepository).liberarStock(argThat(reservas -> reservas.size() == 1
+            && reservas.get(0).getIdProducto().equals("prod-1")
+            && reservas.get(0).getCantidad() == 5));
+        verify(productoRepository, times(2)).reservarStock(anyList());
+        verify(carritoRepository, never()).eliminar(any());
+    }
+}
+
+//5. Configuración: un único hilo avanza la rueda
+// infrastructure/config/
+@Configuration
+public class RetencionesConfig {
+
+    @Bean
+    public RuedaTemporalJerarquica ruedaRetenciones() {
+        RuedaTemporalJerarquica rueda = new RuedaTemporalJerarquica(100, System.currentTimeMillis());
+        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(
+            () -> rueda.avanzar(System.currentTimeMillis()), 100, 100, TimeUnit.MILLISECONDS);
+        return rueda;
+    }
+
+    @Bean
+    public ServicioRetencionesStock servicioRetencionesStock(ProductoRepository productoRepository,
+                                                             RuedaTemporalJerarquica ruedaRetenciones) {
+        return new ServicioRetencionesStock(productoRepository, ruedaRetenciones, Duration.ofMinutes(15));
+    }
+}
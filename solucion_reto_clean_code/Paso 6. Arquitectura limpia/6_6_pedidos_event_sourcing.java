@@ -0,0 +1,467 @@
+/*
+Persistencia de Pedidos con Event Sourcing
+
+Problema: PedidoRepository.guardar sobrescribe el Pedido completo en cada
+cambio de estado. Se pierde el historial y cada cambio reescribe la fila.
+
+Solución: en lugar de guardar el estado, se guardan los hechos.
+- Registro de eventos solo-anexar (append-only), dividido en segmentos de
+  tamaño fijo: PEDIDO_CREADO y ESTADO_CAMBIADO.
+- Se registran las transiciones reales que aplicó la máquina de estados del
+  Pedido (su gancho de transiciones), no la diferencia entre dos guardados:
+  CONFIRMADO -> PAGADO -> ENVIADO entre dos guardar() son dos eventos.
+- Escritura agrupada (group commit): los guardar() concurrentes comparten
+  un mismo force, y solo se bloquean entre sí los del mismo pedido.
+- Proyecciones en memoria actualizadas de forma incremental con cada evento:
+  estado actual por pedido y lista de pedidos por cliente.
+- Al arrancar, las proyecciones se reconstruyen leyendo los segmentos en
+  paralelo. Cada evento lleva un número de secuencia global, por lo que el
+  resultado no depende del orden en que terminen los hilos.
+
+El caso de uso sigue usando la interfaz PedidoRepository; solo cambia el adaptador.
+*/
+
+//1. Eventos del Dominio
+// domain/events/
+public final class EventoPedido {
+    public enum Tipo { PEDIDO_CREADO, ESTADO_CAMBIADO }
+
+    private final long secuencia;
+    private final Tipo tipo;
+    private final String idPedido;
+    private final String idCliente;   // solo en PEDIDO_CREADO
+    private final double total;       // solo en PEDIDO_CREADO
+    private final Pedido.EstadoPedido estadoAnterior; // en PEDIDO_CREADO, igual a estado
+    private final Pedido.EstadoPedido estado;
+
+    public EventoPedido(long secuencia, Tipo tipo, String idPedido, String idCliente,
+                        double total, Pedido.EstadoPedido estadoAnterior, Pedido.EstadoPedido estado) {
+        this.secuencia = secuencia;
+        this.tipo = tipo;
+        this.idPedido = idPedido;
+        this.idCliente = idCliente;
+        this.total = total;
+        this.estadoAnterior = estadoAnterior;
+        this.estado = estado;
+    }
+
+    public static EventoPedido creado(String idPedido, String idCliente, double total,
+                                      Pedido.EstadoPedido estado) {
+        return new EventoPedido(0, Tipo.PEDIDO_CREADO, idPedido, idCliente, total, estado, estado);
+    }
+
+    public static EventoPedido cambio(String idPedido, Pedido.EstadoPedido anterior,
+                                      Pedido.EstadoPedido nuevo) {
+        return new EventoPedido(0, Tipo.ESTADO_CAMBIADO, idPedido, null, 0, anterior, nuevo);
+    }
+
+    // El registro asigna la secuencia al anexar
+    EventoPedido conSecuencia(long secuencia) {
+        return new EventoPedido(secuencia, tipo, idPedido, idCliente, total, estadoAnterior, estado);
+    }
+
+    // Getters
+}
+
+/*
+2. Registro de Eventos Segmentado
+Formato de cada registro: longitud (int) + cuerpo + CRC32 del cuerpo.
+Un registro incompleto al final del último segmento (caída a mitad de una
+escritura) se descarta al leer, igual que una longitud imposible.
+
+anexar escribe bajo el lock y fuerza fuera de él: quien llega al force
+con registros de otros hilos ya escritos los lleva a disco junto con el
+suyo. Los bytes se cuentan en forma continua entre segmentos; al rotar,
+el segmento que se cierra se fuerza completo.
+*/
+// infrastructure/persistence/
+public class RegistroEventosPedido implements Closeable {
+    private static final long TAMANO_SEGMENTO = 64L * 1024 * 1024;
+    // secuencia + tipo + dos textos vacíos + total + dos estados
+    private static final int CUERPO_MINIMO = 8 + 1 + 2 + 2 + 8 + 1 + 1;
+
+    private final Path directorio;
+    private final AtomicLong secuencia = new AtomicLong();
+    private final Object bloqueoForzado = new Object();
+    // Escritura: protegidos por "this"
+    private FileChannel segmentoActual;
+    private int numeroSegmento;
+    private long escritos;
+    // Durabilidad: avanza solo hacia adelante (force o rotación)
+    private final AtomicLong forzados = new AtomicLong();
+
+    public RegistroEventosPedido(Path directorio) throws IOException {
+        this.directorio = Files.createDirectories(directorio);
+        List<Path> segmentos = segmentos();
+        this.numeroSegmento = segmentos.isEmpty() ? 0 : segmentos.size() - 1;
+        this.segmentoActual = abrirSegmento(numeroSegmento);
+        // Descarta un registro incompleto que haya dejado una caída
+        segmentoActual.truncate(leerSegmento(rutaSegmento(numeroSegmento), evento -> { }));
+    }
+
+    // Anexa los eventos en orden y vuelve cuando están en disco
+    public List<EventoPedido> anexar(List<EventoPedido> borradores) throws IOException {
+        List<EventoPedido> eventos = new ArrayList<>(borradores.size());
+        long fin;
+        synchronized (this) {
+            for (EventoPedido borrador : borradores) {
+                EventoPedido evento = borrador.conSecuencia(secuencia.incrementAndGet());
+                escribir(evento);
+                eventos.add(evento);
+            }
+            fin = escritos;
+        }
+        forzarHasta(fin);
+        return eventos;
+    }
+
+    private void escribir(EventoPedido evento) throws IOException {
+        byte[] cuerpo = serializar(evento);
+        CRC32 crc = new CRC32();
+        crc.update(cuerpo);
+
+        if (segmentoActual.size() + cuerpo.length + 8 > TAMANO_SEGMENTO) {
+            // Lo escrito hasta aquí queda durable antes de cerrar el segmento
+            segmentoActual.force(false);
+            forzados.accumulateAndGet(escritos, Math::max);
+            segmentoActual.close();
+            segmentoActual = abrirSegmento(++numeroSegmento);
+        }
+        ByteBuffer registro = ByteBuffer.allocate(cuerpo.length + 8);
+        registro.putInt(cuerpo.length).put(cuerpo).putInt((int) crc.getValue()).flip();
+        while (registro.hasRemaining()) {
+            escritos += segmentoActual.write(registro);
+        }
+    }
+
+    // Orden de bloqueo: bloqueoForzado y luego "this" (solo para leer la posición)
+    private void forzarHasta(long fin) throws IOException {
+        if (forzados.get() >= fin) {
+            return;
+        }
+        synchronized (bloqueoForzado) {
+            if (forzados.get() >= fin) {
+                return; // otro hilo ya forzó nuestros registros junto con los suyos
+            }
+            FileChannel canal;
+            long objetivo;
+            synchronized (this) {
+                canal = segmentoActual;
+                objetivo = escritos;
+            }
+            try {
+                canal.force(false);
+            } catch (ClosedChannelException e) {
+                // El segmento rotó mientras tanto: la rotación ya lo forzó completo
+            }
+            forzados.accumulateAndGet(objetivo, Math::max);
+        }
+    }
+
+    public List<Path> segmentos() throws IOException {
+        try (Stream<Path> archivos = Files.list(directorio)) {
+            return archivos.filter(p -> p.getFileName().toString().endsWith(".log"))
+                           .sorted()
+                           .collect(Collectors.toList());
+        }
+    }
+
+    // Entrega cada evento válido al consumidor y devuelve cuántos bytes válidos tiene el segmento
+    public static long leerSegmento(Path segmento, Consumer<EventoPedido> consumidor) throws IOException {
+        long tamano = Files.size(segmento);
+        long bytesValidos = 0;
+        try (DataInputStream entrada = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(segmento)))) {
+            while (true) {
+                byte[] cuerpo;
+                int crcGuardado;
+                try {
+                    int longitud = entrada.readInt();
+                    if (longitud < CUERPO_MINIMO || longitud > tamano - bytesValidos - 8) {
+                        return bytesValidos; // longitud dañada: lo que sigue no es confiable
+                    }
+                    cuerpo = new byte[longitud];
+                    entrada.readFully(cuerpo);
+                    crcGuardado = entrada.readInt();
+                } catch (EOFException e) {
+                    return bytesValidos; // fin del segmento o registro truncado
+                }
+                CRC32 crc = new CRC32();
+                crc.update(cuerpo);
+                if ((int) crc.getValue() != crcGuardado) {
+                    return bytesValidos; // escritura incompleta: se ignora el resto
+                }
+                consumidor.accept(deserializar(cuerpo));
+                bytesValidos += cuerpo.length + 8;
+            }
+        }
+    }
+
+    // Llamado tras la reconstrucción para continuar la numeración
+    public void continuarDesde(long ultimaSecuencia) {
+        secuencia.accumulateAndGet(ultimaSecuencia, Math::max);
+    }
+
+    private Path rutaSegmento(int numero) {
+        return directorio.resolve(String.format("segmento-%08d.log", numero));
+    }
+
+    private FileChannel abrirSegmento(int numero) throws IOException {
+        return FileChannel.open(rutaSegmento(numero), StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static byte[] serializar(EventoPedido evento) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream salida = new DataOutputStream(bytes);
+        salida.writeLong(evento.getSecuencia());
+        salida.writeByte(evento.getTipo().ordinal());
+        salida.writeUTF(evento.getIdPedido());
+        salida.writeUTF(evento.getIdCliente() != null ? evento.getIdCliente() : "");
+        salida.writeDouble(evento.getTotal());
+        salida.writeByte(evento.getEstadoAnterior().ordinal());
+        salida.writeByte(evento.getEstado().ordinal());
+        return bytes.toByteArray();
+    }
+
+    private static EventoPedido deserializar(byte[] cuerpo) throws IOException {
+        DataInputStream entrada = new DataInputStream(new ByteArrayInputStream(cuerpo));
+        long secuencia = entrada.readLong();
+        EventoPedido.Tipo tipo = EventoPedido.Tipo.values()[entrada.readByte()];
+        String idPedido = entrada.readUTF();
+        String idCliente = entrada.readUTF();
+        double total = entrada.readDouble();
+        Pedido.EstadoPedido anterior = Pedido.EstadoPedido.values()[entrada.readByte()];
+        Pedido.EstadoPedido estado = Pedido.EstadoPedido.values()[entrada.readByte()];
+        return new EventoPedido(secuencia, tipo, idPedido, idCliente.isEmpty() ? null : idCliente,
+                                total, anterior, estado);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (bloqueoForzado) {
+            synchronized (this) {
+                segmentoActual.force(false);
+                segmentoActual.close();
+            }
+        }
+    }
+}
+
+/*
+3. Proyecciones en Memoria
+Cada proyección aplica un evento en O(1). Como se comparan números de
+secuencia, los eventos pueden llegar en cualquier orden (reconstrucción en
+paralelo) y el resultado es el mismo.
+*/
+// infrastructure/persistence/
+public class ProyeccionesPedido {
+    private final ConcurrentHashMap<String, VistaPedido> pedidos = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<Long, String>> pedidosPorCliente =
+        new ConcurrentHashMap<>();
+
+    public void aplicar(EventoPedido evento) {
+        pedidos.merge(evento.getIdPedido(), VistaPedido.desde(evento), VistaPedido::combinar);
+        if (evento.getTipo() == EventoPedido.Tipo.PEDIDO_CREADO) {
+            pedidosPorCliente
+                .computeIfAbsent(evento.getIdCliente(), id -> new ConcurrentSkipListMap<>())
+                .put(evento.getSecuencia(), evento.getIdPedido());
+        }
+    }
+
+    public Optional<VistaPedido> pedido(String idPedido) {
+        return Optional.ofNullable(pedidos.get(idPedido));
+    }
+
+    // Pedidos del cliente en orden de creación
+    public List<String> pedidosDeCliente(String idCliente) {
+        ConcurrentSkipListMap<Long, String> ids = pedidosPorCliente.get(idCliente);
+        return ids == null ? List.of() : new ArrayList<>(ids.values());
+    }
+
+    public long ultimaSecuencia() {
+        return pedidos.values().stream().mapToLong(VistaPedido::getSecuencia).max().orElse(0);
+    }
+
+    // Estado actual de un pedido: datos de creación + último estado conocido
+    public static final class VistaPedido {
+        private final String idPedido;
+        private final String idCliente;
+        private final double total;
+        private final Pedido.EstadoPedido estado;
+        private final long secuencia;
+
+        private VistaPedido(String idPedido, String idCliente, double total,
+                            Pedido.EstadoPedido estado, long secuencia) {
+            this.idPedido = idPedido;
+            this.idCliente = idCliente;
+            this.total = total;
+            this.estado = estado;
+            this.secuencia = secuencia;
+        }
+
+        static VistaPedido desde(EventoPedido evento) {
+            return new VistaPedido(evento.getIdPedido(), evento.getIdCliente(), evento.getTotal(),
+                                   evento.getEstado(), evento.getSecuencia());
+        }
+
+        // Datos de creación de quien los tenga; estado del evento más reciente
+        static VistaPedido combinar(VistaPedido a, VistaPedido b) {
+            VistaPedido reciente = a.secuencia >= b.secuencia ? a : b;
+            VistaPedido creacion = a.idCliente != null ? a : b;
+            return new VistaPedido(reciente.idPedido, creacion.idCliente, creacion.total,
+                                   reciente.estado, reciente.secuencia);
+        }
+
+        // Getters
+    }
+}
+
+/*
+4. Adaptador del Repositorio
+guardar() ya no reescribe el pedido: anexa las transiciones que el pedido
+aplicó desde que se leyó o se guardó. Pedido expone getIdCliente(), una
+fábrica reconstruir(...) para rehidratarlo sin volver a validar transiciones
+y el gancho agregarOyente de su máquina de estados (ver
+reto_clean_code/java/domain/Pedido.java). Cada pedido que entrega o guarda
+el repositorio lleva un oyente que anota sus transiciones.
+
+Las transiciones anotadas se descartan recién después de anexarlas: si el
+registro falla (o el cambio se rechaza), siguen pendientes y el próximo
+guardar() las vuelve a intentar en lugar de perderlas.
+
+Si la primera transición anotada no parte del estado registrado, otra copia
+del mismo pedido se guardó antes: guardar() rechaza el cambio en lugar de
+pisarlo.
+*/
+// infrastructure/persistence/
+@Repository
+public class PedidoRepositoryEventSourcing implements PedidoRepository {
+    private static final int FRANJAS = 1024;
+
+    private final RegistroEventosPedido registro;
+    private final ProyeccionesPedido proyecciones = new ProyeccionesPedido();
+    // Un lock por franja de ids: solo compiten los guardar() del mismo pedido (o franja)
+    private final Object[] franjas = new Object[FRANJAS];
+    // Pedidos entregados por el repositorio y sus transiciones aún no registradas
+    private final Map<Pedido, TransicionesPendientes> seguidos =
+        Collections.synchronizedMap(new WeakHashMap<>());
+
+    public PedidoRepositoryEventSourcing(RegistroEventosPedido registro) throws IOException {
+        this.registro = registro;
+        Arrays.setAll(franjas, i -> new Object());
+        reconstruirProyecciones();
+    }
+
+    @Override
+    public Optional<Pedido> buscarPorId(String id) {
+        return proyecciones.pedido(id)
+            .map(vista -> seguir(Pedido.reconstruir(vista.getIdPedido(), vista.getIdCliente(),
+                                                    vista.getTotal(), vista.getEstado())));
+    }
+
+    public List<String> buscarIdsPorCliente(String idCliente) {
+        return proyecciones.pedidosDeCliente(idCliente);
+    }
+
+    @Override
+    public void guardar(Pedido pedido) {
+        TransicionesPendientes pendientes = seguidos.get(pedido);
+        synchronized (franjas[(pedido.getId().hashCode() & 0x7fffffff) % FRANJAS]) {
+            Optional<ProyeccionesPedido.VistaPedido> actual = proyecciones.pedido(pedido.getId());
+            // Se leen sin quitarlas: se descartan solo si el registro las acepta
+            List<Pedido.EstadoPedido[]> transiciones = pendientes != null ? pendientes.ver() : List.of();
+            List<EventoPedido> borradores;
+            if (actual.isEmpty()) {
+                // Las transiciones anotadas ya están incluidas en el estado de creación
+                borradores = List.of(EventoPedido.creado(pedido.getId(), pedido.getIdCliente(),
+                                                         pedido.getTotal(), pedido.getEstado()));
+            } else if (pendientes != null) {
+                borradores = transicionesDesde(actual.get().getEstado(), pedido.getId(), transiciones);
+            } else {
+                // Un pedido que no pasó por este repositorio: solo se conoce su estado final
+                borradores = diferenciaDesde(actual.get().getEstado(), pedido);
+            }
+            if (!borradores.isEmpty()) {
+                try {
+                    registro.anexar(borradores).forEach(proyecciones::aplicar);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("No se pudo registrar el evento del pedido " + pedido.getId(), e);
+                }
+            }
+            if (pendientes != null) {
+                pendientes.descartar(transiciones.size());
+            }
+        }
+        if (pendientes == null) {
+            seguir(pedido);
+        }
+    }
+
+    private List<EventoPedido> transicionesDesde(Pedido.EstadoPedido registrado, String idPedido,
+                                                 List<Pedido.EstadoPedido[]> transiciones) {
+        List<EventoPedido> borradores = new ArrayList<>(transiciones.size());
+        Pedido.EstadoPedido esperado = registrado;
+        for (Pedido.EstadoPedido[] transicion : transiciones) {
+            if (transicion[0] != esperado) {
+                throw new CambioEstadoInvalidoException(
+                    "El pedido " + idPedido + " cambió a " + registrado + " desde que se leyó");
+            }
+            borradores.add(EventoPedido.cambio(idPedido, transicion[0], transicion[1]));
+            esperado = transicion[1];
+        }
+        return borradores;
+    }
+
+    private static List<EventoPedido> diferenciaDesde(Pedido.EstadoPedido registrado, Pedido pedido) {
+        if (registrado == pedido.getEstado()) {
+            return List.of();
+        }
+        if (!registrado.puedeCambiarA(pedido.getEstado())) {
+            throw new CambioEstadoInvalidoException(
+                "El pedido " + pedido.getId() + " no puede pasar de " + registrado + " a " + pedido.getEstado());
+        }
+        return List.of(EventoPedido.cambio(pedido.getId(), registrado, pedido.getEstado()));
+    }
+
+    private Pedido seguir(Pedido pedido) {
+        TransicionesPendientes pendientes = new TransicionesPendientes();
+        pedido.agregarOyente(pendientes);
+        seguidos.put(pedido, pendientes);
+        return pedido;
+    }
+
+    // Oyente de transiciones: solo anota (corre en el hilo que ganó el cambio)
+    private static final class TransicionesPendientes implements Pedido.OyenteTransicion {
+        private final ConcurrentLinkedQueue<Pedido.EstadoPedido[]> transiciones = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void alCambiarEstado(Pedido pedido, Pedido.EstadoPedido anterior, Pedido.EstadoPedido nuevo) {
+            transiciones.add(new Pedido.EstadoPedido[] { anterior, nuevo });
+        }
+
+        // Copia en orden, sin quitarlas; las que lleguen mientras tanto quedan al final
+        List<Pedido.EstadoPedido[]> ver() {
+            return new ArrayList<>(transiciones);
+        }
+
+        // Quita las primeras "cantidad", ya registradas (se llama bajo el lock del pedido)
+        void descartar(int cantidad) {
+            for (int i = 0; i < cantidad; i++) {
+                transiciones.poll();
+            }
+        }
+    }
+
+    // Reproducción paralela: un hilo por segmento sobre las mismas proyecciones
+    private void reconstruirProyecciones() throws IOException {
+        registro.segmentos().parallelStream().forEach(segmento -> {
+            try {
+                RegistroEventosPedido.leerSegmento(segmento, proyecciones::aplicar);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Segmento ilegible: " + segmento, e);
+            }
+        });
+        registro.continuarDesde(proyecciones.ultimaSecuencia());
+    }
+}
@@ -0,0 +1,520 @@
+/*
+Catálogo en Memoria con Índices Secundarios
+
+Problema: ProductoRepository.buscarTodos() devuelve el catálogo completo y
+cada filtro (rango de precio, con stock, nombre que empieza con...) recorre
+la lista en quien llama. Con 5 millones de productos cada listado es un
+recorrido completo.
+
+Solución: un adaptador de ProductoRepository que mantiene tres índices
+secundarios y los combina en las consultas:
+- Índice de precios ordenado: arreglo long[] de claves (precio en centavos,
+  posición) más un conjunto pequeño de cambios recientes que se fusiona
+  cuando crece. Un rango se resuelve con búsqueda binaria.
+- Mapa de bits de productos con stock (BitSet por posición).
+- Índice de nombres ordenado (nombre normalizado en minúsculas): un prefijo
+  es un rango contiguo que se ubica con búsqueda binaria.
+
+Cada consulta usa como "conductor" el índice con menos candidatos (el de
+nombres y el de precios saben contarlos sin recorrerlos), filtra con los
+demás y se detiene al llegar al límite pedido: el costo depende del tamaño
+del resultado, no del catálogo.
+
+El stock solo cambia a través del repositorio (reservarStock/liberarStock),
+que mantiene el mapa de bits al día; el filtro igual confirma el stock real
+del producto antes de incluirlo.
+
+El repositorio también mantiene la copia columnar del catálogo para los
+recorridos analíticos (domain/CatalogoColumnar: valor del stock, stock bajo,
+distribución de precios): cada guardado registra la fila y cada reserva o
+liberación escribe el stock que dejó el CAS, así los recorridos no ven un
+stock anterior a la última operación confirmada.
+*/
+
+//1. Criterios de Consulta (Objeto de Valor)
+// domain/valueobjects/
+public final class ConsultaCatalogo {
+    private final Double precioMinimo;
+    private final Double precioMaximo;
+    private final boolean soloConStock;
+    private final String prefijoNombre;
+    private final int limite;
+
+    public ConsultaCatalogo(Double precioMinimo, Double precioMaximo,
+                            boolean soloConStock, String prefijoNombre, int limite) {
+        if (limite <= 0) {
+            throw new IllegalArgumentException("El límite debe ser positivo");
+        }
+        this.precioMinimo = precioMinimo;
+        this.precioMaximo = precioMaximo;
+        this.soloConStock = soloConStock;
+        this.prefijoNombre = prefijoNombre;
+        this.limite = limite;
+    }
+
+    // Getters
+}
+
+//2. Adaptador con Índices
+// infrastructure/persistence/
+public class ProductoRepositoryIndexado implements ProductoRepository {
+    private static final int CAMBIOS_ANTES_DE_FUSIONAR = 65_536;
+    private static final long MAXIMO_CENTAVOS = Long.MAX_VALUE >>> 32;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> posiciones = new HashMap<>();
+    private Producto[] productos = new Producto[1024];
+    private long[] preciosCentavos = new long[1024];
+    private String[] nombresIndexados = new String[1024];
+    private int totalProductos;
+
+    // Índices secundarios
+    private long[] clavesPrecio = new long[0];              // ordenadas: (centavos << 32) | posición
+    private final TreeSet<Long> clavesPrecioRecientes = new TreeSet<>();
+    private final BitSet conStock = new BitSet();
+    private final IndiceNombres nombres = new IndiceNombres();
+
+    // Copia columnar para recorridos analíticos; se escribe bajo el mismo lock
+    private final CatalogoColumnar analitico = new CatalogoColumnar();
+
+    @Override
+    public Optional<Producto> buscarPorId(String id) {
+        lock.readLock().lock();
+        try {
+            Integer posicion = posiciones.get(id);
+            return posicion == null ? Optional.empty() : Optional.of(productos[posicion]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Producto> buscarTodos() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(Arrays.asList(productos).subList(0, totalProductos));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void guardar(Producto producto) {
+        lock.writeLock().lock();
+        try {
+            indexar(producto, false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Carga inicial: indexa todo sin pasar por los cambios recientes ni
+    // fusionar a mitad de la carga, y construye los índices ordenados una sola
+    // vez al final (un ordenamiento por carga, no uno cada 65 536 productos)
+    public void guardarTodos(Collection<Producto> catalogo) {
+        lock.writeLock().lock();
+        try {
+            catalogo.forEach(producto -> indexar(producto, true));
+            reconstruirIndicePrecios();
+            nombres.reconstruir(nombresIndexados, totalProductos);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // La copia se convierte a productos fuera del lock; se indexa de una vez bajo el lock.
+    // Los productos existentes conservan su stock vivo, leído ya bajo el lock
+    // para no perder una reserva hecha mientras se convertía la copia
+    @Override
+    public void guardarCatalogo(CatalogoColumnar catalogo) {
+        List<Producto> productosCargados = new ArrayList<>(catalogo.getTotalProductos());
+        for (int p = 0; p < catalogo.getTotalProductos(); p++) {
+            productosCargados.add(new Producto(catalogo.getId(p), catalogo.getNombre(p),
+                                               catalogo.getPrecioCentavos(p) / 100.0, catalogo.getStock(p)));
+        }
+        lock.writeLock().lock();
+        try {
+            productosCargados.replaceAll(cargado -> {
+                Integer existente = posiciones.get(cargado.getId());
+                return existente == null ? cargado : new Producto(cargado.getId(), cargado.getNombre(),
+                                                                  cargado.getPrecio(), productos[existente].getStock());
+            });
+            guardarTodos(productosCargados);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void reservarStock(List<ReservaStock> reservas) {
+        lock.writeLock().lock();
+        try {
+            Map<String, Integer> cantidades = reservas.stream()
+                .collect(Collectors.toMap(ReservaStock::getIdProducto, ReservaStock::getCantidad,
+                                          Integer::sum, TreeMap::new));
+            for (String id : cantidades.keySet()) {
+                if (!posiciones.containsKey(id)) {
+                    throw new ProductoNoEncontradoException(id);
+                }
+            }
+            // Todo o nada: cada línea se descuenta por CAS (Producto.reservarStock)
+            // y, si una no alcanza, se devuelven las ya descontadas. Verificar
+            // primero y aplicar después no alcanza: quien tenga el Producto
+            // podría cambiar su stock entre una cosa y la otra
+            List<Map.Entry<String, Integer>> aplicadas = new ArrayList<>();
+            try {
+                for (Map.Entry<String, Integer> linea : cantidades.entrySet()) {
+                    productos[posiciones.get(linea.getKey())].reservarStock(linea.getValue());
+                    aplicadas.add(linea);
+                }
+            } catch (StockInsuficienteException e) {
+                aplicadas.forEach(linea ->
+                    productos[posiciones.get(linea.getKey())].liberarStock(linea.getValue()));
+                throw new StockInsuficienteException("No hay suficiente stock para reservar: "
+                    + cantidades.keySet().stream().skip(aplicadas.size()).findFirst().orElse(""));
+            } finally {
+                cantidades.keySet().forEach(id -> actualizarConStock(posiciones.get(id)));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void liberarStock(List<ReservaStock> reservas) {
+        lock.writeLock().lock();
+        try {
+            for (ReservaStock reserva : reservas) {
+                Integer posicion = posiciones.get(reserva.getIdProducto());
+                if (posicion == null) {
+                    throw new ProductoNoEncontradoException(reserva.getIdProducto());
+                }
+                productos[posicion].liberarStock(reserva.getCantidad());
+                actualizarConStock(posicion);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //3. Consultas sobre los índices
+    // Los recorridos analíticos no toman el lock del repositorio; con
+    // escrituras en curso sus resultados son aproximados (ver CatalogoColumnar)
+    public CatalogoColumnar catalogoAnalitico() {
+        return analitico;
+    }
+
+    public List<Producto> buscar(ConsultaCatalogo consulta) {
+        lock.readLock().lock();
+        try {
+            List<Producto> resultado = new ArrayList<>();
+            IntPredicate cumple = filtro(consulta);
+            IntPredicate agregar = posicion -> {
+                if (cumple.test(posicion)) {
+                    resultado.add(productos[posicion]);
+                }
+                return resultado.size() < consulta.getLimite();
+            };
+            // Conductor: entre nombre y precio, el que tenga menos candidatos
+            boolean porNombre = consulta.getPrefijoNombre() != null;
+            boolean porPrecio = consulta.getPrecioMinimo() != null || consulta.getPrecioMaximo() != null;
+            if (porNombre && porPrecio) {
+                int candidatosNombre = nombres.contar(normalizar(consulta.getPrefijoNombre()));
+                porNombre = candidatosNombre <= estimarRangoPrecio(centavosMinimos(consulta), centavosMaximos(consulta));
+                porPrecio = !porNombre;
+            }
+            if (porNombre) {
+                nombres.recorrer(normalizar(consulta.getPrefijoNombre()), nombresIndexados, agregar);
+            } else if (porPrecio) {
+                recorrerRangoPrecio(centavosMinimos(consulta), centavosMaximos(consulta), agregar);
+            } else if (consulta.isSoloConStock()) {
+                int p = conStock.nextSetBit(0);
+                while (p >= 0 && agregar.test(p)) {
+                    p = conStock.nextSetBit(p + 1);
+                }
+            } else {
+                int p = 0;
+                while (p < totalProductos && agregar.test(p)) {
+                    p++;
+                }
+            }
+            return resultado;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Producto> buscarPorRangoPrecio(double minimo, double maximo, int limite) {
+        return buscar(new ConsultaCatalogo(minimo, maximo, false, null, limite));
+    }
+
+    public List<Producto> buscarConStock(int limite) {
+        return buscar(new ConsultaCatalogo(null, null, true, null, limite));
+    }
+
+    public List<Producto> buscarPorPrefijo(String prefijo, int limite) {
+        return buscar(new ConsultaCatalogo(null, null, false, prefijo, limite));
+    }
+
+    private IntPredicate filtro(ConsultaCatalogo consulta) {
+        long minimo = centavosMinimos(consulta);
+        long maximo = centavosMaximos(consulta);
+        String prefijo = consulta.getPrefijoNombre() != null ? normalizar(consulta.getPrefijoNombre()) : null;
+        return posicion -> (!consulta.isSoloConStock()
+                                || (conStock.get(posicion) && productos[posicion].getStock() > 0))
+            && preciosCentavos[posicion] >= minimo
+            && preciosCentavos[posicion] <= maximo
+            && (prefijo == null || nombresIndexados[posicion].startsWith(prefijo));
+    }
+
+    // Fusiona en orden de precio el arreglo base y los cambios recientes;
+    // descarta claves obsoletas (el producto cambió de precio después)
+    private void recorrerRangoPrecio(long minimo, long maximo, IntPredicate visitante) {
+        long desde = minimo << 32;
+        long hasta = (maximo << 32) | 0xFFFFFFFFL;
+        int i = inicioRango(clavesPrecio, desde);
+        Iterator<Long> recientes = clavesPrecioRecientes.subSet(desde, true, hasta, true).iterator();
+        long siguienteReciente = recientes.hasNext() ? recientes.next() : Long.MAX_VALUE;
+        while (true) {
+            long base = i < clavesPrecio.length && clavesPrecio[i] <= hasta ? clavesPrecio[i] : Long.MAX_VALUE;
+            long clave = Math.min(base, siguienteReciente);
+            if (clave == Long.MAX_VALUE) {
+                return;
+            }
+            if (clave == base) {
+                i++;
+            } else {
+                siguienteReciente = recientes.hasNext() ? recientes.next() : Long.MAX_VALUE;
+            }
+            int posicion = (int) clave;
+            if (preciosCentavos[posicion] == (clave >>> 32) && !visitante.test(posicion)) {
+                return;
+            }
+        }
+    }
+
+    // Claves del arreglo base dentro del rango (sin contar los cambios recientes)
+    private int estimarRangoPrecio(long minimo, long maximo) {
+        long hasta = (maximo << 32) | 0xFFFFFFFFL;
+        int fin = hasta == Long.MAX_VALUE ? clavesPrecio.length : inicioRango(clavesPrecio, hasta + 1);
+        return fin - inicioRango(clavesPrecio, minimo << 32);
+    }
+
+    // En bloque, los índices ordenados quedan desactualizados hasta que quien
+    // llama los reconstruye; mientras tanto no se consulta (se tiene el lock)
+    private void indexar(Producto producto, boolean enBloque) {
+        Integer existente = posiciones.get(producto.getId());
+        int posicion = existente != null ? existente : nuevaPosicion(producto.getId());
+        long centavos = Math.round(producto.getPrecio() * 100);
+        String nombre = normalizar(producto.getNombre());
+
+        if (existente == null || preciosCentavos[posicion] != centavos) {
+            preciosCentavos[posicion] = centavos;
+            long clave = (centavos << 32) | posicion;
+            // La clave vieja queda obsoleta; se ignora al recorrer
+            if (!enBloque && Arrays.binarySearch(clavesPrecio, clave) < 0) {
+                clavesPrecioRecientes.add(clave);
+            }
+        }
+        if (existente == null || !nombre.equals(nombresIndexados[posicion])) {
+            // La entrada con el nombre viejo queda obsoleta; se ignora al recorrer
+            nombresIndexados[posicion] = nombre;
+            if (!enBloque) {
+                nombres.agregar(nombre, posicion);
+            }
+        }
+        productos[posicion] = producto;
+        analitico.registrar(producto.getId(), producto.getNombre(), centavos, producto.getStock());
+        actualizarConStock(posicion);
+
+        if (enBloque) {
+            return;
+        }
+        if (clavesPrecioRecientes.size() > CAMBIOS_ANTES_DE_FUSIONAR) {
+            reconstruirIndicePrecios();
+        }
+        if (nombres.getTotalRecientes() > CAMBIOS_ANTES_DE_FUSIONAR) {
+            nombres.reconstruir(nombresIndexados, totalProductos);
+        }
+    }
+
+    private void actualizarConStock(int posicion) {
+        Producto producto = productos[posicion];
+        int stock = producto.getStock();
+        conStock.set(posicion, stock > 0);
+        analitico.actualizarStock(producto.getId(), stock);
+    }
+
+    private int nuevaPosicion(String id) {
+        int posicion = totalProductos++;
+        if (posicion == productos.length) {
+            int capacidad = productos.length * 2;
+            productos = Arrays.copyOf(productos, capacidad);
+            preciosCentavos = Arrays.copyOf(preciosCentavos, capacidad);
+            nombresIndexados = Arrays.copyOf(nombresIndexados, capacidad);
+        }
+        posiciones.put(id, posicion);
+        return posicion;
+    }
+
+    private void reconstruirIndicePrecios() {
+        long[] claves = new long[totalProductos];
+        for (int p = 0; p < totalProductos; p++) {
+            claves[p] = (preciosCentavos[p] << 32) | p;
+        }
+        Arrays.parallelSort(claves);
+        clavesPrecio = claves;
+        clavesPrecioRecientes.clear();
+    }
+
+    private static int inicioRango(long[] claves, long desde) {
+        int i = Arrays.binarySearch(claves, desde);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    private static long centavosMinimos(ConsultaCatalogo consulta) {
+        return consulta.getPrecioMinimo() != null ? Math.round(consulta.getPrecioMinimo() * 100) : 0;
+    }
+
+    private static long centavosMaximos(ConsultaCatalogo consulta) {
+        return consulta.getPrecioMaximo() != null ? Math.round(consulta.getPrecioMaximo() * 100) : MAXIMO_CENTAVOS;
+    }
+
+    private static String normalizar(String texto) {
+        return texto.toLowerCase(Locale.ROOT);
+    }
+}
+
+/*
+4. Índice de Nombres Ordenado
+Un trie con un nodo por carácter no entra en memoria con 5 millones de
+productos (decenas de millones de nodos, cada uno con sus arreglos). En su
+lugar, dos arreglos paralelos ordenados por nombre: el nombre normalizado y
+la posición del producto, unos 8 bytes por producto además del nombre, que
+ya está en nombresIndexados. Los nombres que empiezan con un prefijo forman
+un rango contiguo que se ubica con dos búsquedas binarias.
+
+Igual que en el índice de precios, los cambios recientes van a un conjunto
+ordenado pequeño que se fusiona cuando crece, y las entradas obsoletas (el
+producto cambió de nombre) se descartan al recorrer comparando con el
+nombre vigente.
+*/
+// infrastructure/persistence/
+class IndiceNombres {
+    private String[] nombresOrdenados = new String[0];
+    private int[] posicionesOrdenadas = new int[0];
+    private final TreeSet<EntradaNombre> recientes = new TreeSet<>();
+
+    void agregar(String nombre, int posicion) {
+        if (!estaEnBase(nombre, posicion)) {
+            recientes.add(new EntradaNombre(nombre, posicion));
+        }
+    }
+
+    int getTotalRecientes() {
+        return recientes.size();
+    }
+
+    // Candidatos con ese prefijo (puede incluir entradas obsoletas)
+    int contar(String prefijo) {
+        return finRango(prefijo) - inicioRango(prefijo) + rangoRecientes(prefijo).size();
+    }
+
+    // Visita en orden de nombre las posiciones vigentes con ese prefijo
+    // hasta que el visitante devuelve false
+    void recorrer(String prefijo, String[] nombresVigentes, IntPredicate visitante) {
+        int i = inicioRango(prefijo);
+        int fin = finRango(prefijo);
+        Iterator<EntradaNombre> otros = rangoRecientes(prefijo).iterator();
+        EntradaNombre reciente = otros.hasNext() ? otros.next() : null;
+        while (i < fin || reciente != null) {
+            String nombre;
+            int posicion;
+            if (reciente == null || (i < fin && compararBase(i, reciente) < 0)) {
+                nombre = nombresOrdenados[i];
+                posicion = posicionesOrdenadas[i++];
+            } else {
+                nombre = reciente.nombre;
+                posicion = reciente.posicion;
+                reciente = otros.hasNext() ? otros.next() : null;
+            }
+            if (nombre.equals(nombresVigentes[posicion]) && !visitante.test(posicion)) {
+                return;
+            }
+        }
+    }
+
+    // Reordena todo a partir de los nombres vigentes y descarta los cambios recientes
+    void reconstruir(String[] nombresVigentes, int totalProductos) {
+        Integer[] orden = new Integer[totalProductos];
+        Arrays.setAll(orden, p -> p);
+        Arrays.parallelSort(orden, Comparator.comparing((Integer p) -> nombresVigentes[p])
+                                             .thenComparingInt(p -> p));
+        String[] nombres = new String[totalProductos];
+        int[] posiciones = new int[totalProductos];
+        for (int i = 0; i < totalProductos; i++) {
+            posiciones[i] = orden[i];
+            nombres[i] = nombresVigentes[orden[i]];
+        }
+        nombresOrdenados = nombres;
+        posicionesOrdenadas = posiciones;
+        recientes.clear();
+    }
+
+    private boolean estaEnBase(String nombre, int posicion) {
+        int i = primeroNoMenor(nombre, posicion);
+        return i < nombresOrdenados.length && posicionesOrdenadas[i] == posicion
+            && nombresOrdenados[i].equals(nombre);
+    }
+
+    private int inicioRango(String prefijo) {
+        return primeroNoMenor(prefijo, Integer.MIN_VALUE);
+    }
+
+    // Primer nombre mayor que todos los que empiezan con el prefijo
+    private int finRango(String prefijo) {
+        return primeroNoMenor(prefijo + Character.MAX_VALUE, Integer.MIN_VALUE);
+    }
+
+    private NavigableSet<EntradaNombre> rangoRecientes(String prefijo) {
+        return recientes.subSet(new EntradaNombre(prefijo, Integer.MIN_VALUE), true,
+                                new EntradaNombre(prefijo + Character.MAX_VALUE, Integer.MIN_VALUE), false);
+    }
+
+    // Búsqueda binaria por (nombre, posición)
+    private int primeroNoMenor(String nombre, int posicion) {
+        int desde = 0;
+        int hasta = nombresOrdenados.length;
+        while (desde < hasta) {
+            int medio = (desde + hasta) >>> 1;
+            int comparacion = nombresOrdenados[medio].compareTo(nombre);
+            if (comparacion < 0 || (comparacion == 0 && posicionesOrdenadas[medio] < posicion)) {
+                desde = medio + 1;
+            } else {
+                hasta = medio;
+            }
+        }
+        return desde;
+    }
+
+    private int compararBase(int i, EntradaNombre entrada) {
+        int comparacion = nombresOrdenados[i].compareTo(entrada.nombre);
+        return comparacion != 0 ? comparacion : Integer.compare(posicionesOrdenadas[i], entrada.posicion);
+    }
+
+    private static final class EntradaNombre implements Comparable<EntradaNombre> {
+        private final String nombre;
+        private final int posicion;
+
+        EntradaNombre(String nombre, int posicion) {
+            this.nombre = nombre;
+            this.posicion = posicion;
+        }
+
+        @Override
+        public int compareTo(EntradaNombre otra) {
+            int comparacion = nombre.compareTo(otra.nombre);
+            return comparacion != 0 ? comparacion : Integer.compare(posicion, otra.posicion);
+        }
+    }
+}
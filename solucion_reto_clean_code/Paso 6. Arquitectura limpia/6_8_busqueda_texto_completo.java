@@ -0,0 +1,513 @@
+/*
+Búsqueda de Texto Completo sobre Nombres de Producto
+
+Problema: los clientes buscan por palabras del nombre y hoy se hace una
+búsqueda de subcadenas recorriendo buscarTodos().
+
+Solución: un índice invertido embebido (sin servidor externo).
+- Tokenización: minúsculas, sin acentos ("Café" y "cafe" son el mismo
+  término, "Ñandú" se indexa como "nandu") y separación por no-alfanuméricos
+  (en Unicode: una letra sin descomponer, como "ø", no corta la palabra).
+- Tolerancia a errores de tipeo: cada término se descompone en trigramas;
+  si una palabra de la búsqueda no existe, se prueban los términos que
+  comparten más trigramas con ella. La cantidad de trigramas de cada
+  término se calcula una vez, al darlo de alta.
+- Listas de postings comprimidas: ids de documento ordenados, guardados como
+  diferencias (deltas) codificadas en varint.
+- Ranking BM25 y top-k con un heap de tamaño k. Las consultas amplias
+  acumulan puntajes en un arreglo por hilo que se reutiliza entre búsquedas.
+- Actualización incremental: un producto modificado recibe un id de
+  documento nuevo (así las listas siguen ordenadas al anexar) y el anterior
+  se marca como borrado. Si el nombre no cambió (se guardó por el precio o
+  el stock), no se toca el índice.
+- Compactación: cuando los borrados superan un cuarto de los documentos, se
+  renumeran los vivos en el mismo orden y se reescriben las listas sin los
+  borrados. El IDF usa solo documentos vivos.
+- El índice se mantiene desde un decorador de ProductoRepository: cada
+  guardar() y cada guardarCatalogo() exitosos pasan por indexar().
+*/
+
+// infrastructure/search/
+public class BuscadorProductos {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final double SIMILITUD_MINIMA = 0.4;
+    private static final double PESO_APROXIMADO = 0.8;
+    private static final int BORRADOS_MINIMOS_PARA_COMPACTAR = 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> terminos = new HashMap<>();
+    private final List<ListaPostings> postings = new ArrayList<>();
+    private int[] trigramasPorTermino = new int[1024];
+    private final Map<String, List<Integer>> terminosPorTrigrama = new HashMap<>();
+
+    private final Map<String, Integer> documentoPorProducto = new HashMap<>();
+    private String[] productoPorDocumento = new String[1024];
+    private String[] textoPorDocumento = new String[1024];
+    private int[] longitudDocumento = new int[1024];
+    private final BitSet borrados = new BitSet();
+    private int totalBorrados;
+    private int totalDocumentos;
+    private long sumaLongitudes;
+
+    // Puntajes de las consultas amplias: uno por hilo, se deja en cero al terminar
+    private final ThreadLocal<double[]> acumuladores = ThreadLocal.withInitial(() -> new double[0]);
+
+    // Alta o modificación de un producto
+    public void indexar(Producto producto) {
+        indexar(producto.getId(), producto.getNombre());
+    }
+
+    public void indexar(String idProducto, String texto) {
+        List<String> tokens = Tokenizador.tokenizar(texto);
+        lock.writeLock().lock();
+        try {
+            Integer actual = documentoPorProducto.get(idProducto);
+            if (actual != null && texto.equals(textoPorDocumento[actual])) {
+                return; // el texto indexado no cambió
+            }
+            quitarSinLock(idProducto);
+            int documento = totalDocumentos++;
+            if (documento == productoPorDocumento.length) {
+                productoPorDocumento = Arrays.copyOf(productoPorDocumento, documento * 2);
+                textoPorDocumento = Arrays.copyOf(textoPorDocumento, documento * 2);
+                longitudDocumento = Arrays.copyOf(longitudDocumento, documento * 2);
+            }
+            productoPorDocumento[documento] = idProducto;
+            textoPorDocumento[documento] = texto;
+            longitudDocumento[documento] = tokens.size();
+            sumaLongitudes += tokens.size();
+            documentoPorProducto.put(idProducto, documento);
+
+            Map<String, Integer> frecuencias = new HashMap<>();
+            tokens.forEach(token -> frecuencias.merge(token, 1, Integer::sum));
+            frecuencias.forEach((token, frecuencia) ->
+                postings.get(idTermino(token)).anexar(documento, frecuencia));
+            compactarSiConviene();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void quitar(String idProducto) {
+        lock.writeLock().lock();
+        try {
+            quitarSinLock(idProducto);
+            compactarSiConviene();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve los ids de los k productos más relevantes para el texto buscado.
+     */
+    public List<String> buscar(String texto, int k) {
+        List<String> tokens = Tokenizador.tokenizar(texto);
+        lock.readLock().lock();
+        try {
+            int documentosVivos = totalDocumentos - totalBorrados;
+            double longitudPromedio = documentosVivos == 0 ? 1 : (double) sumaLongitudes / documentosVivos;
+            List<Map.Entry<Integer, Double>> terminosConsulta = new ArrayList<>();
+            long postingsPorRecorrer = 0;
+            for (String token : tokens) {
+                for (Map.Entry<Integer, Double> termino : terminosCandidatos(token).entrySet()) {
+                    terminosConsulta.add(termino);
+                    postingsPorRecorrer += postings.get(termino.getKey()).getTotal();
+                }
+            }
+            // Consultas que tocan buena parte del catálogo acumulan en el arreglo
+            // denso del hilo; las selectivas, en un mapa para no recorrerlo entero
+            double[] denso = postingsPorRecorrer > totalDocumentos / 32 ? acumulador(totalDocumentos) : null;
+            Map<Integer, Double> disperso = denso == null ? new HashMap<>() : null;
+
+            for (Map.Entry<Integer, Double> termino : terminosConsulta) {
+                ListaPostings lista = postings.get(termino.getKey());
+                int conTermino = lista.getVivos();
+                double idf = Math.log(1 + (documentosVivos - conTermino + 0.5) / (conTermino + 0.5));
+                double peso = termino.getValue();
+                lista.recorrer((documento, frecuencia) -> {
+                    if (borrados.get(documento)) {
+                        return;
+                    }
+                    double normalizacion = 1 - B + B * longitudDocumento[documento] / longitudPromedio;
+                    double bm25 = idf * frecuencia * (K1 + 1) / (frecuencia + K1 * normalizacion);
+                    if (denso != null) {
+                        denso[documento] += peso * bm25;
+                    } else {
+                        disperso.merge(documento, peso * bm25, Double::sum);
+                    }
+                });
+            }
+            if (denso == null) {
+                return topK(disperso, k);
+            }
+            try {
+                return topK(denso, totalDocumentos, k);
+            } finally {
+                Arrays.fill(denso, 0, totalDocumentos, 0);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Crece solo cuando el índice supera lo que el hilo ya tenía reservado
+    private double[] acumulador(int documentos) {
+        double[] actual = acumuladores.get();
+        if (actual.length < documentos) {
+            actual = new double[Math.max(documentos, actual.length + actual.length / 2)];
+            acumuladores.set(actual);
+        }
+        return actual;
+    }
+
+    // Término exacto si existe; si no, los parecidos por trigramas
+    private Map<Integer, Double> terminosCandidatos(String token) {
+        Integer exacto = terminos.get(token);
+        if (exacto != null && postings.get(exacto).getVivos() > 0) {
+            return Map.of(exacto, 1.0);
+        }
+        Set<String> trigramasBuscados = Tokenizador.trigramas(token);
+        Map<Integer, Integer> compartidos = new HashMap<>();
+        for (String trigrama : trigramasBuscados) {
+            for (int termino : terminosPorTrigrama.getOrDefault(trigrama, List.of())) {
+                compartidos.merge(termino, 1, Integer::sum);
+            }
+        }
+        Map<Integer, Double> candidatos = new HashMap<>();
+        compartidos.forEach((termino, enComun) -> {
+            if (postings.get(termino).getVivos() == 0) {
+                return;
+            }
+            int trigramasTermino = trigramasPorTermino[termino];
+            double jaccard = (double) enComun / (trigramasBuscados.size() + trigramasTermino - enComun);
+            if (jaccard >= SIMILITUD_MINIMA) {
+                candidatos.put(termino, PESO_APROXIMADO * jaccard);
+            }
+        });
+        return candidatos;
+    }
+
+    private List<String> topK(Map<Integer, Double> puntajes, int k) {
+        PriorityQueue<Map.Entry<Integer, Double>> mejores =
+            new PriorityQueue<>(k + 1, Map.Entry.comparingByValue());
+        for (Map.Entry<Integer, Double> puntaje : puntajes.entrySet()) {
+            mejores.offer(puntaje);
+            if (mejores.size() > k) {
+                mejores.poll(); // descarta el de menor puntaje
+            }
+        }
+        List<String> resultado = new ArrayList<>(mejores.size());
+        while (!mejores.isEmpty()) {
+            resultado.add(productoPorDocumento[mejores.poll().getKey()]);
+        }
+        Collections.reverse(resultado);
+        return resultado;
+    }
+
+    private List<String> topK(double[] puntajes, int documentos, int k) {
+        PriorityQueue<Integer> mejores =
+            new PriorityQueue<>(k + 1, Comparator.comparingDouble(documento -> puntajes[documento]));
+        for (int documento = 0; documento < documentos; documento++) {
+            if (puntajes[documento] > 0
+                    && (mejores.size() < k || puntajes[documento] > puntajes[mejores.peek()])) {
+                mejores.offer(documento);
+                if (mejores.size() > k) {
+                    mejores.poll();
+                }
+            }
+        }
+        List<String> resultado = new ArrayList<>(mejores.size());
+        while (!mejores.isEmpty()) {
+            resultado.add(productoPorDocumento[mejores.poll()]);
+        }
+        Collections.reverse(resultado);
+        return resultado;
+    }
+
+    private int idTermino(String token) {
+        Integer existente = terminos.get(token);
+        if (existente != null) {
+            return existente;
+        }
+        int id = postings.size();
+        terminos.put(token, id);
+        postings.add(new ListaPostings());
+        Set<String> trigramas = Tokenizador.trigramas(token);
+        if (id == trigramasPorTermino.length) {
+            trigramasPorTermino = Arrays.copyOf(trigramasPorTermino, id * 2);
+        }
+        trigramasPorTermino[id] = trigramas.size();
+        for (String trigrama : trigramas) {
+            terminosPorTrigrama.computeIfAbsent(trigrama, t -> new ArrayList<>()).add(id);
+        }
+        return id;
+    }
+
+    private void quitarSinLock(String idProducto) {
+        Integer anterior = documentoPorProducto.remove(idProducto);
+        if (anterior != null) {
+            borrados.set(anterior);
+            totalBorrados++;
+            sumaLongitudes -= longitudDocumento[anterior];
+            // Los términos del documento se recuperan de su texto: el IDF cuenta solo vivos
+            for (String token : new HashSet<>(Tokenizador.tokenizar(textoPorDocumento[anterior]))) {
+                postings.get(terminos.get(token)).descontarBorrado();
+            }
+            textoPorDocumento[anterior] = null;
+        }
+    }
+
+    // Costo amortizado: se compacta recién cuando los borrados son un cuarto del total
+    private void compactarSiConviene() {
+        if (totalBorrados < BORRADOS_MINIMOS_PARA_COMPACTAR || totalBorrados * 4 < totalDocumentos) {
+            return;
+        }
+        // Los vivos conservan su orden relativo: las listas siguen ordenadas
+        int[] nuevoId = new int[totalDocumentos];
+        int vivos = 0;
+        for (int documento = 0; documento < totalDocumentos; documento++) {
+            if (borrados.get(documento)) {
+                nuevoId[documento] = -1;
+                continue;
+            }
+            nuevoId[documento] = vivos;
+            productoPorDocumento[vivos] = productoPorDocumento[documento];
+            textoPorDocumento[vivos] = textoPorDocumento[documento];
+            longitudDocumento[vivos] = longitudDocumento[documento];
+            documentoPorProducto.put(productoPorDocumento[vivos], vivos);
+            vivos++;
+        }
+        Arrays.fill(productoPorDocumento, vivos, totalDocumentos, null);
+        Arrays.fill(textoPorDocumento, vivos, totalDocumentos, null);
+        postings.replaceAll(lista -> lista.compactar(nuevoId));
+        borrados.clear();
+        totalBorrados = 0;
+        totalDocumentos = vivos;
+    }
+}
+
+/*
+Lista de postings comprimida: por cada documento se guarda la diferencia con
+el anterior y la frecuencia del término, ambas en varint. Un id típico ocupa
+1 o 2 bytes en lugar de 4.
+*/
+// infrastructure/search/
+class ListaPostings {
+    private byte[] datos = new byte[8];
+    private int longitud;
+    private int ultimoDocumento = -1;
+    private int total;
+    private int vivos;
+
+    void anexar(int documento, int frecuencia) {
+        // Los documentos nuevos siempre tienen id mayor: la lista sigue ordenada
+        escribirVarint(documento - ultimoDocumento);
+        escribirVarint(frecuencia);
+        ultimoDocumento = documento;
+        total++;
+        vivos++;
+    }
+
+    void descontarBorrado() {
+        vivos--;
+    }
+
+    // Nueva lista con los documentos renumerados; los de id -1 (borrados) se descartan
+    ListaPostings compactar(int[] nuevoId) {
+        ListaPostings compacta = new ListaPostings();
+        recorrer((documento, frecuencia) -> {
+            if (nuevoId[documento] >= 0) {
+                compacta.anexar(nuevoId[documento], frecuencia);
+            }
+        });
+        return compacta;
+    }
+
+    void recorrer(BiConsumerEntero visitante) {
+        int posicion = 0;
+        int documento = -1;
+        while (posicion < longitud) {
+            int delta = 0;
+            int desplazamiento = 0;
+            byte b;
+            do {
+                b = datos[posicion++];
+                delta |= (b & 0x7F) << desplazamiento;
+                desplazamiento += 7;
+            } while ((b & 0x80) != 0);
+            int frecuencia = 0;
+            desplazamiento = 0;
+            do {
+                b = datos[posicion++];
+                frecuencia |= (b & 0x7F) << desplazamiento;
+                desplazamiento += 7;
+            } while ((b & 0x80) != 0);
+            documento += delta;
+            visitante.aceptar(documento, frecuencia);
+        }
+    }
+
+    // Documentos que contienen el término (incluye borrados hasta compactar)
+    int getTotal() {
+        return total;
+    }
+
+    // Documentos vivos que contienen el término (para el IDF)
+    int getVivos() {
+        return vivos;
+    }
+
+    private void escribirVarint(int valor) {
+        while (true) {
+            if (longitud + 1 > datos.length) {
+                datos = Arrays.copyOf(datos, datos.length * 2);
+            }
+            if ((valor & ~0x7F) == 0) {
+                datos[longitud++] = (byte) valor;
+                return;
+            }
+            datos[longitud++] = (byte) ((valor & 0x7F) | 0x80);
+            valor >>>= 7;
+        }
+    }
+
+    interface BiConsumerEntero {
+        void aceptar(int documento, int frecuencia);
+    }
+}
+
+/*
+Tokenizador para el catálogo en español: minúsculas, sin tildes ni diéresis
+(NFD + quitar marcas diacríticas) y separación por no-alfanuméricos. Las
+clases de caracteres son las de Unicode: sin UNICODE_CHARACTER_CLASS,
+\p{Alnum} es solo ASCII y cualquier letra que no se descompone ("ø", "ß",
+"ł") partiría la palabra en dos.
+*/
+// infrastructure/search/
+final class Tokenizador {
+    private static final Pattern MARCAS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARADORES = Pattern.compile("[^\\p{Alnum}]+", Pattern.UNICODE_CHARACTER_CLASS);
+
+    private Tokenizador() {
+    }
+
+    static List<String> tokenizar(String texto) {
+        String normalizado = MARCAS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD)).replaceAll("");
+        List<String> tokens = new ArrayList<>();
+        for (String token : SEPARADORES.split(normalizado.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    // "mesa" -> {"$me", "mes", "esa", "sa$"}
+    static Set<String> trigramas(String token) {
+        String conBordes = "$" + token + "$";
+        Set<String> trigramas = new HashSet<>();
+        for (int i = 0; i + 3 <= conBordes.length(); i++) {
+            trigramas.add(conBordes.substring(i, i + 3));
+        }
+        return trigramas;
+    }
+}
+
+/*
+Decorador de ProductoRepository que mantiene el índice al día: al crearse
+indexa el catálogo actual, y después indexa cada producto guardado y cada
+fila de guardarCatalogo() (carga nocturna, 6_11) una vez que el respaldo
+los aceptó. Las filas con el mismo nombre no se reindexan, así que una carga
+que solo cambia precios o stock no toca el índice. Las reservas y
+liberaciones de stock no cambian nombres y pasan directo al respaldo.
+
+ProductoRepository no tiene baja de productos; el adaptador que la agregue
+debe llamar a buscador.quitar(id) después de borrar en el respaldo.
+*/
+// infrastructure/search/
+public class ProductoRepositoryConBusqueda implements ProductoRepository {
+    private final ProductoRepository respaldo;
+    private final BuscadorProductos buscador;
+
+    public ProductoRepositoryConBusqueda(ProductoRepository respaldo, BuscadorProductos buscador) {
+        this.respaldo = respaldo;
+        this.buscador = buscador;
+        respaldo.buscarTodos().forEach(buscador::indexar);
+    }
+
+    @Override
+    public Optional<Producto> buscarPorId(String id) {
+        return respaldo.buscarPorId(id);
+    }
+
+    @Override
+    public List<Producto> buscarTodos() {
+        return respaldo.buscarTodos();
+    }
+
+    @Override
+    public void guardar(Producto producto) {
+        respaldo.guardar(producto);
+        buscador.indexar(producto);
+    }
+
+    @Override
+    public void reservarStock(List<ReservaStock> reservas) {
+        respaldo.reservarStock(reservas);
+    }
+
+    @Override
+    public void liberarStock(List<ReservaStock> reservas) {
+        respaldo.liberarStock(reservas);
+    }
+
+    // Se indexa desde las columnas: no hace falta construir un Producto por fila
+    @Override
+    public void guardarCatalogo(CatalogoColumnar catalogo) {
+        respaldo.guardarCatalogo(catalogo);
+        for (int posicion = 0; posicion < catalogo.getTotalProductos(); posicion++) {
+            buscador.indexar(catalogo.getId(posicion), catalogo.getNombre(posicion));
+        }
+    }
+}
+
+/*
+Uso desde un caso de uso: el buscador devuelve ids y el repositorio los
+resuelve a productos (ver en 6_9 cómo se arma la cadena de decoradores).
+*/
+// application/usecases/
+public class BuscarProductosUseCase {
+    private final BuscadorProductos buscador;
+    private final ProductoRepository productoRepository;
+
+    public BuscarProductosUseCase(BuscadorProductos buscador, ProductoRepository productoRepository) {
+        this.buscador = buscador;
+        this.productoRepository = productoRepository;
+    }
+
+    public List<Producto> ejecutar(String texto, int cantidadResultados) {
+        return buscador.buscar(texto, cantidadResultados).stream()
+            .map(productoRepository::buscarPorId)
+            .flatMap(Optional::stream)
+            .collect(Collectors.toList());
+    }
+}
+
+//Configuración: un solo buscador, compartido por el decorador y el caso de uso
+// infrastructure/config/
+@Configuration
+public class BusquedaConfig {
+
+    @Bean
+    public BuscadorProductos buscadorProductos() {
+        return new BuscadorProductos();
+    }
+
+    @Bean
+    public BuscarProductosUseCase buscarProductosUseCase(BuscadorProductos buscador,
+                                                         ProductoRepository productoRepository) {
+        return new BuscarProductosUseCase(buscador, productoRepository);
+    }
+}
@@ -0,0 +1,421 @@
+/*
+Caché de Lectura para ProductoRepository (W-TinyLFU)
+
+Problema: AgregarProductoAlCarritoUseCase llama a productoRepository.buscarPorId
+en cada agregado al carrito y las lecturas de productos son la mayor parte de
+la carga de la base de datos.
+
+Solución: un decorador de ProductoRepository que lee a través de una caché
+acotada en cantidad de entradas.
+- Política W-TinyLFU: una ventana LRU pequeña (1%) recibe las entradas nuevas;
+  el resto es un LRU segmentado (prueba 20% / protegida 80%). Cuando la
+  ventana desborda, su candidato solo entra a la zona principal si es más
+  frecuente que la víctima de la zona de prueba. Un recorrido completo del
+  catálogo (un listado, un bot) no desplaza a los productos populares.
+- Frecuencias aproximadas con un Count-Min Sketch de contadores de 4 bits
+  que se reduce a la mitad periódicamente (las modas viejas se olvidan).
+- Vencimiento por entrada (TTL) y estadísticas de aciertos, fallos,
+  desalojos y vencimientos.
+- guardar() actualiza la entrada en caché; reservarStock() y liberarStock()
+  la invalidan; guardarCatalogo() invalida toda la caché.
+
+El caso de uso no cambia: sigue dependiendo de la interfaz ProductoRepository.
+*/
+
+// infrastructure/cache/
+public class ProductoRepositoryConCache implements ProductoRepository {
+    private static final int FRANJAS_GENERACION = 1024;
+
+    private final ProductoRepository respaldo;
+    private final long vidaNanos;
+
+    // Lecturas sin lock; toda modificación del mapa y de la política va bajo "lock"
+    private final ConcurrentHashMap<String, Entrada> entradas = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PoliticaTinyLfu politica;
+
+    // Cada invalidación incrementa la generación de la franja de la clave: una
+    // carga que empezó antes no publica un valor viejo
+    private final AtomicLongArray generaciones = new AtomicLongArray(FRANJAS_GENERACION);
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder desalojos = new LongAdder();
+    private final LongAdder vencimientos = new LongAdder();
+
+    public ProductoRepositoryConCache(ProductoRepository respaldo, int maximoEntradas, Duration vida) {
+        if (maximoEntradas < 2) {
+            throw new IllegalArgumentException("La caché debe admitir al menos 2 entradas");
+        }
+        this.respaldo = respaldo;
+        this.vidaNanos = vida.toNanos();
+        this.politica = new PoliticaTinyLfu(maximoEntradas);
+    }
+
+    @Override
+    public Optional<Producto> buscarPorId(String id) {
+        long ahora = System.nanoTime();
+        Entrada entrada = entradas.get(id);
+        if (entrada != null && !entrada.vencida(ahora)) {
+            aciertos.increment();
+            registrarAcceso(entrada);
+            return Optional.of(entrada.producto);
+        }
+        fallos.increment();
+        if (entrada != null) {
+            vencimientos.increment();
+            invalidar(id);
+        }
+
+        long generacion = generaciones.get(franja(id));
+        Optional<Producto> producto = respaldo.buscarPorId(id);
+        producto.ifPresent(p -> publicar(id, p, generacion));
+        return producto;
+    }
+
+    @Override
+    public List<Producto> buscarTodos() {
+        // Un listado completo no pasa por la caché: no debe desplazar a los populares
+        return respaldo.buscarTodos();
+    }
+
+    @Override
+    public void guardar(Producto producto) {
+        respaldo.guardar(producto);
+        lock.lock();
+        try {
+            generaciones.incrementAndGet(franja(producto.getId()));
+            Entrada entrada = entradas.get(producto.getId());
+            if (entrada != null) {
+                entrada.producto = producto;
+                entrada.venceNanos = System.nanoTime() + vidaNanos;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void reservarStock(List<ReservaStock> reservas) {
+        try {
+            respaldo.reservarStock(reservas);
+        } finally {
+            // El stock cambió en el respaldo (o quedó en duda si hubo error)
+            reservas.forEach(reserva -> invalidar(reserva.getIdProducto()));
+        }
+    }
+
+    @Override
+    public void liberarStock(List<ReservaStock> reservas) {
+        try {
+            respaldo.liberarStock(reservas);
+        } finally {
+            reservas.forEach(reserva -> invalidar(reserva.getIdProducto()));
+        }
+    }
+
+    @Override
+    public void guardarCatalogo(CatalogoColumnar catalogo) {
+        try {
+            respaldo.guardarCatalogo(catalogo);
+        } finally {
+            invalidarTodo();
+        }
+    }
+
+    public EstadisticasCache estadisticas() {
+        return new EstadisticasCache(aciertos.sum(), fallos.sum(), desalojos.sum(),
+                                     vencimientos.sum(), entradas.size());
+    }
+
+    // Reordenar las listas en cada lectura serializaría a los lectores: si la
+    // política está ocupada se omite el registro (pérdida aceptable, como un
+    // muestreo del acceso)
+    private void registrarAcceso(Entrada entrada) {
+        if (lock.tryLock()) {
+            try {
+                if (entradas.get(entrada.clave) == entrada) {
+                    politica.registrarAcceso(entrada);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void publicar(String id, Producto producto, long generacionInicial) {
+        lock.lock();
+        try {
+            if (generaciones.get(franja(id)) != generacionInicial || entradas.containsKey(id)) {
+                return; // hubo una escritura durante la carga, o ya la publicó otro hilo
+            }
+            Entrada entrada = new Entrada(id, producto, System.nanoTime() + vidaNanos);
+            entradas.put(id, entrada);
+            for (Entrada desalojada : politica.agregar(entrada)) {
+                entradas.remove(desalojada.clave, desalojada);
+                desalojos.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void invalidar(String id) {
+        lock.lock();
+        try {
+            generaciones.incrementAndGet(franja(id));
+            Entrada entrada = entradas.remove(id);
+            if (entrada != null) {
+                politica.quitar(entrada);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Todas las generaciones avanzan: ninguna carga en curso publica un valor anterior
+    private void invalidarTodo() {
+        lock.lock();
+        try {
+            for (int i = 0; i < FRANJAS_GENERACION; i++) {
+                generaciones.incrementAndGet(i);
+            }
+            entradas.values().forEach(politica::quitar);
+            entradas.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int franja(String id) {
+        int hash = id.hashCode();
+        return (hash ^ (hash >>> 16)) & (FRANJAS_GENERACION - 1);
+    }
+
+    enum Zona { VENTANA, PRUEBA, PROTEGIDA }
+
+    static final class Entrada {
+        final String clave;
+        volatile Producto producto;
+        volatile long venceNanos;
+        Zona zona;
+
+        Entrada(String clave, Producto producto, long venceNanos) {
+            this.clave = clave;
+            this.producto = producto;
+            this.venceNanos = venceNanos;
+        }
+
+        boolean vencida(long ahoraNanos) {
+            return ahoraNanos - venceNanos >= 0;
+        }
+    }
+}
+
+/*
+Política W-TinyLFU. Las tres zonas son LinkedHashMap en orden de inserción:
+la primera entrada es la usada hace más tiempo y "mover al final" es
+quitar y volver a insertar. No es segura para hilos: la protege el lock
+del decorador.
+*/
+// infrastructure/cache/
+class PoliticaTinyLfu {
+    private final LinkedHashMap<String, ProductoRepositoryConCache.Entrada> ventana = new LinkedHashMap<>();
+    private final LinkedHashMap<String, ProductoRepositoryConCache.Entrada> prueba = new LinkedHashMap<>();
+    private final LinkedHashMap<String, ProductoRepositoryConCache.Entrada> protegida = new LinkedHashMap<>();
+    private final SketchFrecuencias sketch;
+    private final int maximoVentana;
+    private final int maximoPrincipal;
+    private final int maximoProtegida;
+
+    PoliticaTinyLfu(int maximoEntradas) {
+        this.maximoVentana = Math.max(1, maximoEntradas / 100);
+        this.maximoPrincipal = maximoEntradas - maximoVentana;
+        this.maximoProtegida = maximoPrincipal * 8 / 10;
+        this.sketch = new SketchFrecuencias(maximoEntradas);
+    }
+
+    void registrarAcceso(ProductoRepositoryConCache.Entrada entrada) {
+        sketch.incrementar(entrada.clave.hashCode());
+        switch (entrada.zona) {
+            case VENTANA:
+                moverAlFinal(ventana, entrada);
+                break;
+            case PROTEGIDA:
+                moverAlFinal(protegida, entrada);
+                break;
+            case PRUEBA:
+                // Segundo acceso: sube a la zona protegida; si desborda, la
+                // menos reciente de la protegida vuelve a prueba
+                prueba.remove(entrada.clave);
+                ubicar(protegida, entrada, ProductoRepositoryConCache.Zona.PROTEGIDA);
+                if (protegida.size() > maximoProtegida) {
+                    ubicar(prueba, quitarPrimera(protegida), ProductoRepositoryConCache.Zona.PRUEBA);
+                }
+                break;
+        }
+    }
+
+    // Devuelve las entradas desalojadas para que el decorador las quite del mapa
+    List<ProductoRepositoryConCache.Entrada> agregar(ProductoRepositoryConCache.Entrada entrada) {
+        sketch.incrementar(entrada.clave.hashCode());
+        ubicar(ventana, entrada, ProductoRepositoryConCache.Zona.VENTANA);
+        if (ventana.size() <= maximoVentana) {
+            return List.of();
+        }
+        ProductoRepositoryConCache.Entrada candidato = quitarPrimera(ventana);
+        if (prueba.size() + protegida.size() < maximoPrincipal) {
+            ubicar(prueba, candidato, ProductoRepositoryConCache.Zona.PRUEBA);
+            return List.of();
+        }
+        // Admisión: el candidato compite con la víctima de la zona principal
+        LinkedHashMap<String, ProductoRepositoryConCache.Entrada> zonaVictima =
+            prueba.isEmpty() ? protegida : prueba;
+        ProductoRepositoryConCache.Entrada victima = zonaVictima.values().iterator().next();
+        if (sketch.frecuencia(candidato.clave.hashCode()) > sketch.frecuencia(victima.clave.hashCode())) {
+            zonaVictima.remove(victima.clave);
+            ubicar(prueba, candidato, ProductoRepositoryConCache.Zona.PRUEBA);
+            return List.of(victima);
+        }
+        return List.of(candidato);
+    }
+
+    void quitar(ProductoRepositoryConCache.Entrada entrada) {
+        zonaDe(entrada).remove(entrada.clave);
+    }
+
+    private void moverAlFinal(LinkedHashMap<String, ProductoRepositoryConCache.Entrada> zona,
+                              ProductoRepositoryConCache.Entrada entrada) {
+        zona.remove(entrada.clave);
+        zona.put(entrada.clave, entrada);
+    }
+
+    private void ubicar(LinkedHashMap<String, ProductoRepositoryConCache.Entrada> zona,
+                        ProductoRepositoryConCache.Entrada entrada, ProductoRepositoryConCache.Zona nombre) {
+        entrada.zona = nombre;
+        zona.put(entrada.clave, entrada);
+    }
+
+    private ProductoRepositoryConCache.Entrada quitarPrimera(
+            LinkedHashMap<String, ProductoRepositoryConCache.Entrada> zona) {
+        Iterator<ProductoRepositoryConCache.Entrada> iterador = zona.values().iterator();
+        ProductoRepositoryConCache.Entrada primera = iterador.next();
+        iterador.remove();
+        return primera;
+    }
+
+    private LinkedHashMap<String, ProductoRepositoryConCache.Entrada> zonaDe(
+            ProductoRepositoryConCache.Entrada entrada) {
+        switch (entrada.zona) {
+            case VENTANA:
+                return ventana;
+            case PRUEBA:
+                return prueba;
+            default:
+                return protegida;
+        }
+    }
+}
+
+/*
+Count-Min Sketch con contadores de 4 bits (16 por long). Cada clave suma en
+4 contadores y su frecuencia es el mínimo de ellos. Tras 10 × capacidad
+incrementos todos los contadores se dividen por 2.
+*/
+// infrastructure/cache/
+class SketchFrecuencias {
+    private static final long[] SEMILLAS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long MITAD = 0x7777777777777777L;
+    private static final int MAXIMO = 15;
+
+    private final long[] tabla;
+    private final int muestra;
+    private int incrementos;
+
+    SketchFrecuencias(int capacidad) {
+        // Potencia de 2 >= capacidad: el índice se obtiene con una máscara
+        this.tabla = new long[Integer.highestOneBit(capacidad - 1) << 1];
+        this.muestra = 10 * capacidad;
+    }
+
+    void incrementar(int hash) {
+        for (int i = 0; i < SEMILLAS.length; i++) {
+            long mezcla = mezclar(hash, i);
+            int indice = (int) mezcla & (tabla.length - 1);
+            int desplazamiento = (int) (mezcla >>> 60) << 2;
+            if (((tabla[indice] >>> desplazamiento) & MAXIMO) < MAXIMO) {
+                tabla[indice] += 1L << desplazamiento;
+            }
+        }
+        if (++incrementos == muestra) {
+            envejecer();
+        }
+    }
+
+    int frecuencia(int hash) {
+        int minimo = MAXIMO;
+        for (int i = 0; i < SEMILLAS.length; i++) {
+            long mezcla = mezclar(hash, i);
+            int indice = (int) mezcla & (tabla.length - 1);
+            int desplazamiento = (int) (mezcla >>> 60) << 2;
+            minimo = Math.min(minimo, (int) ((tabla[indice] >>> desplazamiento) & MAXIMO));
+        }
+        return minimo;
+    }
+
+    private void envejecer() {
+        for (int i = 0; i < tabla.length; i++) {
+            tabla[i] = (tabla[i] >>> 1) & MITAD;
+        }
+        incrementos /= 2;
+    }
+
+    private static long mezclar(int hash, int fila) {
+        long mezcla = (hash + SEMILLAS[fila]) * SEMILLAS[fila];
+        return mezcla ^ (mezcla >>> 32);
+    }
+}
+
+// infrastructure/cache/
+public final class EstadisticasCache {
+    private final long aciertos;
+    private final long fallos;
+    private final long desalojos;
+    private final long vencimientos;
+    private final int entradas;
+
+    public EstadisticasCache(long aciertos, long fallos, long desalojos, long vencimientos, int entradas) {
+        this.aciertos = aciertos;
+        this.fallos = fallos;
+        this.desalojos = desalojos;
+        this.vencimientos = vencimientos;
+        this.entradas = entradas;
+    }
+
+    public double tasaAciertos() {
+        long consultas = aciertos + fallos;
+        return consultas == 0 ? 0 : (double) aciertos / consultas;
+    }
+
+    // Getters
+}
+
+//Configuración: la caché envuelve al repositorio de JPA
+// infrastructure/config/
+@Configuration
+public class CacheConfig {
+
+    @Bean
+    @Primary
+    public ProductoRepository productoRepository(ProductoRepositoryJpa productoRepositoryJpa,
+                                                 BuscadorProductos buscador) {
+        return new ProductoRepositoryConCache(
+            new ProductoRepositoryCoalescente(                         // ver 6_10
+                new ProductoRepositoryConBusqueda(productoRepositoryJpa, buscador)),  // ver 6_8
+            100_000,                  // productos en caché
+            Duration.ofMinutes(5)     // vida máxima de una entrada
+        );
+    }
+}